@@ -0,0 +1,135 @@
+package smarticulous;
+
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Seeded random data for the benchmarks, in the spirit of the tests' DBUtil.fillRandomDB: the same seed and sizes
+ * always produce the same database, so results are comparable between runs.
+ */
+class BenchData {
+    static final long SEED = 20181;
+    static final int EXERCISES = 50;
+    static final int MIN_QUESTIONS = 3;
+    static final int MAX_QUESTIONS = 12;
+    static final int BATCH = 10000;
+
+    final Random rand = new Random(SEED);
+    final List<User> users = new ArrayList<>();
+    final List<String> passwords = new ArrayList<>();
+    final List<Exercise> exercises = new ArrayList<>();
+
+    /**
+     * @param storage "file" for a temporary database file or "memory" for an in-memory database
+     * @return the JDBC url of a new, empty database.
+     */
+    static String newDbUrl(String storage) throws IOException {
+        if ("memory".equals(storage)) {
+            return "jdbc:sqlite::memory:";
+        }
+        File file = File.createTempFile("smarticulous-bench", ".sqlite");
+        file.delete();
+        file.deleteOnExit();
+        new File(file.getPath() + "-wal").deleteOnExit();
+        new File(file.getPath() + "-shm").deleteOnExit();
+        return "jdbc:sqlite:" + file.getAbsolutePath();
+    }
+
+    String randomWord(int len) {
+        return randomWord(len, rand);
+    }
+
+    static String randomWord(int len, Random rand) {
+        StringBuilder s = new StringBuilder(len);
+        for (int i = 0; i < len; ++i) {
+            s.append((char) ('a' + rand.nextInt(26)));
+        }
+        return s.toString();
+    }
+
+    /**
+     * Fill an open database with the given number of users and submissions (and {@link #EXERCISES} exercises).
+     */
+    void fill(Smarticulous smarticulous, int numUsers, int numSubmissions) throws SQLException {
+        Map<User, String> roster = new LinkedHashMap<>();
+        for (int u = 0; u < numUsers; ++u) {
+            User user = new User("user" + u, randomWord(6), randomWord(8));
+            String pass = randomWord(10);
+            users.add(user);
+            passwords.add(pass);
+            roster.put(user, pass);
+            if (roster.size() == BATCH) {
+                smarticulous.addOrUpdateUsers(roster);
+                roster.clear();
+            }
+        }
+        smarticulous.addOrUpdateUsers(roster);
+
+        for (int e = 1; e <= EXERCISES; ++e) {
+            Exercise ex = newExercise(e);
+            smarticulous.addExercise(ex);
+            exercises.add(ex);
+        }
+
+        List<Submission> batch = new ArrayList<>(BATCH);
+        for (int s = 0; s < numSubmissions; ++s) {
+            batch.add(randomSubmission());
+            if (batch.size() == BATCH) {
+                smarticulous.storeSubmissions(batch);
+                batch.clear();
+            }
+        }
+        smarticulous.storeSubmissions(batch);
+    }
+
+    Exercise newExercise(int id) {
+        return newExercise(id, rand);
+    }
+
+    /**
+     * The random helpers that take a Random are for the benchmark threads, which draw from their own.
+     */
+    static Exercise newExercise(int id, Random rand) {
+        Exercise ex = new Exercise(id, randomWord(8, rand), new Date(1546300800000L + rand.nextInt(365) * 86400000L));
+        int questions = MIN_QUESTIONS + rand.nextInt(MAX_QUESTIONS - MIN_QUESTIONS + 1);
+        for (int q = 0; q < questions; ++q) {
+            ex.addQuestion(randomWord(6, rand), randomWord(20, rand), 5 + rand.nextInt(26));
+        }
+        return ex;
+    }
+
+    /**
+     * @return a copy of the exercise with another id.
+     */
+    static Exercise withId(Exercise template, int id) {
+        Exercise ex = new Exercise(id, template.name, template.dueDate);
+        for (Exercise.Question question : template.questions) {
+            ex.addQuestion(question.name, question.desc, question.points);
+        }
+        return ex;
+    }
+
+    Submission randomSubmission() {
+        return randomSubmission(rand);
+    }
+
+    Submission randomSubmission(Random rand) {
+        Exercise ex = exercises.get(rand.nextInt(exercises.size()));
+        float[] grades = new float[ex.questions.size()];
+        for (int q = 0; q < grades.length; ++q) {
+            grades[q] = rand.nextInt(ex.questions.get(q).points + 1);
+        }
+        return new Submission(users.get(rand.nextInt(users.size())), ex, new Date(ex.dueDate.getTime() - rand.nextInt(86400000)), grades);
+    }
+}
@@ -0,0 +1,94 @@
+package smarticulous;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import smarticulous.db.Exercise;
+import smarticulous.db.User;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open time and query latency of an existing file database under each {@link SqliteProfile}.
+ * <p>
+ * openAndClose measures what a worker process pays to open the database (the schema is already current, so
+ * {@link Smarticulous#openDB} only reads user_version), the query benchmarks measure an open database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OpenBenchmark {
+    @Param({"100000"})
+    int size;
+
+    @Param({"default", "tuned"})
+    String profile;
+
+    String dburl;
+    SqliteProfile sqliteProfile;
+    BenchData data;
+    Smarticulous smarticulous;
+    final Random rand = new Random(BenchData.SEED);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        sqliteProfile = "tuned".equals(profile) ? SqliteProfile.TUNED : SqliteProfile.DEFAULT;
+        dburl = BenchData.newDbUrl("file");
+        data = new BenchData();
+        // the database is created under the profile, so a tuned page size applies
+        Smarticulous filler = new Smarticulous();
+        filler.openDB(dburl, 0, sqliteProfile);
+        data.fill(filler, size, size);
+        filler.closeDB();
+
+        smarticulous = new Smarticulous();
+        smarticulous.openDB(dburl, 0, sqliteProfile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        smarticulous.closeDB();
+    }
+
+    @Benchmark
+    public Object openAndClose() throws Exception {
+        Smarticulous other = new Smarticulous();
+        Object connection = other.openDB(dburl, 0, sqliteProfile);
+        other.closeDB();
+        return connection;
+    }
+
+    @Benchmark
+    public Object getLastSubmission() throws Exception {
+        User user = data.users.get(rand.nextInt(data.users.size()));
+        Exercise exercise = data.exercises.get(rand.nextInt(data.exercises.size()));
+        return smarticulous.getLastSubmission(user, exercise);
+    }
+
+    @Benchmark
+    public Object getBestSubmission() throws Exception {
+        User user = data.users.get(rand.nextInt(data.users.size()));
+        Exercise exercise = data.exercises.get(rand.nextInt(data.exercises.size()));
+        return smarticulous.getBestSubmission(user, exercise);
+    }
+
+    @Benchmark
+    public boolean verifyLogin() throws Exception {
+        int i = rand.nextInt(data.users.size());
+        return smarticulous.verifyLogin(data.users.get(i).username, data.passwords.get(i));
+    }
+}
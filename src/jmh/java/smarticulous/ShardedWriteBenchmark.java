@@ -0,0 +1,104 @@
+package smarticulous;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write throughput of {@link ShardedStorage} as the number of shards grows, with concurrent writers submitting to
+ * random exercises and with a single caller storing batches that span all the shards.
+ * <p>
+ * With one shard every write serializes on a single writer lock; with one shard per writer thread the writes to
+ * different shards proceed in parallel.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedWriteBenchmark {
+    static final int CONCURRENT_CALLERS = 4;
+    static final int USERS = 10000;
+    static final int BATCH = 100;
+
+    @Param({"1", "4"})
+    int shards;
+
+    BenchData data;
+    ShardedStorage storage;
+
+    /**
+     * Per-thread random submissions, so concurrent callers don't contend on the shared Random of {@link BenchData}.
+     */
+    @State(Scope.Thread)
+    public static class Caller {
+        final Random rand = new Random(Thread.currentThread().getId());
+
+        Submission next(BenchData data) {
+            Exercise ex = data.exercises.get(rand.nextInt(data.exercises.size()));
+            float[] grades = new float[ex.questions.size()];
+            for (int q = 0; q < grades.length; ++q) {
+                grades[q] = rand.nextInt(ex.questions.get(q).points + 1);
+            }
+            return new Submission(data.users.get(rand.nextInt(data.users.size())), ex,
+                    new Date(ex.dueDate.getTime() - rand.nextInt(86400000)), grades);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // the users and exercises are written to the primary first; opening the shards mirrors them
+        String primaryUrl = BenchData.newDbUrl("file");
+        Smarticulous primary = new Smarticulous();
+        primary.openDB(primaryUrl);
+        data = new BenchData();
+        data.fill(primary, USERS, 0);
+        primary.closeDB();
+
+        List<String> shardUrls = new ArrayList<>();
+        for (int k = 0; k < shards; ++k) {
+            shardUrls.add(BenchData.newDbUrl("file"));
+        }
+        storage = new ShardedStorage(primaryUrl, shardUrls, ShardRouter.byExerciseId(), SqliteProfile.TUNED);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        storage.close();
+    }
+
+    @Benchmark
+    @Threads(CONCURRENT_CALLERS)
+    public int storeSubmission_concurrent(Caller caller) throws Exception {
+        return storage.storeSubmission(caller.next(data));
+    }
+
+    @Benchmark
+    public int[] storeSubmissions(Caller caller) throws Exception {
+        List<Submission> batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; ++i) {
+            batch.add(caller.next(data));
+        }
+        return storage.storeSubmissions(batch);
+    }
+}
@@ -0,0 +1,200 @@
+package smarticulous;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks of every {@link Smarticulous} operation, over datasets of 1k to 1M users and submissions, on a
+ * file-backed or in-memory database, with a single caller or with several concurrent callers.
+ * <p>
+ * The database is a temporary file ("file"), the same with a pool of {@link #POOL_READERS} reader connections
+ * ("file-pool", see {@link Smarticulous#openDB(String, int)}), or an in-memory database ("memory"). In-memory
+ * databases can't be shared between connections, so they have no pooled variant and serialize all the callers of the
+ * multi-threaded benchmarks (suffix "_concurrent") on the writer connection.
+ * <p>
+ * Results are written as JSON to build/reports/jmh/results.json by {@code gradle jmh}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SmarticulousBenchmark {
+    static final int CONCURRENT_CALLERS = 8;
+    static final int POOL_READERS = 4;
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    @Param({"file", "file-pool", "memory"})
+    String database;
+
+    Smarticulous smarticulous;
+    BenchData data;
+
+    /**
+     * Exercise ids for addExercise, above the ones created by {@link BenchData}.
+     */
+    final AtomicInteger nextExerciseId = new AtomicInteger(BenchData.EXERCISES + 1);
+
+    /**
+     * Per-thread random choices, so concurrent callers don't contend on a shared Random.
+     * <p>
+     * The choices are drawn once per iteration and cycled through by the calls: a per-invocation setup would add its
+     * own overhead to operations that take a few microseconds. Storing a submission again adds another row, so the
+     * drawn submissions can be cycled through too.
+     */
+    @State(Scope.Thread)
+    public static class Caller {
+        static final int CHOICES = 4096;
+
+        final Random rand = new Random(Thread.currentThread().getId());
+        final int[] users = new int[CHOICES];
+        final Exercise[] exercises = new Exercise[CHOICES];
+        final Submission[] submissions = new Submission[CHOICES];
+        /**
+         * Templates for addExercise, which gives each call a new id.
+         */
+        final Exercise[] newExercises = new Exercise[CHOICES];
+        int next;
+
+        @Setup(Level.Iteration)
+        public void pick(SmarticulousBenchmark bench) {
+            for (int i = 0; i < CHOICES; ++i) {
+                users[i] = rand.nextInt(bench.data.users.size());
+                exercises[i] = bench.data.exercises.get(rand.nextInt(bench.data.exercises.size()));
+                submissions[i] = bench.data.randomSubmission(rand);
+                newExercises[i] = BenchData.newExercise(0, rand);
+            }
+        }
+
+        /**
+         * @return the index of the next choice.
+         */
+        int advance() {
+            next = (next + 1) & (CHOICES - 1);
+            return next;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        smarticulous = new Smarticulous();
+        smarticulous.openDB(BenchData.newDbUrl("memory".equals(database) ? "memory" : "file"),
+                "file-pool".equals(database) ? POOL_READERS : 0);
+        data = new BenchData();
+        data.fill(smarticulous, size, size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        smarticulous.closeDB();
+    }
+
+    // ---- single caller ----
+
+    @Benchmark
+    public int addOrUpdateUser(Caller caller) throws Exception {
+        int user = caller.users[caller.advance()];
+        return smarticulous.addOrUpdateUser(data.users.get(user), data.passwords.get(user));
+    }
+
+    @Benchmark
+    public boolean verifyLogin(Caller caller) throws Exception {
+        int user = caller.users[caller.advance()];
+        return smarticulous.verifyLogin(data.users.get(user).username, data.passwords.get(user));
+    }
+
+    @Benchmark
+    public int addExercise(Caller caller) throws Exception {
+        Exercise template = caller.newExercises[caller.advance()];
+        return smarticulous.addExercise(BenchData.withId(template, nextExerciseId.getAndIncrement()));
+    }
+
+    @Benchmark
+    public void loadExercises(Blackhole bh) throws Exception {
+        bh.consume(smarticulous.loadExercises());
+    }
+
+    @Benchmark
+    public int storeSubmission(Caller caller) throws Exception {
+        return smarticulous.storeSubmission(caller.submissions[caller.advance()]);
+    }
+
+    @Benchmark
+    public Object getLastSubmission(Caller caller) throws Exception {
+        int i = caller.advance();
+        User user = data.users.get(caller.users[i]);
+        return smarticulous.getLastSubmission(user, caller.exercises[i]);
+    }
+
+    @Benchmark
+    public Object getBestSubmission(Caller caller) throws Exception {
+        int i = caller.advance();
+        User user = data.users.get(caller.users[i]);
+        return smarticulous.getBestSubmission(user, caller.exercises[i]);
+    }
+
+    @Benchmark
+    public void loadSubmissionTable(Blackhole bh) throws Exception {
+        bh.consume(smarticulous.loadSubmissionTable());
+    }
+
+    @Benchmark
+    public void loadGradebook(Blackhole bh) throws Exception {
+        bh.consume(smarticulous.loadGradebook());
+    }
+
+    // ---- concurrent callers ----
+
+    @Benchmark
+    @Threads(CONCURRENT_CALLERS)
+    public boolean verifyLogin_concurrent(Caller caller) throws Exception {
+        return verifyLogin(caller);
+    }
+
+    @Benchmark
+    @Threads(CONCURRENT_CALLERS)
+    public void loadExercises_concurrent(Blackhole bh) throws Exception {
+        loadExercises(bh);
+    }
+
+    @Benchmark
+    @Threads(CONCURRENT_CALLERS)
+    public int storeSubmission_concurrent(Caller caller) throws Exception {
+        return storeSubmission(caller);
+    }
+
+    @Benchmark
+    @Threads(CONCURRENT_CALLERS)
+    public Object getLastSubmission_concurrent(Caller caller) throws Exception {
+        return getLastSubmission(caller);
+    }
+
+    @Benchmark
+    @Threads(CONCURRENT_CALLERS)
+    public Object getBestSubmission_concurrent(Caller caller) throws Exception {
+        return getBestSubmission(caller);
+    }
+}
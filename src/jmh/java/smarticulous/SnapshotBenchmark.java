@@ -0,0 +1,93 @@
+package smarticulous;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import smarticulous.db.Exercise;
+import smarticulous.db.User;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latest/best submission lookups in a memory-mapped {@link GradeSnapshot}, next to the same queries against the
+ * live database, and the cost of writing the snapshot.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+    @Param({"1000", "100000"})
+    int size;
+
+    Smarticulous smarticulous;
+    BenchData data;
+    Path file;
+    GradeSnapshot snapshot;
+    final Random rand = new Random(BenchData.SEED);
+
+    @Setup
+    public void setUp() throws Exception {
+        smarticulous = new Smarticulous();
+        smarticulous.openDB(BenchData.newDbUrl("file"));
+        data = new BenchData();
+        data.fill(smarticulous, size, size);
+        file = Files.createTempFile("smarticulous-bench", ".grades");
+        smarticulous.exportSnapshot(file);
+        snapshot = GradeSnapshot.open(file);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        smarticulous.closeDB();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Object snapshotLastSubmission() {
+        User user = data.users.get(rand.nextInt(data.users.size()));
+        Exercise exercise = data.exercises.get(rand.nextInt(data.exercises.size()));
+        return snapshot.getLastSubmission(user, exercise);
+    }
+
+    @Benchmark
+    public Object snapshotBestSubmission() {
+        User user = data.users.get(rand.nextInt(data.users.size()));
+        Exercise exercise = data.exercises.get(rand.nextInt(data.exercises.size()));
+        return snapshot.getBestSubmission(user, exercise);
+    }
+
+    @Benchmark
+    public Object databaseLastSubmission() throws Exception {
+        User user = data.users.get(rand.nextInt(data.users.size()));
+        Exercise exercise = data.exercises.get(rand.nextInt(data.exercises.size()));
+        return smarticulous.getLastSubmission(user, exercise);
+    }
+
+    @Benchmark
+    public Object databaseBestSubmission() throws Exception {
+        User user = data.users.get(rand.nextInt(data.users.size()));
+        Exercise exercise = data.exercises.get(rand.nextInt(data.exercises.size()));
+        return smarticulous.getBestSubmission(user, exercise);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long exportSnapshot() throws Exception {
+        return smarticulous.exportSnapshot(file);
+    }
+}
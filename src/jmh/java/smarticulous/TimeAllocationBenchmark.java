@@ -0,0 +1,85 @@
+package smarticulous;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import smarticulous.db.Exercise;
+import smarticulous.db.User;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read paths that decode times ({@link TimeCodec}): a single submission, a range of submissions, the
+ * exercises, and the columnar submission table, which keeps its times as primitive longs.
+ * <p>
+ * These are meant to be read together with the allocation rate, so run them with the GC profiler:
+ * {@code gradle jmh -PjmhArgs="-prof gc TimeAllocationBenchmark"} and compare gc.alloc.rate.norm (bytes per call).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimeAllocationBenchmark {
+    @Param({"1000", "100000"})
+    int size;
+
+    Smarticulous smarticulous;
+    BenchData data;
+    final Random rand = new Random(BenchData.SEED);
+
+    @Setup
+    public void setUp() throws Exception {
+        smarticulous = new Smarticulous();
+        smarticulous.openDB(BenchData.newDbUrl("file"));
+        data = new BenchData();
+        data.fill(smarticulous, size, size);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        smarticulous.closeDB();
+    }
+
+    @Benchmark
+    public Object getLastSubmission() throws Exception {
+        User user = data.users.get(rand.nextInt(data.users.size()));
+        Exercise exercise = data.exercises.get(rand.nextInt(data.exercises.size()));
+        return smarticulous.getLastSubmission(user, exercise);
+    }
+
+    @Benchmark
+    public int countSubmissionsBeforeDue() throws Exception {
+        Exercise exercise = data.exercises.get(rand.nextInt(data.exercises.size()));
+        return smarticulous.countSubmissions(exercise, new Date(0), exercise.dueDate);
+    }
+
+    @Benchmark
+    public void loadExercises(Blackhole bh) throws Exception {
+        bh.consume(smarticulous.loadExercises());
+    }
+
+    @Benchmark
+    public long loadSubmissionTable() throws Exception {
+        // only the times are touched; no Date is created
+        SubmissionTable table = smarticulous.loadSubmissionTable();
+        long latest = Long.MIN_VALUE;
+        for (int row = 0; row < table.size(); ++row) {
+            latest = Math.max(latest, table.time(row));
+        }
+        return latest;
+    }
+}
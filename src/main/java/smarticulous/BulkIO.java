@@ -0,0 +1,730 @@
+package smarticulous;
+
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming import and export of users, exercises and submissions as CSV or JSON Lines.
+ * <p>
+ * Imports read one record at a time and write every {@link #getChunkSize()} records in a single transaction through
+ * the bulk methods of {@link Smarticulous} ({@link Smarticulous#addOrUpdateUsers}, {@link Smarticulous#addExercises},
+ * {@link Smarticulous#storeSubmissions}), so memory stays bounded by the chunk size whatever the file size.
+ * Exports stream rows straight from a database cursor to the output.
+ * <p>
+ * The file layouts (every CSV file starts with its header row):
+ * <ul>
+ *   <li>users - CSV {@code username,firstname,lastname,password};
+ *       JSONL {@code {"username":..,"firstname":..,"lastname":..,"password":..}}</li>
+ *   <li>exercises - CSV {@code exerciseId,name,dueDate,questionName,questionDesc,points}, one row per question
+ *       (consecutive rows with the same exerciseId form one exercise; an exercise without questions has one row with
+ *       empty question fields); JSONL {@code {"id":..,"name":..,"dueDate":..,"questions":[{"name":..,"desc":..,"points":..}]}}</li>
+ *   <li>submissions - CSV {@code submissionId,username,exerciseId,submissionTime,questionId,grade}, one row per
+ *       grade (consecutive rows with the same submissionId form one submission);
+ *       JSONL {@code {"id":..,"username":..,"exerciseId":..,"submissionTime":..,"grades":[..]}}, where grades[i] is
+ *       the grade of question i+1 and a missing question is 0, as in a CSV import</li>
+ * </ul>
+ * Times are in milliseconds since the epoch; an empty (CSV) or null (JSONL) dueDate is an exercise without a due
+ * date. An empty submission id lets the database pick one.
+ * <p>
+ * Exported passwords are the stored values (hashed, if {@link Smarticulous#setHashPasswords(boolean)} was on), and
+ * are imported back as they are. On import, a value starting with {@code pbkdf2$} is such a stored value, and any
+ * other value is a password (hashed if hashing is on); see {@link PasswordHasher}.
+ */
+public class BulkIO {
+    /**
+     * The supported file formats.
+     */
+    public enum Format {
+        CSV, JSONL
+    }
+
+    /**
+     * Default number of records written per transaction.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    static final String[] USER_COLUMNS = {"username", "firstname", "lastname", "password"};
+    static final String[] EXERCISE_COLUMNS = {"exerciseId", "name", "dueDate", "questionName", "questionDesc", "points"};
+    static final String[] SUBMISSION_COLUMNS = {"submissionId", "username", "exerciseId", "submissionTime", "questionId", "grade"};
+
+    private final Smarticulous smarticulous;
+    private final int chunkSize;
+
+    public BulkIO(Smarticulous smarticulous) {
+        this(smarticulous, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param smarticulous an open database
+     * @param chunkSize number of records written per transaction
+     */
+    public BulkIO(Smarticulous smarticulous, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        this.smarticulous = smarticulous;
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    // =========== Import =============
+
+    /**
+     * Reads the records of a file one by one, in either format.
+     */
+    private static final class RecordReader {
+        private final Format format;
+        private final BufferedReader lines;
+        private final Csv.RowReader rows;
+        private long line;
+
+        RecordReader(Reader in, Format format, String[] columns) throws IOException {
+            this.format = format;
+            if (format == Format.CSV) {
+                lines = null;
+                rows = new Csv.RowReader(in);
+                List<String> header = rows.next();
+                if (header == null || !header.equals(Arrays.asList(columns))) {
+                    throw new IOException("expected the CSV header " + String.join(",", columns) + " but got " + header);
+                }
+            } else {
+                lines = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+                rows = null;
+            }
+        }
+
+        List<String> nextRow() throws IOException {
+            return rows.next();
+        }
+
+        Map<String, Object> nextObject() throws IOException {
+            String text;
+            do {
+                text = lines.readLine();
+                line++;
+                if (text == null) {
+                    return null;
+                }
+            } while (text.trim().isEmpty());
+            try {
+                return Json.parseObject(text);
+            } catch (IOException e) {
+                throw error(e.getMessage());
+            }
+        }
+
+        IOException error(String message) {
+            return new IOException("line " + (format == Format.CSV ? rows.line() : line) + ": " + message);
+        }
+    }
+
+    /**
+     * Import users, adding new ones and updating existing ones (like {@link Smarticulous#addOrUpdateUser}).
+     *
+     * @param in the file contents
+     * @param format the file format
+     * @return what was imported.
+     * @throws IOException if the file can't be read or is malformed; the chunks before the error stay imported
+     * @throws SQLException
+     */
+    public TransferStats importUsers(Reader in, Format format) throws IOException, SQLException {
+        TransferStats stats = new TransferStats();
+        long start = System.nanoTime();
+        RecordReader reader = new RecordReader(in, format, USER_COLUMNS);
+        Map<User, String> chunk = new LinkedHashMap<>();
+        while (true) {
+            User user;
+            String password;
+            if (format == Format.CSV) {
+                List<String> row = reader.nextRow();
+                if (row == null) {
+                    break;
+                }
+                if (row.size() != USER_COLUMNS.length) {
+                    throw reader.error("expected " + USER_COLUMNS.length + " fields");
+                }
+                user = new User(row.get(0), row.get(1), row.get(2));
+                password = row.get(3);
+            } else {
+                Map<String, Object> object = reader.nextObject();
+                if (object == null) {
+                    break;
+                }
+                user = new User(string(reader, object, "username"), string(reader, object, "firstname"),
+                        string(reader, object, "lastname"));
+                password = string(reader, object, "password");
+            }
+            chunk.put(user, password);
+            stats.records++;
+            if (chunk.size() == chunkSize) {
+                flushUsers(chunk, stats);
+            }
+        }
+        flushUsers(chunk, stats);
+        stats.millis = (System.nanoTime() - start) / 1000000;
+        return stats;
+    }
+
+    private void flushUsers(Map<User, String> chunk, TransferStats stats) throws SQLException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        UserSyncResult result = smarticulous.addOrUpdateUsers(chunk, true);
+        stats.stored += result.inserted + result.updated;
+        stats.transactions++;
+        chunk.clear();
+    }
+
+    /**
+     * Import exercises. Exercises whose id already exists are skipped (like {@link Smarticulous#addExercise}).
+     *
+     * @param in the file contents
+     * @param format the file format
+     * @return what was imported.
+     * @throws IOException if the file can't be read or is malformed; the chunks before the error stay imported
+     * @throws SQLException
+     */
+    public TransferStats importExercises(Reader in, Format format) throws IOException, SQLException {
+        TransferStats stats = new TransferStats();
+        long start = System.nanoTime();
+        RecordReader reader = new RecordReader(in, format, EXERCISE_COLUMNS);
+        List<Exercise> chunk = new ArrayList<>();
+        Exercise current = null;
+        while (true) {
+            if (format == Format.CSV) {
+                List<String> row = reader.nextRow();
+                if (row != null && row.size() != EXERCISE_COLUMNS.length) {
+                    throw reader.error("expected " + EXERCISE_COLUMNS.length + " fields");
+                }
+                int id = row == null ? 0 : integer(reader, row.get(0));
+                // a new exercise id means all the questions of the previous exercise have been read
+                if (current != null && (row == null || current.id != id)) {
+                    addExercise(chunk, current, stats);
+                    current = null;
+                }
+                if (row == null) {
+                    break;
+                }
+                if (current == null) {
+                    current = new Exercise(id, row.get(1), optionalDate(reader, row.get(2)));
+                }
+                if (!row.get(3).isEmpty() || !row.get(5).isEmpty()) {
+                    current.addQuestion(row.get(3), row.get(4), integer(reader, row.get(5)));
+                }
+            } else {
+                Map<String, Object> object = reader.nextObject();
+                if (object == null) {
+                    break;
+                }
+                Exercise exercise = new Exercise((int) number(reader, object, "id"), string(reader, object, "name"),
+                        optionalDate(reader, object, "dueDate"));
+                Object questions = object.get("questions");
+                if (questions != null) {
+                    if (!(questions instanceof List)) {
+                        throw reader.error("\"questions\" must be an array");
+                    }
+                    for (Object question : (List<?>) questions) {
+                        if (!(question instanceof Map)) {
+                            throw reader.error("a question must be an object");
+                        }
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> q = (Map<String, Object>) question;
+                        exercise.addQuestion(string(reader, q, "name"), string(reader, q, "desc"), (int) number(reader, q, "points"));
+                    }
+                }
+                addExercise(chunk, exercise, stats);
+            }
+        }
+        flushExercises(chunk, stats);
+        stats.millis = (System.nanoTime() - start) / 1000000;
+        return stats;
+    }
+
+    private void addExercise(List<Exercise> chunk, Exercise exercise, TransferStats stats) throws SQLException {
+        chunk.add(exercise);
+        stats.records++;
+        if (chunk.size() == chunkSize) {
+            flushExercises(chunk, stats);
+        }
+    }
+
+    private void flushExercises(List<Exercise> chunk, TransferStats stats) throws SQLException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        for (int id : smarticulous.addExercises(chunk)) {
+            if (id == -1) {
+                stats.skipped++;
+            } else {
+                stats.stored++;
+            }
+        }
+        stats.transactions++;
+        chunk.clear();
+    }
+
+    /**
+     * Import submissions with their grades. Submissions of unknown users are skipped
+     * (like {@link Smarticulous#storeSubmission}).
+     *
+     * @param in the file contents
+     * @param format the file format
+     * @return what was imported.
+     * @throws IOException if the file can't be read or is malformed; the chunks before the error stay imported
+     * @throws SQLException if a chunk can't be stored (e.g. a submission id is already taken); that chunk is rolled back
+     */
+    public TransferStats importSubmissions(Reader in, Format format) throws IOException, SQLException {
+        TransferStats stats = new TransferStats();
+        long start = System.nanoTime();
+        RecordReader reader = new RecordReader(in, format, SUBMISSION_COLUMNS);
+        List<Submission> chunk = new ArrayList<>();
+        // storeSubmissions only needs the id of the exercise and the username of the user
+        Map<Integer, Exercise> exercises = new LinkedHashMap<>();
+        Submission current = null;
+        String currentKey = null;
+        float[] grades = new float[16];
+        int gradeCount = 0;
+        while (true) {
+            if (format == Format.CSV) {
+                List<String> row = reader.nextRow();
+                if (row != null && row.size() != SUBMISSION_COLUMNS.length) {
+                    throw reader.error("expected " + SUBMISSION_COLUMNS.length + " fields");
+                }
+                // rows without a submission id can't be grouped, so each one is a submission of its own
+                String key = row == null || row.get(0).isEmpty() ? null : row.get(0);
+                if (current != null && (row == null || key == null || !key.equals(currentKey))) {
+                    current.questionGrades = Arrays.copyOf(grades, gradeCount);
+                    addSubmission(chunk, current, stats);
+                    current = null;
+                }
+                if (row == null) {
+                    break;
+                }
+                if (current == null) {
+                    current = new Submission(key == null ? -1 : integer(reader, key), new User(row.get(1), null, null),
+                            exercise(exercises, integer(reader, row.get(2))), TimeCodec.date(longInteger(reader, row.get(3))), null);
+                    currentKey = key;
+                    gradeCount = 0;
+                }
+                if (!row.get(4).isEmpty()) {
+                    int questionId = integer(reader, row.get(4));
+                    if (questionId < 1) {
+                        throw reader.error("questions are numbered from 1");
+                    }
+                    if (questionId > grades.length) {
+                        grades = Arrays.copyOf(grades, Math.max(grades.length * 2, questionId));
+                    }
+                    // a missing question gets a 0 grade
+                    while (gradeCount < questionId) {
+                        grades[gradeCount++] = 0;
+                    }
+                    grades[questionId - 1] = parseFloat(reader, row.get(5));
+                }
+            } else {
+                Map<String, Object> object = reader.nextObject();
+                if (object == null) {
+                    break;
+                }
+                Object id = object.get("id");
+                Object gradeList = object.get("grades");
+                if (gradeList != null && !(gradeList instanceof List)) {
+                    throw reader.error("\"grades\" must be an array");
+                }
+                List<?> values = gradeList == null ? new ArrayList<>() : (List<?>) gradeList;
+                float[] questionGrades = new float[values.size()];
+                for (int q = 0; q < questionGrades.length; ++q) {
+                    if (!(values.get(q) instanceof Number)) {
+                        throw reader.error("grades must be numbers");
+                    }
+                    questionGrades[q] = ((Number) values.get(q)).floatValue();
+                }
+                int submissionId = id == null ? -1 : (int) number(reader, object, "id");
+                addSubmission(chunk, new Submission(submissionId, new User(string(reader, object, "username"), null, null),
+                        exercise(exercises, (int) number(reader, object, "exerciseId")),
+                        TimeCodec.date(number(reader, object, "submissionTime")), questionGrades), stats);
+            }
+        }
+        flushSubmissions(chunk, stats);
+        stats.millis = (System.nanoTime() - start) / 1000000;
+        return stats;
+    }
+
+    private static Exercise exercise(Map<Integer, Exercise> exercises, int id) {
+        return exercises.computeIfAbsent(id, k -> new Exercise(k, null, null));
+    }
+
+    private void addSubmission(List<Submission> chunk, Submission submission, TransferStats stats) throws SQLException {
+        chunk.add(submission);
+        stats.records++;
+        if (chunk.size() == chunkSize) {
+            flushSubmissions(chunk, stats);
+        }
+    }
+
+    private void flushSubmissions(List<Submission> chunk, TransferStats stats) throws SQLException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        for (int id : smarticulous.storeSubmissions(chunk)) {
+            if (id == -1) {
+                stats.skipped++;
+            } else {
+                stats.stored++;
+            }
+        }
+        stats.transactions++;
+        chunk.clear();
+    }
+
+    // =========== Export =============
+
+    /**
+     * Export all the users (with their stored passwords), in user id order.
+     *
+     * @param out where to write the file; it is flushed but not closed
+     * @param format the file format
+     * @return what was exported.
+     * @throws IOException
+     * @throws SQLException
+     */
+    public TransferStats exportUsers(Writer out, Format format) throws IOException, SQLException {
+        TransferStats stats = new TransferStats();
+        long start = System.nanoTime();
+        Writer w = buffered(out);
+        if (format == Format.CSV) {
+            Csv.writeRow(w, (Object[]) USER_COLUMNS);
+        }
+        scan(Smarticulous.EXPORT_USERS, rs -> {
+            if (format == Format.CSV) {
+                Csv.writeRow(w, rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4));
+            } else {
+                w.write("{\"username\":");
+                Json.writeString(w, rs.getString(1));
+                w.write(",\"firstname\":");
+                Json.writeString(w, rs.getString(2));
+                w.write(",\"lastname\":");
+                Json.writeString(w, rs.getString(3));
+                w.write(",\"password\":");
+                Json.writeString(w, rs.getString(4));
+                w.write("}\n");
+            }
+            stats.records++;
+        });
+        w.flush();
+        stats.millis = (System.nanoTime() - start) / 1000000;
+        return stats;
+    }
+
+    /**
+     * Export all the exercises with their questions, in exercise id order.
+     *
+     * @param out where to write the file; it is flushed but not closed
+     * @param format the file format
+     * @return what was exported.
+     * @throws IOException
+     * @throws SQLException
+     */
+    public TransferStats exportExercises(Writer out, Format format) throws IOException, SQLException {
+        TransferStats stats = new TransferStats();
+        long start = System.nanoTime();
+        Writer w = buffered(out);
+        if (format == Format.CSV) {
+            Csv.writeRow(w, (Object[]) EXERCISE_COLUMNS);
+        }
+        try {
+            smarticulous.streamExercises(exercise -> {
+                try {
+                    writeExercise(w, format, exercise);
+                } catch (IOException e) {
+                    throw new UncheckedIO(e);
+                }
+                stats.records++;
+            });
+        } catch (UncheckedIO e) {
+            throw e.getCause();
+        }
+        w.flush();
+        stats.millis = (System.nanoTime() - start) / 1000000;
+        return stats;
+    }
+
+    private static void writeExercise(Writer w, Format format, Exercise exercise) throws IOException {
+        // a missing due date is written as an empty field / null
+        Long dueDate = exercise.dueDate == null ? null : TimeCodec.millis(exercise.dueDate);
+        if (format == Format.CSV) {
+            if (exercise.questions.isEmpty()) {
+                Csv.writeRow(w, exercise.id, exercise.name, dueDate, null, null, null);
+            }
+            for (Exercise.Question question : exercise.questions) {
+                Csv.writeRow(w, exercise.id, exercise.name, dueDate, question.name, question.desc, question.points);
+            }
+            return;
+        }
+        w.write("{\"id\":" + exercise.id + ",\"name\":");
+        Json.writeString(w, exercise.name);
+        w.write(",\"dueDate\":" + dueDate + ",\"questions\":[");
+        for (int q = 0; q < exercise.questions.size(); ++q) {
+            Exercise.Question question = exercise.questions.get(q);
+            w.write(q == 0 ? "{\"name\":" : ",{\"name\":");
+            Json.writeString(w, question.name);
+            w.write(",\"desc\":");
+            Json.writeString(w, question.desc);
+            w.write(",\"points\":" + question.points + "}");
+        }
+        w.write("]}\n");
+    }
+
+    /**
+     * Export all the submissions with their grades, in submission id order.
+     * The rows are written as they are read from the database cursor; nothing is collected in memory.
+     *
+     * @param out where to write the file; it is flushed but not closed
+     * @param format the file format
+     * @return what was exported.
+     * @throws IOException also if a JSONL grade is NaN or infinite, which JSON can't represent
+     * @throws SQLException
+     */
+    public TransferStats exportSubmissions(Writer out, Format format) throws IOException, SQLException {
+        TransferStats stats = new TransferStats();
+        long start = System.nanoTime();
+        Writer w = buffered(out);
+        if (format == Format.CSV) {
+            Csv.writeRow(w, (Object[]) SUBMISSION_COLUMNS);
+        }
+        // the id of the submission whose JSON line is still open, or null
+        Integer[] open = {null};
+        // the number of grades written on the open line, i.e. the last question id written
+        int[] written = {0};
+        scan(Smarticulous.EXPORT_SUBMISSIONS, rs -> {
+            int submissionId = rs.getInt("SubmissionId");
+            int questionId = rs.getInt("QuestionId");
+            boolean graded = !rs.wasNull();
+            float grade = rs.getFloat("Grade");
+            boolean first = open[0] == null || open[0] != submissionId;
+            if (first) {
+                stats.records++;
+            }
+            if (format == Format.CSV) {
+                Csv.writeRow(w, submissionId, rs.getString("Username"), rs.getInt("ExerciseId"),
+                        TimeCodec.requiredMillis(rs, "SubmissionTime"), graded ? questionId : null, graded ? grade : null);
+                return;
+            }
+            if (first) {
+                if (open[0] != null) {
+                    w.write("]}\n");
+                }
+                w.write("{\"id\":" + submissionId + ",\"username\":");
+                Json.writeString(w, rs.getString("Username"));
+                w.write(",\"exerciseId\":" + rs.getInt("ExerciseId") + ",\"submissionTime\":"
+                        + TimeCodec.requiredMillis(rs, "SubmissionTime") + ",\"grades\":[");
+                open[0] = submissionId;
+                written[0] = 0;
+            }
+            if (!graded) {
+                return;
+            }
+            if (questionId <= written[0]) {
+                throw new SQLException("submission " + submissionId + " has a grade for question " + questionId
+                        + ", which can't be exported as a position in its grades");
+            }
+            if (!Float.isFinite(grade)) {
+                throw new IOException("the grade of submission " + submissionId + " for question " + questionId
+                        + " is " + grade + ", which JSON can't represent");
+            }
+            // the grades are positional: a missing question is written as 0, as the CSV import fills it in
+            while (written[0] < questionId - 1) {
+                w.write(written[0]++ == 0 ? "0" : ",0");
+            }
+            w.write(written[0]++ == 0 ? "" : ",");
+            w.write(Float.toString(grade));
+        });
+        if (format == Format.JSONL && open[0] != null) {
+            w.write("]}\n");
+        }
+        w.flush();
+        stats.millis = (System.nanoTime() - start) / 1000000;
+        return stats;
+    }
+
+    /**
+     * A row handler that writes to a file.
+     */
+    private interface RowWriter {
+        void write(ResultSet rs) throws SQLException, IOException;
+    }
+
+    /**
+     * Carries an IOException through a database callback, which may only throw SQLException.
+     */
+    private static final class UncheckedIO extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UncheckedIO(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    private void scan(String sql, RowWriter writer) throws IOException, SQLException {
+        try {
+            smarticulous.scan(sql, rs -> {
+                try {
+                    writer.write(rs);
+                } catch (IOException e) {
+                    throw new UncheckedIO(e);
+                }
+            });
+        } catch (UncheckedIO e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Writer buffered(Writer out) {
+        return out instanceof BufferedWriter ? out : new BufferedWriter(out, 1 << 16);
+    }
+
+    // =========== Field parsing =============
+
+    private static int integer(RecordReader reader, String field) throws IOException {
+        try {
+            return Integer.parseInt(field.trim());
+        } catch (NumberFormatException e) {
+            throw reader.error("expected an integer but got '" + field + "'");
+        }
+    }
+
+    private static long longInteger(RecordReader reader, String field) throws IOException {
+        try {
+            return Long.parseLong(field.trim());
+        } catch (NumberFormatException e) {
+            throw reader.error("expected an integer but got '" + field + "'");
+        }
+    }
+
+    /**
+     * @return the date of a time field, or null for an empty field.
+     */
+    private static Date optionalDate(RecordReader reader, String field) throws IOException {
+        return field.trim().isEmpty() ? null : TimeCodec.date(longInteger(reader, field));
+    }
+
+    private static float parseFloat(RecordReader reader, String field) throws IOException {
+        try {
+            return Float.parseFloat(field.trim());
+        } catch (NumberFormatException e) {
+            throw reader.error("expected a number but got '" + field + "'");
+        }
+    }
+
+    private static String string(RecordReader reader, Map<String, Object> object, String name) throws IOException {
+        Object value = object.get(name);
+        if (value != null && !(value instanceof String)) {
+            throw reader.error("\"" + name + "\" must be a string");
+        }
+        return (String) value;
+    }
+
+    private static long number(RecordReader reader, Map<String, Object> object, String name) throws IOException {
+        Object value = object.get(name);
+        if (!(value instanceof Number)) {
+            throw reader.error("\"" + name + "\" must be a number");
+        }
+        return ((Number) value).longValue();
+    }
+
+    /**
+     * @return the date of a time member, or null if it is null or missing.
+     */
+    private static Date optionalDate(RecordReader reader, Map<String, Object> object, String name) throws IOException {
+        return object.get(name) == null ? null : TimeCodec.date(number(reader, object, name));
+    }
+
+    // =========== Command line =============
+
+    /**
+     * Command line entry point:
+     * {@code BulkIO import|export users|exercises|submissions csv|jsonl <jdbc url> <file>}.
+     * Prints the transfer statistics (including records/sec) when done.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 5) {
+            System.err.println("usage: BulkIO import|export users|exercises|submissions csv|jsonl <jdbc url> <file>");
+            System.exit(2);
+        }
+        boolean export = args[0].equals("export");
+        if (!export && !args[0].equals("import")) {
+            System.err.println("unknown command " + args[0]);
+            System.exit(2);
+        }
+        Format format = Format.valueOf(args[2].toUpperCase());
+        Smarticulous smarticulous = new Smarticulous();
+        smarticulous.openDB(args[3]);
+        try {
+            BulkIO io = new BulkIO(smarticulous);
+            TransferStats stats;
+            if (export) {
+                try (Writer out = Files.newBufferedWriter(Paths.get(args[4]), StandardCharsets.UTF_8)) {
+                    stats = io.export(args[1], out, format);
+                }
+            } else {
+                try (Reader in = Files.newBufferedReader(Paths.get(args[4]), StandardCharsets.UTF_8)) {
+                    stats = io.importFrom(args[1], in, format);
+                }
+            }
+            System.out.println(args[0] + " " + args[1] + ": " + stats);
+        } finally {
+            smarticulous.closeDB();
+        }
+    }
+
+    private TransferStats export(String kind, Writer out, Format format) throws IOException, SQLException {
+        switch (kind) {
+            case "users":
+                return exportUsers(out, format);
+            case "exercises":
+                return exportExercises(out, format);
+            case "submissions":
+                return exportSubmissions(out, format);
+            default:
+                throw new IllegalArgumentException("unknown record kind " + kind);
+        }
+    }
+
+    private TransferStats importFrom(String kind, Reader in, Format format) throws IOException, SQLException {
+        switch (kind) {
+            case "users":
+                return importUsers(in, format);
+            case "exercises":
+                return importExercises(in, format);
+            case "submissions":
+                return importSubmissions(in, format);
+            default:
+                throw new IllegalArgumentException("unknown record kind " + kind);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package smarticulous;
+
+/**
+ * One entry of the change log (see {@link Smarticulous#enableChangeLog()}).
+ * <p>
+ * Events only carry the ids of what changed; a consumer that needs more (e.g. the grades of a submission) reads it
+ * from the database.
+ */
+public final class ChangeEvent {
+    /**
+     * What changed. The codes are stored in the ChangeLog table and must never change.
+     */
+    public enum Kind {
+        /**
+         * A user was added or their details/password were updated (userId).
+         */
+        USER_UPSERTED(1),
+        /**
+         * A new exercise and its questions were added (exerciseId).
+         */
+        EXERCISE_ADDED(2),
+        /**
+         * A new submission and its grades were stored (submissionId, userId, exerciseId).
+         */
+        SUBMISSION_STORED(3),
+        /**
+         * The grades of an existing submission were rewritten (submissionId, userId, exerciseId).
+         */
+        GRADES_WRITTEN(4);
+
+        final int code;
+
+        Kind(int code) {
+            this.code = code;
+        }
+
+        static Kind of(int code) {
+            for (Kind kind : values()) {
+                if (kind.code == code) {
+                    return kind;
+                }
+            }
+            throw new IllegalArgumentException("unknown change kind " + code);
+        }
+    }
+
+    /**
+     * The position of the event in the log. Offsets increase in commit order and are never reused.
+     */
+    public final long offset;
+
+    public final Kind kind;
+
+    /**
+     * The ids of what changed, or -1 when they don't apply to the kind.
+     */
+    public final int userId;
+    public final int exerciseId;
+    public final int submissionId;
+
+    /**
+     * When the change was written, in milliseconds since the epoch.
+     */
+    public final long loggedAt;
+
+    ChangeEvent(long offset, Kind kind, int userId, int exerciseId, int submissionId, long loggedAt) {
+        this.offset = offset;
+        this.kind = kind;
+        this.userId = userId;
+        this.exerciseId = exerciseId;
+        this.submissionId = submissionId;
+        this.loggedAt = loggedAt;
+    }
+
+    @Override
+    public String toString() {
+        return offset + " " + kind + " user=" + userId + " exercise=" + exerciseId + " submission=" + submissionId;
+    }
+}
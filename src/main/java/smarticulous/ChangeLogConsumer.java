@@ -0,0 +1,77 @@
+package smarticulous;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * A named subscriber that tails the change log in batches, starting from its stored offset.
+ * <p>
+ * Typical use is at-least-once: {@link #poll()} a batch, handle it, then {@link #commit()} the position, so a
+ * consumer that restarts resumes after the last committed batch (and may see the uncommitted one again). Each poll
+ * is a range scan on the log's primary key, so a consumer pays for the new events only.
+ * <p>
+ * Not thread-safe; create one consumer per subscriber thread. Consumers are created by
+ * {@link Smarticulous#subscribe(String, int)}.
+ */
+public class ChangeLogConsumer {
+    private final Smarticulous smarticulous;
+    private final String name;
+    private final int batchSize;
+
+    /**
+     * The offset of the last event returned by {@link #poll()}.
+     */
+    private long position;
+
+    ChangeLogConsumer(Smarticulous smarticulous, String name, int batchSize) throws SQLException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+        }
+        this.smarticulous = smarticulous;
+        this.name = name;
+        this.batchSize = batchSize;
+        this.position = smarticulous.getConsumerOffset(name);
+    }
+
+    /**
+     * @return the next events after the current position (at most the batch size, empty if there are none), and
+     * move the position past them.
+     * @throws SQLException
+     */
+    public List<ChangeEvent> poll() throws SQLException {
+        List<ChangeEvent> batch = smarticulous.readChanges(position, batchSize);
+        if (!batch.isEmpty()) {
+            position = batch.get(batch.size() - 1).offset;
+        }
+        return batch;
+    }
+
+    /**
+     * Store the current position as this consumer's offset.
+     *
+     * @throws SQLException
+     */
+    public void commit() throws SQLException {
+        smarticulous.commitConsumerOffset(name, position);
+    }
+
+    /**
+     * Move the position, e.g. back to 0 to replay the whole log. Nothing is stored until {@link #commit()}.
+     *
+     * @param offset the offset of the last event that is considered handled
+     */
+    public void seek(long offset) {
+        this.position = offset;
+    }
+
+    /**
+     * @return the offset of the last event returned by {@link #poll()} (or the stored offset, before the first poll).
+     */
+    public long position() {
+        return position;
+    }
+
+    public String name() {
+        return name;
+    }
+}
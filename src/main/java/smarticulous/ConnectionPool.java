@@ -0,0 +1,166 @@
+package smarticulous;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed-size pool of read-only connections to a single SQLite database file.
+ * <p>
+ * Every pooled connection comes with its own {@link StatementCache}, so a borrowed connection never has to
+ * compile its statements again. Connections are in auto-commit mode: each query reads its own consistent snapshot
+ * and, with the database in WAL mode, never blocks (or is blocked by) the writer.
+ * <p>
+ * Closing the pool rejects new borrowers and waits for the borrowed connections to be given back, so a read in
+ * progress never runs on a closed connection.
+ */
+class ConnectionPool implements AutoCloseable {
+    /**
+     * How long (in ms) a connection waits for a lock held by another connection before failing with SQLITE_BUSY.
+     */
+    static final int BUSY_TIMEOUT_MS = 5000;
+
+    /**
+     * All the pooled connections, idle or not.
+     */
+    private final List<StatementCache> connections;
+
+    /**
+     * The connections that are currently available. Guarded by {@code this}.
+     */
+    private final ArrayDeque<StatementCache> idle;
+
+    /**
+     * Set by {@link #close()}; no connection is lent out after that. Guarded by {@code this}.
+     */
+    private boolean closed;
+
+    /**
+     * Open the pool.
+     *
+     * @param dburl the JDBC url of the database; must be a file database, not an in-memory one
+     * @param size the number of connections to open
+     * @param metrics records the statements of the pooled connections
+     * @param pragmas run on every connection when it is opened (see {@link SqliteProfile#connectionPragmas()})
+     * @param prepared the statements to compile on every connection up front
+     * @throws SQLException
+     */
+    ConnectionPool(String dburl, int size, Metrics metrics, List<String> pragmas, String... prepared) throws SQLException {
+        connections = new ArrayList<>(size);
+        idle = new ArrayDeque<>(size);
+        try {
+            for (int i = 0; i < size; ++i) {
+                Connection con = metrics.instrument(DriverManager.getConnection(dburl));
+                // add it to the list first so it is closed if anything below fails
+                StatementCache cache = new StatementCache(con);
+                connections.add(cache);
+                try (Statement st = con.createStatement()) {
+                    st.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS + ";");
+                    st.execute("PRAGMA query_only = 1;");
+                    for (String pragma : pragmas) {
+                        st.execute(pragma);
+                    }
+                }
+                cache.prepareAll(prepared);
+                idle.add(cache);
+            }
+        } catch (SQLException e) {
+            closeAll();
+            throw e;
+        }
+    }
+
+    /**
+     * Borrow a connection, waiting for one to become available if they are all in use.
+     *
+     * @return the statements of the borrowed connection; must be given back with {@link #release(StatementCache)}.
+     * @throws SQLException if the pool is closed, or the thread is interrupted while waiting
+     */
+    synchronized StatementCache acquire() throws SQLException {
+        try {
+            while (!closed && idle.isEmpty()) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a reader connection", e);
+        }
+        if (closed) {
+            throw new SQLException("The reader pool is closed");
+        }
+        return idle.poll();
+    }
+
+    /**
+     * Give back a connection borrowed with {@link #acquire()}.
+     *
+     * @param connection the borrowed connection
+     */
+    synchronized void release(StatementCache connection) {
+        idle.add(connection);
+        // wakes a waiting borrower, or close() once the last connection is back
+        notifyAll();
+    }
+
+    /**
+     * @return the number of connections in the pool.
+     */
+    int size() {
+        return connections.size();
+    }
+
+    /**
+     * Close all the connections (and their statements), after waiting for the borrowed ones to be given back.
+     * Waiting borrowers fail; the first failure to close is rethrown once every connection has been closed.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            // reads are short: wait them out rather than close a connection under them
+            boolean interrupted = false;
+            while (idle.size() < connections.size()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeAll();
+    }
+
+    private void closeAll() throws SQLException {
+        SQLException failure = null;
+        for (StatementCache cache : connections) {
+            try {
+                try {
+                    cache.close();
+                } finally {
+                    cache.connection().close();
+                }
+            } catch (SQLException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        connections.clear();
+        synchronized (this) {
+            idle.clear();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package smarticulous;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal RFC 4180 CSV reading and writing, one row at a time.
+ * <p>
+ * Fields may be quoted with double quotes; a quoted field may contain commas, line breaks and doubled quotes.
+ */
+final class Csv {
+    private Csv() {
+    }
+
+    /**
+     * Reads the rows of a CSV stream one by one. Not thread-safe.
+     */
+    static final class RowReader {
+        private final Reader in;
+        private int lookahead = -2;
+        private long line = 0;
+
+        RowReader(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * @return the number of the last row returned by {@link #next()} (1 for the first row).
+         */
+        long line() {
+            return line;
+        }
+
+        private int read() throws IOException {
+            if (lookahead != -2) {
+                int c = lookahead;
+                lookahead = -2;
+                return c;
+            }
+            return in.read();
+        }
+
+        /**
+         * @return the fields of the next row, or null at the end of the stream. Empty lines are skipped.
+         * @throws IOException on a read error or an unterminated quoted field
+         */
+        List<String> next() throws IOException {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean any = false;
+            int c;
+            while ((c = read()) != -1) {
+                if (quoted) {
+                    if (c == '"') {
+                        int n = read();
+                        if (n == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            lookahead = n;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                    any = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                    any = true;
+                } else if (c == '\r' || c == '\n') {
+                    if (c == '\r') {
+                        int n = read();
+                        if (n != '\n') {
+                            lookahead = n;
+                        }
+                    }
+                    if (any || field.length() > 0) {
+                        break;
+                    }
+                } else {
+                    field.append((char) c);
+                    any = true;
+                }
+            }
+            if (quoted) {
+                throw new IOException("line " + (line + 1) + ": unterminated quoted field");
+            }
+            if (!any && field.length() == 0) {
+                return null;
+            }
+            fields.add(field.toString());
+            line++;
+            return fields;
+        }
+    }
+
+    /**
+     * Write one row, quoting the fields that need it. Null fields are written as empty fields.
+     */
+    static void writeRow(Writer out, Object... fields) throws IOException {
+        for (int i = 0; i < fields.length; ++i) {
+            if (i > 0) {
+                out.write(',');
+            }
+            if (fields[i] != null) {
+                writeField(out, fields[i].toString());
+            }
+        }
+        out.write('\n');
+    }
+
+    private static void writeField(Writer out, String field) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; ++i) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(field);
+            return;
+        }
+        out.write('"');
+        out.write(field.replace("\"", "\"\""));
+        out.write('"');
+    }
+}
@@ -0,0 +1,130 @@
+package smarticulous;
+
+import smarticulous.db.Exercise;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, in-process cache of exercises keyed by exercise id, evicting the least recently used exercise
+ * when it is full.
+ * <p>
+ * The cached {@link Exercise} objects are shared between all the callers and must not be modified.
+ * The cache is safe to use from several threads.
+ */
+public class ExerciseCache {
+    /**
+     * Maximal number of exercises held by the cache.
+     */
+    private final int capacity;
+
+    /**
+     * The cached exercises, in access order (least recently used first).
+     */
+    private final LinkedHashMap<Integer, Exercise> exercises;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity the maximal number of exercises to hold
+     */
+    public ExerciseCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.exercises = new LinkedHashMap<Integer, Exercise>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Exercise> eldest) {
+                return size() > ExerciseCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Look up an exercise, counting a hit or a miss.
+     *
+     * @param id the exercise id
+     * @return the cached exercise, or null if it isn't cached.
+     */
+    public Exercise get(int id) {
+        Exercise exercise;
+        synchronized (exercises) {
+            exercise = exercises.get(id);
+        }
+        if (exercise == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return exercise;
+    }
+
+    /**
+     * Add an exercise to the cache, evicting the least recently used exercise if the cache is full.
+     *
+     * @param exercise the exercise to cache
+     */
+    public void put(Exercise exercise) {
+        synchronized (exercises) {
+            exercises.put(exercise.id, exercise);
+        }
+    }
+
+    /**
+     * Drop the given exercise from the cache (if it is cached).
+     *
+     * @param id the exercise id
+     */
+    public void invalidate(int id) {
+        synchronized (exercises) {
+            exercises.remove(id);
+        }
+    }
+
+    /**
+     * Drop all the cached exercises. The hit/miss counters are kept.
+     */
+    public void clear() {
+        synchronized (exercises) {
+            exercises.clear();
+        }
+    }
+
+    /**
+     * @return the number of exercises currently cached.
+     */
+    public int size() {
+        synchronized (exercises) {
+            return exercises.size();
+        }
+    }
+
+    /**
+     * @return the maximal number of exercises held by the cache.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of lookups that found their exercise in the cache.
+     */
+    public long hitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that didn't find their exercise in the cache.
+     */
+    public long missCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ExerciseCache[" + size() + "/" + capacity + ", " + hitCount() + " hits, " + missCount() + " misses]";
+    }
+}
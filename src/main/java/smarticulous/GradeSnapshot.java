@@ -0,0 +1,694 @@
+package smarticulous;
+
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable, point-in-time snapshot of the whole database in a compact binary columnar file, read through a
+ * memory mapping.
+ * <p>
+ * Snapshots are written by {@link Smarticulous#exportSnapshot(Path)} from a single read transaction, so analytics
+ * jobs can query a consistent view without touching the live database (and without contending with its writers).
+ * The file is written next to its final name and renamed into place, so a snapshot that is already open keeps its
+ * old contents.
+ * <p>
+ * Every column (user ids, exercise ids, submission times, grades, ...) is a contiguous array in the file, and every
+ * query is a binary search over those arrays with absolute reads of the mapped buffer: nothing is copied onto the
+ * heap until a {@link User}, {@link Exercise} or {@link Submission} is materialized. The submissions are ordered by
+ * exercise, user and submission id, and the latest and best submission of every (exercise, user) pair are computed
+ * when the file is written, with the same rules as {@link Gradebook}.
+ * <p>
+ * A single mapping is limited to 2GB, and so is the file. Snapshots are safe to share between threads; the mapping
+ * is released when the snapshot is garbage collected.
+ */
+public final class GradeSnapshot {
+    static final int MAGIC = 0x534D4753; // "SMGS"
+    static final int VERSION = 1;
+
+    // the columns, in file order
+    private static final int USER_ID = 0;
+    private static final int USER_NAME = 1;
+    private static final int USER_FIRST = 2;
+    private static final int USER_LAST = 3;
+    private static final int USERNAME_ORDER = 4;
+    private static final int EXERCISE_ID = 5;
+    private static final int EXERCISE_NAME = 6;
+    private static final int EXERCISE_DUE = 7;
+    private static final int EXERCISE_HAS_DUE = 8;
+    private static final int EXERCISE_QUESTIONS = 9;
+    private static final int QUESTION_NAME = 10;
+    private static final int QUESTION_DESC = 11;
+    private static final int QUESTION_POINTS = 12;
+    private static final int SUBMISSION_ID = 13;
+    private static final int SUBMISSION_USER = 14;
+    private static final int SUBMISSION_EXERCISE = 15;
+    private static final int SUBMISSION_TIME = 16;
+    private static final int SUBMISSION_GRADES = 17;
+    private static final int GRADE = 18;
+    private static final int PAIR_EXERCISE = 19;
+    private static final int PAIR_USER = 20;
+    private static final int PAIR_LATEST = 21;
+    private static final int PAIR_BEST = 22;
+    private static final int STRING_OFFSET = 23;
+    private static final int STRING_LENGTH = 24;
+    private static final int STRING_BYTES = 25;
+    private static final int COLUMNS = 26;
+
+    /**
+     * magic, version, creation time, the 8 counts and the column offsets.
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 * 4 + COLUMNS * 4;
+
+    private final ByteBuffer buffer;
+    private final long createdMillis;
+    private final int users;
+    private final int exercises;
+    private final int submissions;
+    private final int pairs;
+    private final int[] columns = new int[COLUMNS];
+
+    private GradeSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a grade snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("unsupported grade snapshot version " + buffer.getInt(4));
+        }
+        createdMillis = buffer.getLong(8);
+        users = buffer.getInt(16);
+        exercises = buffer.getInt(20);
+        submissions = buffer.getInt(28);
+        pairs = buffer.getInt(36);
+        int length = buffer.getInt(44);
+        if (length != buffer.capacity()) {
+            throw new IOException("truncated grade snapshot: " + buffer.capacity() + " of " + length + " bytes");
+        }
+        for (int c = 0; c < COLUMNS; ++c) {
+            columns[c] = buffer.getInt(48 + 4 * c);
+        }
+    }
+
+    /**
+     * Map a snapshot file.
+     *
+     * @param file a file written by {@link #write(SubmissionTable, Path)}
+     * @return the snapshot.
+     * @throws IOException if the file can't be read or isn't a snapshot
+     */
+    public static GradeSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("grade snapshot larger than 2GB: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new GradeSnapshot(mapped);
+        }
+    }
+
+    /**
+     * @return when the snapshot was written, in milliseconds since the epoch.
+     */
+    public long createdMillis() {
+        return createdMillis;
+    }
+
+    public int userCount() {
+        return users;
+    }
+
+    public int exerciseCount() {
+        return exercises;
+    }
+
+    /**
+     * @return the number of submissions (rows).
+     */
+    public int size() {
+        return submissions;
+    }
+
+    // =========== Rows =============
+
+    public int submissionId(int row) {
+        return intAt(SUBMISSION_ID, row);
+    }
+
+    public int userId(int row) {
+        return intAt(SUBMISSION_USER, row);
+    }
+
+    public int exerciseId(int row) {
+        return intAt(SUBMISSION_EXERCISE, row);
+    }
+
+    /**
+     * @return the submission time of the row, in milliseconds since the epoch.
+     */
+    public long time(int row) {
+        return buffer.getLong(columns[SUBMISSION_TIME] + 8 * row);
+    }
+
+    /**
+     * @return the number of grades stored for the row.
+     */
+    public int gradeCount(int row) {
+        return intAt(SUBMISSION_GRADES, row + 1) - intAt(SUBMISSION_GRADES, row);
+    }
+
+    /**
+     * @param question the question index (0 for the first question)
+     * @return the grade of the question, or 0 if the row has no grade for it.
+     */
+    public float grade(int row, int question) {
+        int index = intAt(SUBMISSION_GRADES, row) + question;
+        return question >= 0 && index < intAt(SUBMISSION_GRADES, row + 1)
+                ? buffer.getFloat(columns[GRADE] + 4 * index) : 0;
+    }
+
+    /**
+     * @return the sum of the grades of the row.
+     */
+    public double total(int row) {
+        double total = 0;
+        int end = intAt(SUBMISSION_GRADES, row + 1);
+        for (int i = intAt(SUBMISSION_GRADES, row); i < end; ++i) {
+            total += buffer.getFloat(columns[GRADE] + 4 * i);
+        }
+        return total;
+    }
+
+    // =========== Queries =============
+
+    /**
+     * @return the id of the user with the given username, or -1 if there is no such user.
+     */
+    public int findUserId(String username) {
+        int index = userIndexByName(username.getBytes(StandardCharsets.UTF_8));
+        return index < 0 ? -1 : intAt(USER_ID, index);
+    }
+
+    /**
+     * @return the row of the latest submission of the user to the exercise, or -1 if there is none.
+     */
+    public int latestRow(int userId, int exerciseId) {
+        int pair = pairIndex(exerciseId, userId);
+        return pair < 0 ? -1 : intAt(PAIR_LATEST, pair);
+    }
+
+    /**
+     * @return the row of the graded submission of the user to the exercise with the highest total, or -1 if there
+     * is none.
+     */
+    public int bestRow(int userId, int exerciseId) {
+        int pair = pairIndex(exerciseId, userId);
+        return pair < 0 ? -1 : intAt(PAIR_BEST, pair);
+    }
+
+    /**
+     * The first row of the submissions of the user to the exercise; its rows are contiguous and in submission id
+     * order.
+     *
+     * @return the first row, or -1 if there are none.
+     */
+    public int firstRow(int userId, int exerciseId) {
+        int row = lowerBound(SUBMISSION_EXERCISE, SUBMISSION_USER, submissions, exerciseId, userId);
+        return row < submissions && exerciseId(row) == exerciseId && userId(row) == userId ? row : -1;
+    }
+
+    /**
+     * The same as {@link Smarticulous#getLastSubmission}, against the snapshot.
+     */
+    public Submission getLastSubmission(User user, Exercise exercise) {
+        int userId = findUserId(user.username);
+        return userId == -1 ? null : asSubmission(latestRow(userId, exercise.id), user, exercise);
+    }
+
+    /**
+     * The same as {@link Smarticulous#getBestSubmission}, against the snapshot.
+     */
+    public Submission getBestSubmission(User user, Exercise exercise) {
+        int userId = findUserId(user.username);
+        return userId == -1 ? null : asSubmission(bestRow(userId, exercise.id), user, exercise);
+    }
+
+    private Submission asSubmission(int row, User user, Exercise exercise) {
+        // a submission without grades isn't returned, as in the SQL version
+        if (row < 0 || gradeCount(row) == 0) {
+            return null;
+        }
+        float[] grades = new float[exercise.questions.size()];
+        for (int q = 0; q < grades.length; ++q) {
+            grades[q] = grade(row, q);
+        }
+        return new Submission(submissionId(row), user, exercise, TimeCodec.date(time(row)), grades);
+    }
+
+    /**
+     * @return the user with the given id, or null if there is no such user.
+     */
+    public User user(int userId) {
+        int index = search(USER_ID, users, userId);
+        if (index < 0) {
+            return null;
+        }
+        return new User(string(intAt(USER_NAME, index)), string(intAt(USER_FIRST, index)),
+                string(intAt(USER_LAST, index)));
+    }
+
+    /**
+     * @return the exercise with the given id (with its questions), or null if there is no such exercise.
+     */
+    public Exercise exercise(int exerciseId) {
+        int index = search(EXERCISE_ID, exercises, exerciseId);
+        if (index < 0) {
+            return null;
+        }
+        boolean hasDue = buffer.get(columns[EXERCISE_HAS_DUE] + index) != 0;
+        Exercise exercise = new Exercise(exerciseId, string(intAt(EXERCISE_NAME, index)),
+                hasDue ? TimeCodec.date(buffer.getLong(columns[EXERCISE_DUE] + 8 * index)) : null);
+        for (int q = intAt(EXERCISE_QUESTIONS, index); q < intAt(EXERCISE_QUESTIONS, index + 1); ++q) {
+            exercise.addQuestion(string(intAt(QUESTION_NAME, q)), string(intAt(QUESTION_DESC, q)),
+                    intAt(QUESTION_POINTS, q));
+        }
+        return exercise;
+    }
+
+    // =========== Binary search =============
+
+    private int intAt(int column, int index) {
+        return buffer.getInt(columns[column] + 4 * index);
+    }
+
+    /**
+     * @return the index of the key in a sorted int column of n entries, or -1.
+     */
+    private int search(int column, int n, int key) {
+        int lo = 0;
+        int hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int value = intAt(column, mid);
+            if (value < key) {
+                lo = mid + 1;
+            } else if (value > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the (exercise, user) pair, or -1.
+     */
+    private int pairIndex(int exerciseId, int userId) {
+        int pair = lowerBound(PAIR_EXERCISE, PAIR_USER, pairs, exerciseId, userId);
+        return pair < pairs && intAt(PAIR_EXERCISE, pair) == exerciseId && intAt(PAIR_USER, pair) == userId ? pair : -1;
+    }
+
+    /**
+     * @return the first index whose (major, minor) key is not below (majorKey, minorKey), or n.
+     */
+    private int lowerBound(int major, int minor, int n, int majorKey, int minorKey) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int m = intAt(major, mid);
+            if (m < majorKey || (m == majorKey && intAt(minor, mid) < minorKey)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the index of the user with the given UTF-8 username, or -1.
+     */
+    private int userIndexByName(byte[] key) {
+        int lo = 0;
+        int hi = users - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int index = intAt(USERNAME_ORDER, mid);
+            int cmp = compareString(intAt(USER_NAME, index), key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compare a string of the file with a key, byte by byte (unsigned) and without copying it.
+     */
+    private int compareString(int string, byte[] key) {
+        int offset = columns[STRING_BYTES] + intAt(STRING_OFFSET, string);
+        int length = Math.max(0, intAt(STRING_LENGTH, string));
+        for (int i = 0; i < length && i < key.length; ++i) {
+            int cmp = Integer.compare(buffer.get(offset + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private String string(int string) {
+        int length = intAt(STRING_LENGTH, string);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        int offset = columns[STRING_BYTES] + intAt(STRING_OFFSET, string);
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // =========== Writing =============
+
+    /**
+     * Write a snapshot of the table - its users, exercises, submissions and grades - replacing the file.
+     *
+     * @param table a table loaded with {@link Smarticulous#loadSubmissionTable()}
+     * @param file the snapshot file
+     * @return the size of the file in bytes.
+     * @throws IOException
+     */
+    static long write(SubmissionTable table, Path file) throws IOException {
+        Object[] data = new Object[COLUMNS];
+        List<byte[]> strings = new ArrayList<>();
+
+        int[] userIds = table.userIds();
+        int[] userNames = new int[userIds.length];
+        int[] userFirst = new int[userIds.length];
+        int[] userLast = new int[userIds.length];
+        Integer[] byName = new Integer[userIds.length];
+        for (int i = 0; i < userIds.length; ++i) {
+            User user = table.user(userIds[i]);
+            userNames[i] = addString(strings, user.username);
+            userFirst[i] = addString(strings, user.firstname);
+            userLast[i] = addString(strings, user.lastname);
+            byName[i] = i;
+        }
+        // the order of findUserId's binary search: unsigned UTF-8 bytes
+        Arrays.sort(byName, (a, b) -> Arrays.compareUnsigned(bytesOf(strings, userNames[a]),
+                bytesOf(strings, userNames[b])));
+        int[] usernameOrder = new int[userIds.length];
+        for (int i = 0; i < userIds.length; ++i) {
+            usernameOrder[i] = byName[i];
+        }
+        data[USER_ID] = userIds;
+        data[USER_NAME] = userNames;
+        data[USER_FIRST] = userFirst;
+        data[USER_LAST] = userLast;
+        data[USERNAME_ORDER] = usernameOrder;
+
+        int[] exerciseIds = table.exerciseIds();
+        int[] exerciseNames = new int[exerciseIds.length];
+        long[] dueDates = new long[exerciseIds.length];
+        byte[] hasDue = new byte[exerciseIds.length];
+        int[] questionStarts = new int[exerciseIds.length + 1];
+        for (int e = 0; e < exerciseIds.length; ++e) {
+            questionStarts[e + 1] = questionStarts[e] + table.exercise(exerciseIds[e]).questions.size();
+        }
+        int[] questionNames = new int[questionStarts[exerciseIds.length]];
+        int[] questionDescs = new int[questionNames.length];
+        int[] questionPoints = new int[questionNames.length];
+        for (int e = 0; e < exerciseIds.length; ++e) {
+            Exercise exercise = table.exercise(exerciseIds[e]);
+            exerciseNames[e] = addString(strings, exercise.name);
+            hasDue[e] = (byte) (exercise.dueDate == null ? 0 : 1);
+            dueDates[e] = TimeCodec.millis(exercise.dueDate, 0);
+            int q = questionStarts[e];
+            for (Exercise.Question question : exercise.questions) {
+                questionNames[q] = addString(strings, question.name);
+                questionDescs[q] = addString(strings, question.desc);
+                questionPoints[q] = question.points;
+                q++;
+            }
+        }
+        data[EXERCISE_ID] = exerciseIds;
+        data[EXERCISE_NAME] = exerciseNames;
+        data[EXERCISE_DUE] = dueDates;
+        data[EXERCISE_HAS_DUE] = hasDue;
+        data[EXERCISE_QUESTIONS] = questionStarts;
+        data[QUESTION_NAME] = questionNames;
+        data[QUESTION_DESC] = questionDescs;
+        data[QUESTION_POINTS] = questionPoints;
+
+        writeSubmissions(table, data);
+
+        int[] stringOffsets = new int[strings.size()];
+        int[] stringLengths = new int[strings.size()];
+        long heapSize = 0;
+        for (int i = 0; i < strings.size(); ++i) {
+            byte[] bytes = strings.get(i);
+            stringOffsets[i] = (int) Math.min(heapSize, Integer.MAX_VALUE);
+            stringLengths[i] = bytes == null ? -1 : bytes.length;
+            heapSize += bytes == null ? 0 : bytes.length;
+        }
+        if (heapSize > Integer.MAX_VALUE) {
+            throw new IOException("grade snapshot larger than 2GB");
+        }
+        byte[] heap = new byte[(int) heapSize];
+        for (int i = 0; i < strings.size(); ++i) {
+            if (strings.get(i) != null) {
+                System.arraycopy(strings.get(i), 0, heap, stringOffsets[i], stringLengths[i]);
+            }
+        }
+        data[STRING_OFFSET] = stringOffsets;
+        data[STRING_LENGTH] = stringLengths;
+        data[STRING_BYTES] = heap;
+
+        // lay the columns out one after the other, each aligned to its element size
+        int[] offsets = new int[COLUMNS];
+        long cursor = HEADER_SIZE;
+        for (int c = 0; c < COLUMNS; ++c) {
+            int width = width(data[c]);
+            cursor = (cursor + width - 1) / width * width;
+            offsets[c] = (int) Math.min(cursor, Integer.MAX_VALUE);
+            cursor += (long) width * Array.getLength(data[c]);
+        }
+        if (cursor > Integer.MAX_VALUE) {
+            throw new IOException("grade snapshot larger than 2GB");
+        }
+
+        Path target = file.toAbsolutePath();
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp),
+                    1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(userIds.length);
+                out.writeInt(exerciseIds.length);
+                out.writeInt(questionNames.length);
+                out.writeInt(((int[]) data[SUBMISSION_ID]).length);
+                out.writeInt(((float[]) data[GRADE]).length);
+                out.writeInt(((int[]) data[PAIR_EXERCISE]).length);
+                out.writeInt(strings.size());
+                out.writeInt((int) cursor);
+                for (int offset : offsets) {
+                    out.writeInt(offset);
+                }
+                for (int c = 0; c < COLUMNS; ++c) {
+                    while (out.size() < offsets[c]) {
+                        out.write(0);
+                    }
+                    writeColumn(out, data[c]);
+                }
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return cursor;
+    }
+
+    /**
+     * Order the submissions by exercise, user and submission id, and find the latest and best submission of every
+     * (exercise, user) pair.
+     */
+    private static void writeSubmissions(SubmissionTable table, Object[] data) {
+        int n = table.size();
+        int[] order = new int[n];
+        int k = 0;
+        for (int e = 0; e < table.exerciseCount(); ++e) {
+            int start = table.exerciseStart(e);
+            // the rows of an exercise are in submission id order: sort them by user, keeping that order (as in
+            // Gradebook, the row offset fits in the low half)
+            long[] byUser = new long[table.exerciseEnd(e) - start];
+            for (int i = 0; i < byUser.length; ++i) {
+                byUser[i] = ((long) table.userId(start + i) << 32) | i;
+            }
+            Arrays.sort(byUser);
+            for (long key : byUser) {
+                order[k++] = start + (int) key;
+            }
+        }
+
+        int[] ids = new int[n];
+        int[] userIds = new int[n];
+        int[] exerciseIds = new int[n];
+        long[] times = new long[n];
+        int[] gradeOffsets = new int[n + 1];
+        for (int r = 0; r < n; ++r) {
+            int row = order[r];
+            ids[r] = table.submissionId(row);
+            userIds[r] = table.userId(row);
+            exerciseIds[r] = table.exerciseId(row);
+            times[r] = table.time(row);
+            gradeOffsets[r + 1] = gradeOffsets[r] + table.gradeCount(row);
+        }
+        float[] grades = new float[gradeOffsets[n]];
+        for (int r = 0; r < n; ++r) {
+            for (int q = 0; q < gradeOffsets[r + 1] - gradeOffsets[r]; ++q) {
+                grades[gradeOffsets[r] + q] = table.grade(order[r], q);
+            }
+        }
+
+        int[] pairExercises = new int[n];
+        int[] pairUsers = new int[n];
+        int[] latest = new int[n];
+        int[] best = new int[n];
+        int p = -1;
+        for (int r = 0; r < n; ++r) {
+            if (p < 0 || pairExercises[p] != exerciseIds[r] || pairUsers[p] != userIds[r]) {
+                p++;
+                pairExercises[p] = exerciseIds[r];
+                pairUsers[p] = userIds[r];
+                latest[p] = r;
+                best[p] = -1;
+            }
+            // the rules of Gradebook: the latest is ordered by time then id, the best by total then time and id
+            if (isLater(times, ids, r, latest[p])) {
+                latest[p] = r;
+            }
+            if (gradeOffsets[r + 1] > gradeOffsets[r]) {
+                int b = best[p];
+                double total = total(grades, gradeOffsets, r);
+                double bestTotal = b < 0 ? 0 : total(grades, gradeOffsets, b);
+                if (b < 0 || total > bestTotal || (total == bestTotal && isLater(times, ids, r, b))) {
+                    best[p] = r;
+                }
+            }
+        }
+        int pairs = p + 1;
+
+        data[SUBMISSION_ID] = ids;
+        data[SUBMISSION_USER] = userIds;
+        data[SUBMISSION_EXERCISE] = exerciseIds;
+        data[SUBMISSION_TIME] = times;
+        data[SUBMISSION_GRADES] = gradeOffsets;
+        data[GRADE] = grades;
+        data[PAIR_EXERCISE] = Arrays.copyOf(pairExercises, pairs);
+        data[PAIR_USER] = Arrays.copyOf(pairUsers, pairs);
+        data[PAIR_LATEST] = Arrays.copyOf(latest, pairs);
+        data[PAIR_BEST] = Arrays.copyOf(best, pairs);
+    }
+
+    private static boolean isLater(long[] times, int[] ids, int a, int b) {
+        return times[a] > times[b] || (times[a] == times[b] && ids[a] > ids[b]);
+    }
+
+    private static double total(float[] grades, int[] gradeOffsets, int r) {
+        double total = 0;
+        for (int i = gradeOffsets[r]; i < gradeOffsets[r + 1]; ++i) {
+            total += grades[i];
+        }
+        return total;
+    }
+
+    private static int addString(List<byte[]> strings, String s) {
+        strings.add(s == null ? null : s.getBytes(StandardCharsets.UTF_8));
+        return strings.size() - 1;
+    }
+
+    private static byte[] bytesOf(List<byte[]> strings, int string) {
+        byte[] bytes = strings.get(string);
+        return bytes == null ? new byte[0] : bytes;
+    }
+
+    private static int width(Object column) {
+        if (column instanceof long[]) {
+            return 8;
+        }
+        return column instanceof byte[] ? 1 : 4;
+    }
+
+    private static void writeColumn(DataOutputStream out, Object column) throws IOException {
+        if (column instanceof int[]) {
+            for (int value : (int[]) column) {
+                out.writeInt(value);
+            }
+        } else if (column instanceof long[]) {
+            for (long value : (long[]) column) {
+                out.writeLong(value);
+            }
+        } else if (column instanceof float[]) {
+            for (float value : (float[]) column) {
+                out.writeFloat(value);
+            }
+        } else {
+            out.write((byte[]) column);
+        }
+    }
+
+    // =========== Command line =============
+
+    /**
+     * Command line entry point: {@code GradeSnapshot <jdbc url> <file>} writes a snapshot of the database.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("usage: GradeSnapshot <jdbc url> <file>");
+            System.exit(2);
+        }
+        Smarticulous smarticulous = new Smarticulous();
+        smarticulous.openDB(args[0]);
+        try {
+            long start = System.nanoTime();
+            long bytes = smarticulous.exportSnapshot(Paths.get(args[1]));
+            System.out.println("snapshot " + args[1] + ": " + bytes + " bytes in "
+                    + (System.nanoTime() - start) / 1000000 + "ms");
+        } finally {
+            smarticulous.closeDB();
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package smarticulous;
+
+import smarticulous.db.Exercise;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The grades of every user in every exercise, with per-exercise statistics.
+ * <p>
+ * For each (user, exercise) pair with at least one submission, the gradebook holds the total of the best
+ * submission (maximal point total, ties going to the latest one, as in {@link Smarticulous#getBestSubmission}),
+ * the total of the latest submission, and whether the user submitted by the exercise due date.
+ * Each exercise also gets the mean, median and percentiles of the best totals of its users.
+ * <p>
+ * A gradebook is computed from a {@link SubmissionTable} in a single pass over its rows: the exercises are
+ * aggregated in parallel on a fork-join pool, and the results are stored as primitive columns.
+ */
+public final class Gradebook {
+
+    /**
+     * Whether a user handed in an exercise in time.
+     */
+    public enum Status {
+        /**
+         * At least one submission was made by the due date.
+         */
+        ON_TIME,
+        /**
+         * All the submissions were made after the due date.
+         */
+        LATE
+    }
+
+    private final ExerciseGrades[] exercises;
+
+    private Gradebook(ExerciseGrades[] exercises) {
+        this.exercises = exercises;
+    }
+
+    /**
+     * Compute the gradebook of the given submissions on the common fork-join pool.
+     *
+     * @param table the submissions
+     * @return the gradebook.
+     */
+    public static Gradebook compute(SubmissionTable table) {
+        return compute(table, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Compute the gradebook of the given submissions, aggregating the exercises in parallel on the given pool.
+     *
+     * @param table the submissions
+     * @param pool the pool that runs the aggregation
+     * @return the gradebook.
+     */
+    public static Gradebook compute(SubmissionTable table, ForkJoinPool pool) {
+        ExerciseGrades[] exercises = new ExerciseGrades[table.exerciseCount()];
+        pool.invoke(new Aggregate(table, exercises, 0, exercises.length));
+        return new Gradebook(exercises);
+    }
+
+    /**
+     * Aggregates a range of exercises, splitting it until a single exercise is left.
+     */
+    private static final class Aggregate extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SubmissionTable table;
+        private final ExerciseGrades[] results;
+        private final int from;
+        private final int to;
+
+        Aggregate(SubmissionTable table, ExerciseGrades[] results, int from, int to) {
+            this.table = table;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from < to) {
+                    results[from] = ExerciseGrades.aggregate(table, from);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Aggregate(table, results, from, middle), new Aggregate(table, results, middle, to));
+        }
+    }
+
+    /**
+     * @return the grades of every exercise that has submissions, in exercise id order.
+     */
+    public List<ExerciseGrades> exercises() {
+        return Collections.unmodifiableList(Arrays.asList(exercises));
+    }
+
+    /**
+     * @return the grades of the given exercise, or null if it has no submissions.
+     */
+    public ExerciseGrades exercise(int exerciseId) {
+        int lo = 0;
+        int hi = exercises.length - 1;
+        while (lo <= hi) {
+            int middle = (lo + hi) >>> 1;
+            int id = exercises[middle].exerciseId;
+            if (id < exerciseId) {
+                lo = middle + 1;
+            } else if (id > exerciseId) {
+                hi = middle - 1;
+            } else {
+                return exercises[middle];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the best total of the user in the exercise, or NaN if the user has no graded submission.
+     */
+    public double bestTotal(int userId, int exerciseId) {
+        ExerciseGrades grades = exercise(exerciseId);
+        int i = grades == null ? -1 : grades.indexOf(userId);
+        return i < 0 ? Double.NaN : grades.bestTotal(i);
+    }
+
+    /**
+     * @return the total of the latest submission of the user in the exercise, or NaN if the user has no submission
+     * or the latest one has no grades.
+     */
+    public double latestTotal(int userId, int exerciseId) {
+        ExerciseGrades grades = exercise(exerciseId);
+        int i = grades == null ? -1 : grades.indexOf(userId);
+        return i < 0 ? Double.NaN : grades.latestTotal(i);
+    }
+
+    /**
+     * @return whether the user handed in the exercise in time, or null if the user has no submission.
+     */
+    public Status status(int userId, int exerciseId) {
+        ExerciseGrades grades = exercise(exerciseId);
+        int i = grades == null ? -1 : grades.indexOf(userId);
+        return i < 0 ? null : grades.status(i);
+    }
+
+    /**
+     * The grades of all the users in one exercise, sorted by user id, and their statistics.
+     * The users are addressed by their index (0 to {@link #students()} - 1).
+     */
+    public static final class ExerciseGrades {
+        private final int exerciseId;
+        private final int[] userIds;
+        private final double[] bestTotals;
+        private final double[] latestTotals;
+        private final int[] bestSubmissionIds;
+        private final int[] latestSubmissionIds;
+        private final boolean[] onTime;
+
+        /**
+         * The best totals of the users with a graded submission, ascending.
+         */
+        private final double[] sortedBest;
+        private final double mean;
+        private final int onTimeCount;
+
+        private ExerciseGrades(int exerciseId, int[] userIds, double[] bestTotals, double[] latestTotals,
+                               int[] bestSubmissionIds, int[] latestSubmissionIds, boolean[] onTime) {
+            this.exerciseId = exerciseId;
+            this.userIds = userIds;
+            this.bestTotals = bestTotals;
+            this.latestTotals = latestTotals;
+            this.bestSubmissionIds = bestSubmissionIds;
+            this.latestSubmissionIds = latestSubmissionIds;
+            this.onTime = onTime;
+
+            double[] graded = new double[userIds.length];
+            int n = 0;
+            double sum = 0;
+            int inTime = 0;
+            for (int i = 0; i < userIds.length; ++i) {
+                if (!Double.isNaN(bestTotals[i])) {
+                    graded[n++] = bestTotals[i];
+                    sum += bestTotals[i];
+                }
+                if (onTime[i]) {
+                    inTime++;
+                }
+            }
+            sortedBest = Arrays.copyOf(graded, n);
+            Arrays.sort(sortedBest);
+            mean = n == 0 ? Double.NaN : sum / n;
+            onTimeCount = inTime;
+        }
+
+        /**
+         * Aggregate the rows of the exercise at the given index of the table.
+         */
+        static ExerciseGrades aggregate(SubmissionTable table, int exerciseIndex) {
+            int start = table.exerciseStart(exerciseIndex);
+            int end = table.exerciseEnd(exerciseIndex);
+            int exerciseId = table.exerciseIdAt(exerciseIndex);
+            Exercise exercise = table.exercise(exerciseId);
+            long dueDate = exercise == null ? Long.MAX_VALUE : TimeCodec.millis(exercise.dueDate, Long.MAX_VALUE);
+
+            // sort the rows by user (the row offset fits in the low half, since an exercise has fewer than 2^31 rows)
+            long[] byUser = new long[end - start];
+            for (int row = start; row < end; ++row) {
+                byUser[row - start] = ((long) table.userId(row) << 32) | (row - start);
+            }
+            Arrays.sort(byUser);
+
+            int users = 0;
+            for (int i = 0; i < byUser.length; ++i) {
+                if (i == 0 || (int) (byUser[i] >> 32) != (int) (byUser[i - 1] >> 32)) {
+                    users++;
+                }
+            }
+            int[] userIds = new int[users];
+            double[] bestTotals = new double[users];
+            double[] latestTotals = new double[users];
+            int[] bestIds = new int[users];
+            int[] latestIds = new int[users];
+            boolean[] onTime = new boolean[users];
+
+            int u = -1;
+            int best = -1;
+            int latest = -1;
+            for (int i = 0; i < byUser.length; ++i) {
+                int userId = (int) (byUser[i] >> 32);
+                int row = start + (int) byUser[i];
+                if (u < 0 || userIds[u] != userId) {
+                    if (u >= 0) {
+                        store(table, u, best, latest, bestTotals, latestTotals, bestIds, latestIds);
+                    }
+                    u++;
+                    userIds[u] = userId;
+                    best = -1;
+                    latest = -1;
+                }
+                // like the SQL queries: the latest is ordered by time then id, the best by total then time
+                if (latest < 0 || isLater(table, row, latest)) {
+                    latest = row;
+                }
+                if (table.gradeCount(row) > 0) {
+                    if (best < 0) {
+                        best = row;
+                    } else {
+                        double total = table.total(row);
+                        double bestTotal = table.total(best);
+                        if (total > bestTotal || (total == bestTotal && isLater(table, row, best))) {
+                            best = row;
+                        }
+                    }
+                }
+                if (table.time(row) <= dueDate) {
+                    onTime[u] = true;
+                }
+            }
+            if (u >= 0) {
+                store(table, u, best, latest, bestTotals, latestTotals, bestIds, latestIds);
+            }
+            return new ExerciseGrades(exerciseId, userIds, bestTotals, latestTotals, bestIds, latestIds, onTime);
+        }
+
+        private static boolean isLater(SubmissionTable table, int a, int b) {
+            return table.time(a) > table.time(b)
+                    || (table.time(a) == table.time(b) && table.submissionId(a) > table.submissionId(b));
+        }
+
+        private static void store(SubmissionTable table, int u, int best, int latest, double[] bestTotals,
+                                  double[] latestTotals, int[] bestIds, int[] latestIds) {
+            bestTotals[u] = best < 0 ? Double.NaN : table.total(best);
+            bestIds[u] = best < 0 ? -1 : table.submissionId(best);
+            // an ungraded latest submission has no total, as getLastSubmission returns null for it
+            latestTotals[u] = table.gradeCount(latest) > 0 ? table.total(latest) : Double.NaN;
+            latestIds[u] = table.submissionId(latest);
+        }
+
+        public int exerciseId() {
+            return exerciseId;
+        }
+
+        /**
+         * @return the number of users with at least one submission.
+         */
+        public int students() {
+            return userIds.length;
+        }
+
+        /**
+         * @return the index of the user, or -1 if the user has no submission.
+         */
+        public int indexOf(int userId) {
+            int i = Arrays.binarySearch(userIds, userId);
+            return i >= 0 ? i : -1;
+        }
+
+        public int userId(int index) {
+            return userIds[index];
+        }
+
+        /**
+         * @return the best total of the user, or NaN if none of their submissions has grades.
+         */
+        public double bestTotal(int index) {
+            return bestTotals[index];
+        }
+
+        /**
+         * @return the id of the best submission of the user, or -1 if none of their submissions has grades.
+         */
+        public int bestSubmissionId(int index) {
+            return bestSubmissionIds[index];
+        }
+
+        /**
+         * @return the total of the latest submission of the user, or NaN if it has no grades.
+         */
+        public double latestTotal(int index) {
+            return latestTotals[index];
+        }
+
+        /**
+         * @return the id of the latest submission of the user, graded or not.
+         */
+        public int latestSubmissionId(int index) {
+            return latestSubmissionIds[index];
+        }
+
+        public Status status(int index) {
+            return onTime[index] ? Status.ON_TIME : Status.LATE;
+        }
+
+        public int onTimeCount() {
+            return onTimeCount;
+        }
+
+        public int lateCount() {
+            return userIds.length - onTimeCount;
+        }
+
+        /**
+         * @return the mean of the best totals, or NaN if no user has a graded submission.
+         */
+        public double mean() {
+            return mean;
+        }
+
+        /**
+         * @return the median of the best totals, or NaN if no user has a graded submission.
+         */
+        public double median() {
+            return percentile(50);
+        }
+
+        /**
+         * The given percentile of the best totals, interpolated linearly between the closest ranks
+         * (0 is the lowest total, 100 the highest).
+         *
+         * @param p the percentile, between 0 and 100
+         * @return the percentile, or NaN if no user has a graded submission.
+         */
+        public double percentile(double p) {
+            if (p < 0 || p > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100: " + p);
+            }
+            if (sortedBest.length == 0) {
+                return Double.NaN;
+            }
+            double rank = p / 100 * (sortedBest.length - 1);
+            int lower = (int) Math.floor(rank);
+            int upper = (int) Math.ceil(rank);
+            return sortedBest[lower] + (rank - lower) * (sortedBest[upper] - sortedBest[lower]);
+        }
+    }
+}
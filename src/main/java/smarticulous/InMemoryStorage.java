@@ -0,0 +1,295 @@
+package smarticulous;
+
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link StorageEngine} that keeps everything on the heap, e.g. for tests or a short-lived grading run.
+ * <p>
+ * It follows the same contracts as the SQLite implementation ({@link Smarticulous}): unknown users get -1,
+ * duplicate exercise ids get -1, the latest submission is the one with the latest time (then the highest id), and
+ * ties on the best total are broken in favour of the latest submission.
+ * <p>
+ * The submissions of each user for each exercise are kept as parallel primitive arrays, and the positions of the
+ * latest and the best one are maintained as rows are appended, so both queries are O(1).
+ * Thread-safe: reads share a read lock, writes take the write lock.
+ */
+public class InMemoryStorage implements StorageEngine {
+
+    /**
+     * A user and all their submissions, by exercise id.
+     */
+    private static final class UserRow {
+        final int id;
+        String firstname;
+        String lastname;
+        String password;
+        final IntMap<SubmissionRows> submissions = new IntMap<>(4);
+
+        UserRow(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * The submissions of one user for one exercise, in insertion order.
+     * The grades of row i are grades[gradeOffsets[i] .. gradeOffsets[i + 1]).
+     */
+    private static final class SubmissionRows {
+        int size;
+        int[] ids = new int[2];
+        long[] times = new long[2];
+        double[] totals = new double[2];
+        int[] gradeOffsets = new int[3];
+        float[] grades = new float[8];
+        int last = -1;
+        int best = -1;
+
+        void add(int id, long time, float[] questionGrades) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                times = Arrays.copyOf(times, capacity);
+                totals = Arrays.copyOf(totals, capacity);
+                gradeOffsets = Arrays.copyOf(gradeOffsets, capacity + 1);
+            }
+            int count = questionGrades == null ? 0 : questionGrades.length;
+            int from = gradeOffsets[size];
+            if (from + count > grades.length) {
+                grades = Arrays.copyOf(grades, Math.max(grades.length * 2, from + count));
+            }
+            double total = 0;
+            for (int q = 0; q < count; ++q) {
+                grades[from + q] = questionGrades[q];
+                total += questionGrades[q];
+            }
+            int row = size++;
+            ids[row] = id;
+            times[row] = time;
+            // like SUM() over no rows in SQL, a submission without grades ranks below every graded one
+            totals[row] = count == 0 ? Double.NEGATIVE_INFINITY : total;
+            gradeOffsets[size] = from + count;
+
+            if (last == -1 || isLater(row, last)) {
+                last = row;
+            }
+            // ties on the total go to the later submission, by time and then by id, like the SQL queries
+            if (best == -1 || totals[row] > totals[best] || (totals[row] == totals[best] && isLater(row, best))) {
+                best = row;
+            }
+        }
+
+        private boolean isLater(int a, int b) {
+            return times[a] > times[b] || (times[a] == times[b] && ids[a] > ids[b]);
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, UserRow> users = new HashMap<>();
+    private final IntMap<Exercise> exercises = new IntMap<>();
+
+    /**
+     * The ids of all the stored submissions (the values are unused).
+     */
+    private final IntMap<Boolean> submissionIds = new IntMap<>();
+
+    private int nextUserId = 1;
+    private int nextSubmissionId = 1;
+
+    // =========== User Management =============
+
+    @Override
+    public int addOrUpdateUser(User user, String password) {
+        lock.writeLock().lock();
+        try {
+            UserRow row = users.get(user.username);
+            if (row == null) {
+                row = new UserRow(nextUserId++);
+                users.put(user.username, row);
+            }
+            row.firstname = user.firstname;
+            row.lastname = user.lastname;
+            // encoded like the Password column, so a password that looks like a hash is still a password
+            row.password = PasswordHasher.encode(password, false);
+            return row.id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean verifyLogin(String username, String password) {
+        lock.readLock().lock();
+        try {
+            UserRow row = users.get(username);
+            return row != null && password != null && PasswordHasher.matches(password, row.password);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // =========== Exercise Management =============
+
+    @Override
+    public int addExercise(Exercise exercise) {
+        lock.writeLock().lock();
+        try {
+            if (exercises.containsKey(exercise.id)) {
+                return -1;
+            }
+            // keep a private copy, like a database row, so later changes to the caller's object don't leak in
+            exercises.put(exercise.id, copy(exercise));
+            return exercise.id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Exercise> loadExercises() {
+        lock.readLock().lock();
+        try {
+            List<Exercise> result = new ArrayList<>(exercises.size());
+            for (int id : exercises.sortedKeys()) {
+                result.add(copy(exercises.get(id)));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static Exercise copy(Exercise exercise) {
+        Exercise result = new Exercise(exercise.id, exercise.name,
+                exercise.dueDate == null ? null : TimeCodec.date(TimeCodec.millis(exercise.dueDate)));
+        for (Exercise.Question question : exercise.questions) {
+            result.addQuestion(question.name, question.desc, question.points);
+        }
+        return result;
+    }
+
+    // ========== Submission Storage ===============
+
+    @Override
+    public int storeSubmission(Submission submission) throws SQLException {
+        return storeSubmissions(Collections.singletonList(submission))[0];
+    }
+
+    /**
+     * Store a batch of submissions.
+     * <p>
+     * Like a transaction, the batch is applied entirely or not at all: if an explicit submission id is already taken
+     * (or repeated within the batch), nothing is stored and an SQLException is thrown.
+     */
+    @Override
+    public int[] storeSubmissions(Collection<Submission> submissions) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            // assign and validate all the ids before changing anything
+            int[] ids = new int[submissions.size()];
+            IntMap<Boolean> batchIds = new IntMap<>(submissions.size());
+            int next = nextSubmissionId;
+            int i = 0;
+            for (Submission submission : submissions) {
+                if (!users.containsKey(submission.user.username)) {
+                    ids[i++] = -1;
+                    continue;
+                }
+                int subId = submission.id;
+                if (subId == -1) {
+                    subId = next;
+                    // next only stops growing at Integer.MAX_VALUE: then the free ids below it are searched downwards
+                    // (SQLite picks a random unused rowid instead)
+                    while (submissionIds.containsKey(subId) || batchIds.containsKey(subId)) {
+                        if (subId == 1) {
+                            throw new SQLException("database or disk is full: no free SubmissionId");
+                        }
+                        subId--;
+                    }
+                } else if (submissionIds.containsKey(subId) || batchIds.containsKey(subId)) {
+                    throw new SQLException("UNIQUE constraint failed: Submission.SubmissionId (" + subId + ")");
+                }
+                batchIds.put(subId, Boolean.TRUE);
+                // ids are handed out like SQLite's rowids: one past the largest id so far
+                if (subId >= next) {
+                    next = subId == Integer.MAX_VALUE ? Integer.MAX_VALUE : subId + 1;
+                }
+                ids[i++] = subId;
+            }
+
+            nextSubmissionId = next;
+            i = 0;
+            for (Submission submission : submissions) {
+                int subId = ids[i++];
+                if (subId == -1) {
+                    continue;
+                }
+                submissionIds.put(subId, Boolean.TRUE);
+                UserRow user = users.get(submission.user.username);
+                SubmissionRows rows = user.submissions.get(submission.exercise.id);
+                if (rows == null) {
+                    rows = new SubmissionRows();
+                    user.submissions.put(submission.exercise.id, rows);
+                }
+                rows.add(subId, TimeCodec.millis(submission.submissionTime), submission.questionGrades);
+            }
+            return ids;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ============= Submission Query ===============
+
+    @Override
+    public Submission getLastSubmission(User user, Exercise exercise) {
+        return getSubmission(user, exercise, false);
+    }
+
+    @Override
+    public Submission getBestSubmission(User user, Exercise exercise) {
+        return getSubmission(user, exercise, true);
+    }
+
+    private Submission getSubmission(User user, Exercise exercise, boolean best) {
+        lock.readLock().lock();
+        try {
+            UserRow row = users.get(user.username);
+            SubmissionRows rows = row == null ? null : row.submissions.get(exercise.id);
+            if (rows == null) {
+                return null;
+            }
+            int r = best ? rows.best : rows.last;
+            int from = rows.gradeOffsets[r];
+            int count = rows.gradeOffsets[r + 1] - from;
+            // a submission without grades has no rows to return, as in the SQL version
+            if (count == 0) {
+                return null;
+            }
+            float[] grades = new float[exercise.questions.size()];
+            System.arraycopy(rows.grades, from, grades, 0, Math.min(count, grades.length));
+            return new Submission(rows.ids[r], user, exercise, TimeCodec.date(rows.times[r]), grades);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Nothing to release; the data is simply dropped with this object.
+     */
+    @Override
+    public void close() {
+    }
+}
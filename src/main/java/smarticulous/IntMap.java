@@ -0,0 +1,130 @@
+package smarticulous;
+
+import java.util.Arrays;
+
+/**
+ * A minimal open-addressing hash map from int keys to objects, without boxing the keys.
+ * <p>
+ * Not thread-safe.
+ *
+ * @param <V> the type of the values
+ */
+class IntMap<V> {
+    private static final int EMPTY = 0;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /**
+     * Keys are stored shifted by one (key + 1) so that 0 can mark an empty slot; the key -1 is therefore stored in a
+     * separate field.
+     */
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private boolean hasMinusOne;
+    private Object minusOneValue;
+
+    IntMap() {
+        this(16);
+    }
+
+    IntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expected / LOAD_FACTOR)) - 1) << 1;
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(int stored) {
+        int mask = keys.length - 1;
+        int i = hash(stored) & mask;
+        while (keys[i] != EMPTY && keys[i] != stored) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        if (key == -1) {
+            return (V) minusOneValue;
+        }
+        int i = slot(key + 1);
+        return keys[i] == EMPTY ? null : (V) values[i];
+    }
+
+    boolean containsKey(int key) {
+        if (key == -1) {
+            return hasMinusOne;
+        }
+        return keys[slot(key + 1)] != EMPTY;
+    }
+
+    /**
+     * @return the previous value for the key, or null.
+     */
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        if (key == -1) {
+            V old = (V) minusOneValue;
+            if (!hasMinusOne) {
+                size++;
+                hasMinusOne = true;
+            }
+            minusOneValue = value;
+            return old;
+        }
+        int stored = key + 1;
+        int i = slot(stored);
+        if (keys[i] == stored) {
+            V old = (V) values[i];
+            values[i] = value;
+            return old;
+        }
+        keys[i] = stored;
+        values[i] = value;
+        if (++size > keys.length * LOAD_FACTOR) {
+            grow();
+        }
+        return null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return all the keys, in ascending order.
+     */
+    int[] sortedKeys() {
+        int[] result = new int[size];
+        int n = 0;
+        if (hasMinusOne) {
+            result[n++] = -1;
+        }
+        for (int stored : keys) {
+            if (stored != EMPTY) {
+                result[n++] = stored - 1;
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != EMPTY) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package smarticulous;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with log-linear buckets, in the style of HdrHistogram.
+ * <p>
+ * Values (in nanoseconds) are counted in buckets: every power of two is split into {@value #SUB_BUCKETS} equal
+ * buckets, so a recorded value is known to within about 6% of itself, from 1ns up to hours, in a fixed ~8KB.
+ * {@link #record(long)} is a couple of atomic increments and never blocks, so it is cheap enough to leave on under
+ * load; readers see a consistent-enough view without stopping the writers.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Values below SUB_BUCKETS get a bucket each; every power of two from 2^SUB_BUCKET_BITS to 2^62 gets SUB_BUCKETS.
+     */
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + mantissa;
+    }
+
+    /**
+     * @return the largest value that falls into the bucket.
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        long mantissa = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + mantissa) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Record one value.
+     *
+     * @param nanos the latency, in nanoseconds (negative values are recorded as 0)
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        total.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return the number of recorded values.
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * @return the sum of the recorded values, in nanoseconds.
+     */
+    public long totalNanos() {
+        return total.sum();
+    }
+
+    /**
+     * @return the largest recorded value, in nanoseconds (0 if nothing was recorded).
+     */
+    public long maxNanos() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, in nanoseconds (0 if nothing was recorded).
+     */
+    public double meanNanos() {
+        long n = count();
+        return n == 0 ? 0 : (double) totalNanos() / n;
+    }
+
+    /**
+     * The value below which the given percentage of the recorded values fall, to the precision of the buckets
+     * (the highest value of the bucket is returned, capped by the recorded maximum).
+     *
+     * @param percentile between 0 and 100
+     * @return the value at the percentile, in nanoseconds (0 if nothing was recorded).
+     */
+    public long valueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+        }
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+
+    /**
+     * Forget all the recorded values.
+     * Values recorded concurrently with the reset may be partially kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus", count(), meanNanos() / 1000,
+                valueAtPercentile(50) / 1000.0, valueAtPercentile(99) / 1000.0, maxNanos() / 1000.0);
+    }
+}
@@ -0,0 +1,31 @@
+package smarticulous;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link MetricsExporter} that writes every metric to the log, one line each, at INFO level.
+ */
+public class LoggingMetricsExporter implements MetricsExporter {
+    private final Logger log;
+
+    public LoggingMetricsExporter() {
+        this(LoggerFactory.getLogger(Metrics.class));
+    }
+
+    public LoggingMetricsExporter(Logger log) {
+        this.log = log;
+    }
+
+    @Override
+    public void counter(String name, long value) {
+        log.info("{} = {}", name, value);
+    }
+
+    @Override
+    public void histogram(String name, LatencyHistogram histogram) {
+        if (histogram.count() > 0) {
+            log.info("{}: {}", name, histogram);
+        }
+    }
+}
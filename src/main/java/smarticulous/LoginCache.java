@@ -0,0 +1,164 @@
+package smarticulous;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, in-memory cache of stored credentials keyed by username, used by
+ * {@link Smarticulous#verifyLogin(String, String)} so repeated logins don't query the database.
+ * <p>
+ * Each entry holds the value of the Password column (a salted hash, or a legacy plaintext password) and expires
+ * after a time-to-live. Unknown usernames are cached too (negative caching), with their own, usually shorter, TTL.
+ * When the cache is full the least recently used entry is evicted.
+ * The cache is safe to use from several threads.
+ */
+public class LoginCache {
+    /**
+     * A cached lookup result.
+     */
+    static final class Cached {
+        /**
+         * The stored password, or null if the user doesn't exist.
+         */
+        final String stored;
+        final long expiresAt;
+
+        Cached(String stored, long expiresAt) {
+            this.stored = stored;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int capacity;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final LinkedHashMap<String, Cached> entries;
+
+    /**
+     * Incremented by every invalidation; see {@link #put(String, String, long)}.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity the maximal number of usernames to hold
+     * @param ttlMillis how long a known user's credentials stay cached
+     * @param negativeTtlMillis how long an unknown username stays cached
+     */
+    public LoginCache(int capacity, long ttlMillis, long negativeTtlMillis) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        this.entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > LoginCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Look up a username, counting a hit or a miss. Expired entries are dropped and count as misses.
+     *
+     * @param username the username
+     * @return the cached entry, or null on a miss.
+     */
+    Cached get(String username) {
+        Cached entry;
+        synchronized (entries) {
+            entry = entries.get(username);
+            if (entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+                entries.remove(username);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * @return a stamp to take before reading credentials from the database, and to pass to
+     * {@link #put(String, String, long)} with what was read.
+     */
+    long stamp() {
+        return generation.get();
+    }
+
+    /**
+     * Cache the credentials read from the database, unless an invalidation happened since the read started
+     * (in which case what was read may already be stale).
+     *
+     * @param username the username
+     * @param stored the stored password, or null if the user doesn't exist
+     * @param stamp the value of {@link #stamp()} taken before the read
+     */
+    void put(String username, String stored, long stamp) {
+        long expiresAt = System.nanoTime() + (stored == null ? negativeTtlNanos : ttlNanos);
+        synchronized (entries) {
+            if (generation.get() == stamp) {
+                entries.put(username, new Cached(stored, expiresAt));
+            }
+        }
+    }
+
+    /**
+     * Drop a username from the cache; called whenever that user is added or updated.
+     *
+     * @param username the username
+     */
+    public void invalidate(String username) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.remove(username);
+        }
+    }
+
+    /**
+     * Drop all the cached entries. The hit/miss counters are kept.
+     */
+    public void clear() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return the number of usernames currently cached (including expired entries not yet dropped).
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the number of lookups answered from the cache.
+     */
+    public long hitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that had to go to the database.
+     */
+    public long missCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "LoginCache[" + size() + "/" + capacity + ", " + hitCount() + " hits, " + missCount() + " misses]";
+    }
+}
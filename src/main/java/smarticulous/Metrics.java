@@ -0,0 +1,255 @@
+package smarticulous;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Operation-level metrics of a {@link Smarticulous} instance.
+ * <p>
+ * It keeps:
+ * <ul>
+ *   <li>a latency histogram per public operation ("op.verifyLogin", "op.storeSubmissions", ...);</li>
+ *   <li>a latency histogram per SQL statement shape ("sql." followed by the SQL text);</li>
+ *   <li>counters of rows read and written, statements executed, commits and rollbacks;</li>
+ *   <li>a slow-statement log: every statement that takes longer than {@link #getSlowStatementMillis()} is logged
+ *       (through slf4j, at WARN level) with its SQL and the number of bound parameters.</li>
+ * </ul>
+ * All the recording is lock-free ({@link LatencyHistogram}, {@link LongAdder}), so the metrics can stay on under load.
+ * The values are read directly, or pushed to any {@link MetricsExporter} with {@link #exportTo(MetricsExporter)}.
+ */
+public class Metrics {
+    private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+
+    /**
+     * Default threshold of the slow-statement log, in milliseconds.
+     */
+    public static final long DEFAULT_SLOW_STATEMENT_MILLIS = 100;
+
+    private final Map<String, LatencyHistogram> operations = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> statements = new ConcurrentHashMap<>();
+
+    private final LongAdder rowsRead = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder statementsExecuted = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder rollbacks = new LongAdder();
+    private final LongAdder slowStatements = new LongAdder();
+
+    private volatile long slowStatementNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_STATEMENT_MILLIS);
+
+    /**
+     * @return the latency histogram of the named operation, created on first use.
+     */
+    public LatencyHistogram operation(String name) {
+        return operations.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    /**
+     * @return the latency histogram of the given statement, created on first use.
+     */
+    public LatencyHistogram statement(String sql) {
+        return statements.computeIfAbsent(sql, k -> new LatencyHistogram());
+    }
+
+    /**
+     * Record the latency of an operation that started at the given {@link System#nanoTime()}.
+     */
+    void record(String operation, long startNanos) {
+        operation(operation).record(System.nanoTime() - startNanos);
+    }
+
+    void rowsRead(long rows) {
+        rowsRead.add(rows);
+    }
+
+    public long getRowsRead() {
+        return rowsRead.sum();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.sum();
+    }
+
+    public long getStatementsExecuted() {
+        return statementsExecuted.sum();
+    }
+
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    public long getRollbacks() {
+        return rollbacks.sum();
+    }
+
+    /**
+     * @return the number of statements that were logged as slow.
+     */
+    public long getSlowStatements() {
+        return slowStatements.sum();
+    }
+
+    public long getSlowStatementMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowStatementNanos);
+    }
+
+    /**
+     * @param millis statements slower than this are logged (0 logs every statement)
+     */
+    public void setSlowStatementMillis(long millis) {
+        slowStatementNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Push every counter and histogram to the exporter, counters first and histograms in name order.
+     */
+    public void exportTo(MetricsExporter exporter) {
+        exporter.counter("rowsRead", getRowsRead());
+        exporter.counter("rowsWritten", getRowsWritten());
+        exporter.counter("statements", getStatementsExecuted());
+        exporter.counter("commits", getCommits());
+        exporter.counter("rollbacks", getRollbacks());
+        exporter.counter("slowStatements", getSlowStatements());
+        for (Map.Entry<String, LatencyHistogram> entry : new ConcurrentSkipListMap<>(operations).entrySet()) {
+            exporter.histogram("op." + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new ConcurrentSkipListMap<>(statements).entrySet()) {
+            exporter.histogram("sql." + entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Reset all the histograms and counters (the slow-statement threshold is kept).
+     */
+    public void reset() {
+        operations.values().forEach(LatencyHistogram::reset);
+        statements.values().forEach(LatencyHistogram::reset);
+        rowsRead.reset();
+        rowsWritten.reset();
+        statementsExecuted.reset();
+        commits.reset();
+        rollbacks.reset();
+        slowStatements.reset();
+    }
+
+    // =========== JDBC instrumentation =============
+
+    /**
+     * Wrap a connection so that its commits and rollbacks are counted, and every statement it creates records its
+     * latency, the rows it writes and, if it is slow, a log line.
+     */
+    Connection instrument(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Metrics.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new ConnectionHandler(connection));
+    }
+
+    private static Object forward(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+        private final Connection target;
+
+        ConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "commit":
+                    commits.increment();
+                    break;
+                case "rollback":
+                    rollbacks.increment();
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            Object result = forward(target, method, args);
+            if (result instanceof PreparedStatement && args != null && args.length > 0 && args[0] instanceof String) {
+                return Proxy.newProxyInstance(Metrics.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                        new StatementHandler((Statement) result, (String) args[0]));
+            }
+            if (result instanceof Statement && !(result instanceof PreparedStatement)) {
+                return Proxy.newProxyInstance(Metrics.class.getClassLoader(), new Class<?>[]{Statement.class},
+                        new StatementHandler((Statement) result, null));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Times the execute methods of a statement. For a prepared statement the SQL is known up front and the bound
+     * parameters are counted; for a plain statement the SQL is the argument of each execute call.
+     */
+    private final class StatementHandler implements InvocationHandler {
+        private final Statement target;
+        private final String sql;
+        private final LatencyHistogram latency;
+        private int binds;
+
+        StatementHandler(Statement target, String sql) {
+            this.target = target;
+            this.sql = sql;
+            this.latency = sql == null ? null : statement(sql);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (!name.startsWith("execute")) {
+                if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                    binds++;
+                } else if (name.equals("clearParameters") || name.equals("clearBatch")) {
+                    binds = 0;
+                }
+                return forward(target, method, args);
+            }
+            long start = System.nanoTime();
+            Object result = forward(target, method, args);
+            long nanos = System.nanoTime() - start;
+
+            String shape = sql != null ? sql : args != null && args.length > 0 ? String.valueOf(args[0]) : "?";
+            (latency != null ? latency : statement(shape)).record(nanos);
+            statementsExecuted.increment();
+            if (result instanceof Integer && !name.equals("execute")) {
+                rowsWritten.add(Math.max(0, (Integer) result));
+            } else if (result instanceof int[]) {
+                for (int count : (int[]) result) {
+                    rowsWritten.add(Math.max(0, count));
+                }
+            } else if (result instanceof Long) {
+                rowsWritten.add(Math.max(0, (Long) result));
+            }
+            if (nanos >= slowStatementNanos) {
+                slowStatements.increment();
+                log.warn("Slow statement: {} ms, {} bound parameters: {}", TimeUnit.NANOSECONDS.toMillis(nanos), binds, shape);
+            }
+            // the parameters of a batch add up until executeBatch
+            binds = 0;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package smarticulous;
+
+/**
+ * Receives the current values of {@link Metrics}, e.g. to push them to a monitoring system.
+ * See {@link Metrics#exportTo(MetricsExporter)}.
+ */
+public interface MetricsExporter {
+    /**
+     * @param name the counter name, e.g. "commits"
+     * @param value the current value of the counter
+     */
+    void counter(String name, long value);
+
+    /**
+     * @param name the histogram name: "op." followed by a method name, or "sql." followed by a statement's SQL
+     * @param histogram the live histogram; exporters should read it, not keep it
+     */
+    void histogram(String name, LatencyHistogram histogram);
+}
@@ -0,0 +1,150 @@
+package smarticulous;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * One versioned change to the database schema, applied by {@link MigrationRunner}.
+ * <p>
+ * A migration runs as a sequence of steps. Each step runs in its own transaction, which the runner commits before
+ * calling the next one; the last step is committed together with the new version, so a migration is either
+ * fully applied or not recorded at all. Steps must be idempotent: if the process dies half-way, the migration is
+ * started over from {@link #START} the next time the database is opened.
+ * <p>
+ * Small changes (tables, columns) are a single step, see {@link #statements}. Backfills of large tables are split
+ * into chunks of primary key ranges, see {@link #backfill}, so the writer lock is released between chunks.
+ */
+public abstract class Migration {
+    /**
+     * The position passed to the first step of a migration.
+     */
+    public static final long START = Long.MIN_VALUE;
+
+    /**
+     * Returned by the last step of a migration.
+     */
+    public static final long DONE = Long.MAX_VALUE;
+
+    private final int version;
+    private final String description;
+
+    /**
+     * @param version the schema version after this migration; versions start at 1
+     * @param description a short description, for the log
+     */
+    protected Migration(int version, String description) {
+        if (version <= 0) {
+            throw new IllegalArgumentException("migration versions start at 1: " + version);
+        }
+        this.version = version;
+        this.description = description;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Run the next step of the migration, inside the transaction opened by the runner.
+     *
+     * @param db the connection (not in auto-commit mode); the step must not commit or roll back
+     * @param position {@link #START} for the first step, then the value returned by the previous step
+     * @param chunkSize the number of rows a single step should process at most
+     * @return the position to resume from, or {@link #DONE} if the migration is complete
+     * @throws SQLException
+     */
+    protected abstract long step(Connection db, long position, int chunkSize) throws SQLException;
+
+    @Override
+    public String toString() {
+        return version + ": " + description;
+    }
+
+    /**
+     * A migration that runs the given statements in a single step.
+     * <p>
+     * SQLite builds an index with a single CREATE INDEX statement that can't be split, so index builds are single
+     * steps too; they are a sort of the indexed columns and don't run the table's triggers or constraints.
+     *
+     * @param version the schema version after this migration
+     * @param description a short description, for the log
+     * @param sqls the DDL (or DML) statements to run, in order
+     * @return the migration.
+     */
+    public static Migration statements(int version, String description, String... sqls) {
+        return new Migration(version, description) {
+            @Override
+            protected long step(Connection db, long position, int chunkSize) throws SQLException {
+                try (Statement st = db.createStatement()) {
+                    for (String sql : sqls) {
+                        st.execute(sql);
+                    }
+                }
+                return DONE;
+            }
+        };
+    }
+
+    /**
+     * A migration that fills a derived table from a source table in chunks of consecutive keys.
+     * <p>
+     * The setup statements (typically the CREATE TABLE of the target) run in the first step. Then every step takes
+     * the next chunkSize keys of the source table and runs chunkSql with the exclusive lower and the inclusive upper
+     * key of the chunk bound as its two parameters. chunkSql must be idempotent for a key range (e.g. an
+     * INSERT OR REPLACE), since an interrupted backfill is started over.
+     *
+     * @param version the schema version after this migration
+     * @param description a short description, for the log
+     * @param sourceTable the table the chunks are taken from
+     * @param key an indexed integer column of sourceTable, typically its primary key
+     * @param chunkSql the statement that processes the keys in (?, ?]
+     * @param setup statements to run before the first chunk
+     * @return the migration.
+     */
+    public static Migration backfill(int version, String description, String sourceTable, String key, String chunkSql,
+                                     String... setup) {
+        // the last key of the next chunk
+        String nextChunk = "SELECT MAX(" + key + ") FROM (SELECT " + key + " FROM " + sourceTable + " WHERE "
+                + key + " > ? ORDER BY " + key + " LIMIT ?);";
+        return new Migration(version, description) {
+            @Override
+            protected long step(Connection db, long position, int chunkSize) throws SQLException {
+                if (position == START) {
+                    try (Statement st = db.createStatement()) {
+                        for (String sql : setup) {
+                            st.execute(sql);
+                        }
+                    }
+                }
+                long last;
+                try (PreparedStatement ps = db.prepareStatement(nextChunk)) {
+                    ps.setLong(1, position);
+                    ps.setInt(2, chunkSize);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) {
+                            return DONE;
+                        }
+                        last = rs.getLong(1);
+                        if (rs.wasNull()) {
+                            // no keys left
+                            return DONE;
+                        }
+                    }
+                }
+                try (PreparedStatement ps = db.prepareStatement(chunkSql)) {
+                    ps.setLong(1, position);
+                    ps.setLong(2, last);
+                    ps.executeUpdate();
+                }
+                return last;
+            }
+        };
+    }
+}
@@ -0,0 +1,216 @@
+package smarticulous;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Brings a database up to the latest of an ordered list of {@link Migration}s.
+ * <p>
+ * The version of a database is its user_version: 0 for a database that was never migrated, otherwise the version
+ * of the last migration applied. Every migration newer than that is applied in order, one step per transaction.
+ * The writer lock is only held for a single step, so other writers (and, in WAL mode, other processes) can make
+ * progress between the chunks of a long backfill.
+ * <p>
+ * An optional feature (a set of tables that is only created on request) has its own list of migrations, versioned
+ * separately in the SchemaFeature table under the name of the feature. That table is created by the first feature
+ * migration applied, so a database without optional features has only the base schema.
+ */
+class MigrationRunner {
+    private static final Logger log = LoggerFactory.getLogger(MigrationRunner.class);
+
+    /**
+     * The number of rows a backfill step processes when no other size is given.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 10000;
+
+    static final String SELECT_FEATURE_TABLE_EXISTS = "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'SchemaFeature';";
+    private static final String CREATE_FEATURE_TABLE = "CREATE TABLE IF NOT EXISTS SchemaFeature (Name TEXT PRIMARY KEY, "
+            + "Version INTEGER);";
+    static final String SELECT_FEATURE_VERSION = "SELECT Version FROM SchemaFeature WHERE Name = ?;";
+    private static final String UPSERT_FEATURE_VERSION = "INSERT INTO SchemaFeature (Name, Version) VALUES (?, ?) "
+            + "ON CONFLICT (Name) DO UPDATE SET Version = excluded.Version;";
+
+    /**
+     * The name of the optional feature these migrations build, or null for the base schema.
+     */
+    private final String feature;
+    private final List<Migration> migrations;
+
+    /**
+     * @param migrations the migrations of the base schema, in strictly increasing version order
+     */
+    MigrationRunner(List<Migration> migrations) {
+        this(null, migrations);
+    }
+
+    /**
+     * @param feature the name of an optional feature, whose version is kept in SchemaFeature, or null for the base
+     *                schema, whose version is the user_version
+     * @param migrations the migrations, in strictly increasing version order
+     */
+    MigrationRunner(String feature, List<Migration> migrations) {
+        int last = 0;
+        for (Migration migration : migrations) {
+            if (migration.getVersion() <= last) {
+                throw new IllegalArgumentException("migration " + migration + " is out of order");
+            }
+            last = migration.getVersion();
+        }
+        this.feature = feature;
+        this.migrations = Collections.unmodifiableList(new ArrayList<>(migrations));
+    }
+
+    /**
+     * @return the name of the optional feature, or null for the base schema.
+     */
+    String feature() {
+        return feature;
+    }
+
+    /**
+     * @return the version of a database on which all the migrations were applied.
+     */
+    int latestVersion() {
+        return migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).getVersion();
+    }
+
+    /**
+     * Read the schema version of the database.
+     *
+     * @param db the connection
+     * @return the user_version of the database.
+     * @throws SQLException
+     */
+    static int version(Connection db) throws SQLException {
+        try (Statement st = db.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA user_version;")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Read the version of an optional feature.
+     *
+     * @param db the connection
+     * @param feature the name of the feature
+     * @return the version of the last migration of the feature applied, 0 if none was.
+     * @throws SQLException
+     */
+    static int featureVersion(Connection db, String feature) throws SQLException {
+        try (Statement st = db.createStatement();
+             ResultSet rs = st.executeQuery(SELECT_FEATURE_TABLE_EXISTS)) {
+            if (!rs.next()) {
+                return 0;
+            }
+        }
+        try (PreparedStatement ps = db.prepareStatement(SELECT_FEATURE_VERSION)) {
+            ps.setString(1, feature);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * @return the version of the database for these migrations: the user_version, or the version of the feature.
+     * @throws SQLException
+     */
+    int currentVersion(Connection db) throws SQLException {
+        return feature == null ? version(db) : featureVersion(db, feature);
+    }
+
+    private void setVersion(Connection db, int version) throws SQLException {
+        if (feature == null) {
+            try (Statement st = db.createStatement()) {
+                st.execute("PRAGMA user_version = " + version + ";");
+            }
+            return;
+        }
+        try (Statement st = db.createStatement()) {
+            st.execute(CREATE_FEATURE_TABLE);
+        }
+        try (PreparedStatement ps = db.prepareStatement(UPSERT_FEATURE_VERSION)) {
+            ps.setString(1, feature);
+            ps.setInt(2, version);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Apply all the migrations the database doesn't have yet.
+     *
+     * @param db the connection, not in auto-commit mode
+     * @param lock held around every step
+     * @param chunkSize the number of rows a backfill step processes
+     * @return the number of migrations applied.
+     * @throws SQLException if a step fails; that step is rolled back and the earlier ones stay committed
+     */
+    int migrate(Connection db, Lock lock, int chunkSize) throws SQLException {
+        int version;
+        lock.lock();
+        try {
+            version = currentVersion(db);
+            // end the read transaction, so the first step doesn't see a stale snapshot
+            db.commit();
+        } finally {
+            lock.unlock();
+        }
+        if (version > latestVersion()) {
+            log.warn("Database has {} version {}, newer than {}", feature == null ? "schema" : feature, version,
+                    latestVersion());
+            return 0;
+        }
+        int applied = 0;
+        for (Migration migration : migrations) {
+            if (migration.getVersion() > version && apply(db, lock, chunkSize, migration)) {
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Run the steps of a single migration until it is done.
+     *
+     * @return false if another connection applied the migration first.
+     */
+    private boolean apply(Connection db, Lock lock, int chunkSize, Migration migration) throws SQLException {
+        long start = System.nanoTime();
+        long position = Migration.START;
+        int steps = 0;
+        while (position != Migration.DONE) {
+            lock.lock();
+            try {
+                // another process may have migrated the same file since the version was read
+                if (currentVersion(db) >= migration.getVersion()) {
+                    db.commit();
+                    return false;
+                }
+                position = migration.step(db, position, chunkSize);
+                if (position == Migration.DONE) {
+                    setVersion(db, migration.getVersion());
+                }
+                db.commit();
+                steps++;
+            } catch (SQLException e) {
+                db.rollback();
+                log.error("Migration {} failed after {} steps", migration, steps, e);
+                throw e;
+            } finally {
+                lock.unlock();
+            }
+        }
+        log.info("Applied migration {} in {} steps, {} ms", migration, steps, (System.nanoTime() - start) / 1000000);
+        return true;
+    }
+}
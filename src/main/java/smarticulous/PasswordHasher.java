@@ -0,0 +1,117 @@
+package smarticulous;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Salted password hashing (PBKDF2 with HMAC-SHA256).
+ * <p>
+ * A hashed password is stored in the Password column as {@code pbkdf2$<iterations>$<salt>$<hash>}, with the salt and
+ * hash in base64. Every value starting with {@code pbkdf2$} is reserved for this encoding: a plaintext password that
+ * starts with it is stored as {@code pbkdf2$plain$<password>} (see {@link #encode}), so a stored value never has to be
+ * guessed from the password the user picked. Any other stored value is a plaintext password (written with hashing
+ * off), which {@link #matches} still accepts.
+ *
+ * @see <a href="https://crackstation.net/hashing-security.htm">How to Hash Passwords Properly</a>
+ */
+final class PasswordHasher {
+    static final String PREFIX = "pbkdf2$";
+    static final String PLAIN_PREFIX = PREFIX + "plain$";
+    static final int ITERATIONS = 10000;
+    static final int SALT_BYTES = 16;
+    static final int HASH_BITS = 256;
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PasswordHasher() {
+    }
+
+    /**
+     * Hash a password with a fresh random salt.
+     *
+     * @param password the plaintext password
+     * @return the encoded salt and hash, to be stored in the Password column.
+     */
+    static String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, ITERATIONS);
+        Base64.Encoder b64 = Base64.getEncoder();
+        return PREFIX + ITERATIONS + "$" + b64.encodeToString(salt) + "$" + b64.encodeToString(hash);
+    }
+
+    /**
+     * Encode a password for the Password column.
+     *
+     * @param password the plaintext password
+     * @param hash true for a salted hash, false to keep the plaintext
+     * @return the value to store: the hash, the plaintext itself, or the escaped plaintext if it starts with the
+     * reserved prefix.
+     */
+    static String encode(String password, boolean hash) {
+        if (hash) {
+            return hash(password);
+        }
+        return password != null && password.startsWith(PREFIX) ? PLAIN_PREFIX + password : password;
+    }
+
+    /**
+     * @param value a value of the Password column (or of an export of it)
+     * @return true if the value is in the reserved encoding (a hash or an escaped plaintext), false if it is a
+     * plaintext password.
+     */
+    static boolean isEncoded(String value) {
+        return value.startsWith(PREFIX);
+    }
+
+    /**
+     * Check a password against a stored (hashed or plaintext) password, in time independent of where they differ.
+     *
+     * @param password the password given by the user
+     * @param stored the value of the Password column
+     * @return true if the password matches.
+     */
+    static boolean matches(String password, String stored) {
+        if (stored.startsWith(PLAIN_PREFIX)) {
+            return equal(password, stored.substring(PLAIN_PREFIX.length()));
+        }
+        if (!isEncoded(stored)) {
+            return equal(password, stored);
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            int iterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, salt, iterations));
+        } catch (IllegalArgumentException e) {
+            // a corrupt stored value never matches
+            return false;
+        }
+    }
+
+    private static boolean equal(String password, String plaintext) {
+        return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), plaintext.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            // PBKDF2WithHmacSHA256 is available on every Java 8+ runtime
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package smarticulous;
+
+import java.sql.SQLException;
+
+/**
+ * Receives the results of a streaming query one at a time, while the underlying cursor is still open.
+ * <p>
+ * Implementations must not call back into the {@link Smarticulous} instance that is streaming to them.
+ *
+ * @param <T> the type of the streamed results
+ */
+@FunctionalInterface
+public interface ResultConsumer<T> {
+    /**
+     * Handle the next result.
+     *
+     * @param result the next result
+     * @throws SQLException to abort the query; the exception is propagated to the caller
+     */
+    void accept(T result) throws SQLException;
+}
@@ -0,0 +1,57 @@
+package smarticulous;
+
+import smarticulous.db.Exercise;
+
+import java.util.Arrays;
+
+/**
+ * Decides which shard of a {@link ShardedStorage} holds the submissions of an exercise.
+ * <p>
+ * A router must be deterministic: the same exercise must always go to the same shard, across restarts too,
+ * or earlier submissions become unreachable.
+ */
+@FunctionalInterface
+public interface ShardRouter {
+    /**
+     * @param exercise the exercise
+     * @param shards the number of shards
+     * @return the shard of the exercise, between 0 and shards - 1.
+     */
+    int shardOf(Exercise exercise, int shards);
+
+    /**
+     * @return a router that spreads the exercises evenly by id.
+     */
+    static ShardRouter byExerciseId() {
+        return (exercise, shards) -> Math.floorMod(exercise.id, shards);
+    }
+
+    /**
+     * Route by term: shard i holds the exercises due in [termStarts[i - 1], termStarts[i]), shard 0 the exercises
+     * due before termStarts[0] (or without a due date) and the last shard the ones due from the last term start on.
+     * Requires termStarts.length + 1 shards.
+     *
+     * @param termStarts the start of every term but the first, in milliseconds since the epoch, in increasing order
+     * @return the router.
+     */
+    static ShardRouter byTerm(long... termStarts) {
+        long[] starts = termStarts.clone();
+        for (int i = 1; i < starts.length; ++i) {
+            if (starts[i] <= starts[i - 1]) {
+                throw new IllegalArgumentException("term starts must be increasing");
+            }
+        }
+        return (exercise, shards) -> {
+            if (shards != starts.length + 1) {
+                throw new IllegalArgumentException(starts.length + " term starts need " + (starts.length + 1)
+                        + " shards, not " + shards);
+            }
+            if (exercise.dueDate == null) {
+                return 0;
+            }
+            int i = Arrays.binarySearch(starts, TimeCodec.millis(exercise.dueDate));
+            // an exact start belongs to the term it starts
+            return i >= 0 ? i + 1 : -i - 1;
+        };
+    }
+}
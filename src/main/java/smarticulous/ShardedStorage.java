@@ -0,0 +1,385 @@
+package smarticulous;
+
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link StorageEngine} that splits the submissions across several SQLite files.
+ * <p>
+ * The primary file holds the users (with their passwords) and the exercises, and answers logins and exercise
+ * queries. Every shard file holds the Submission and QuestionGrade rows of the exercises the {@link ShardRouter}
+ * assigns to it, the definitions of those exercises, and a password-less mirror of the users, so a shard answers
+ * {@link #getLastSubmission} and {@link #getBestSubmission} on its own. Each shard is a separate
+ * {@link Smarticulous} with its own writer lock, so submissions to exercises on different shards are written in
+ * parallel.
+ * <p>
+ * Submission ids stay unique across shards: shard k of n hands out the ids k, k + n, k + 2n, ... above the largest
+ * id it already holds, picked inside the shard's write transaction, so several processes can share the files.
+ * Submissions with an explicit id are stored under that id, which the caller must keep unique.
+ * <p>
+ * A batch that spans several shards is committed once per shard, so it is atomic per shard but not as a whole.
+ * Users added to the primary after a shard was opened (e.g. by another process) are mirrored into the shard the
+ * first time one of their submissions reaches it; those submissions are committed in a second transaction.
+ */
+public class ShardedStorage implements StorageEngine {
+    private final Smarticulous primary;
+    private final Smarticulous[] shards;
+    private final ShardRouter router;
+
+    /**
+     * The shard of every known exercise, computed once per exercise.
+     */
+    private final Map<Integer, Integer> exerciseShards = new ConcurrentHashMap<>();
+
+    /**
+     * Writes the per-shard parts of a batch that spans several shards, one thread per shard.
+     */
+    private final ExecutorService writers;
+
+    /**
+     * Open (or create) the primary and the shard databases with SQLite's default settings.
+     *
+     * @see #ShardedStorage(String, List, ShardRouter, SqliteProfile)
+     */
+    public ShardedStorage(String primaryUrl, List<String> shardUrls, ShardRouter router) throws SQLException {
+        this(primaryUrl, shardUrls, router, SqliteProfile.DEFAULT);
+    }
+
+    /**
+     * Open (or create) the primary and the shard databases.
+     * <p>
+     * The shard files must always be given in the same order, and with the same router, since the router only
+     * returns shard numbers. Opening brings every shard up to date with the primary: the users are mirrored and
+     * the exercises the shard owns are added to it.
+     *
+     * @param primaryUrl the JDBC url of the primary database
+     * @param shardUrls the JDBC urls of the shard databases (at least one)
+     * @param router assigns the exercises to shards
+     * @param profile the SQLite settings of all the files
+     * @throws SQLException
+     */
+    public ShardedStorage(String primaryUrl, List<String> shardUrls, ShardRouter router, SqliteProfile profile)
+            throws SQLException {
+        if (shardUrls.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard is needed");
+        }
+        this.router = router;
+        this.primary = new Smarticulous();
+        this.shards = new Smarticulous[shardUrls.size()];
+        try {
+            primary.openDB(primaryUrl, 0, profile);
+            for (int k = 0; k < shards.length; ++k) {
+                shards[k] = new Smarticulous();
+                shards[k].openDB(shardUrls.get(k), 0, profile);
+            }
+            syncShards();
+        } catch (SQLException | RuntimeException e) {
+            closeAll(e);
+            throw e;
+        }
+        this.writers = Executors.newFixedThreadPool(shards.length, r -> {
+            Thread thread = new Thread(r, "smarticulous-shard-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Mirror the users of the primary into every shard and give every shard the exercises it owns.
+     */
+    private void syncShards() throws SQLException {
+        Map<Integer, User> users = new LinkedHashMap<>();
+        primary.scan(Smarticulous.SELECT_USERS_WITH_IDS, rs -> users.put(rs.getInt("UserId"),
+                new User(rs.getString("Username"), rs.getString("Firstname"), rs.getString("Lastname"))));
+
+        List<List<Exercise>> owned = new ArrayList<>(shards.length);
+        for (int k = 0; k < shards.length; ++k) {
+            owned.add(new ArrayList<>());
+        }
+        for (Exercise exercise : primary.loadExercises()) {
+            owned.get(assign(exercise)).add(exercise);
+        }
+
+        for (int k = 0; k < shards.length; ++k) {
+            shards[k].mirrorUsers(users);
+            // exercises the shard already has are skipped
+            shards[k].addExercises(owned.get(k));
+        }
+    }
+
+    /**
+     * @return the shard that holds the submissions of the exercise.
+     */
+    int shardOf(Exercise exercise) {
+        Integer shard = exerciseShards.get(exercise.id);
+        return shard != null ? shard : route(exercise);
+    }
+
+    /**
+     * Route an exercise of the primary database and remember its shard, so later lookups by id don't depend on
+     * the rest of the Exercise object the caller passes (e.g. its due date).
+     */
+    private int assign(Exercise exercise) {
+        int shard = route(exercise);
+        exerciseShards.put(exercise.id, shard);
+        return shard;
+    }
+
+    private int route(Exercise exercise) {
+        int shard = router.shardOf(exercise, shards.length);
+        if (shard < 0 || shard >= shards.length) {
+            throw new IllegalStateException("router returned shard " + shard + " of " + shards.length);
+        }
+        return shard;
+    }
+
+    /**
+     * @return the number of shards.
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return the database of the users and exercises.
+     */
+    public Smarticulous getPrimary() {
+        return primary;
+    }
+
+    /**
+     * @param k the shard number
+     * @return the database of shard k, e.g. to load its gradebook.
+     */
+    public Smarticulous getShard(int k) {
+        return shards[k];
+    }
+
+    // =========== User Management =============
+
+    /**
+     * Add or update the user in the primary database, then in the mirror of every shard.
+     */
+    @Override
+    public int addOrUpdateUser(User user, String password) throws SQLException {
+        int userId = primary.addOrUpdateUser(user, password);
+        Map<Integer, User> mirrored = Collections.singletonMap(userId, user);
+        for (Smarticulous shard : shards) {
+            shard.mirrorUsers(mirrored);
+        }
+        return userId;
+    }
+
+    @Override
+    public boolean verifyLogin(String username, String password) throws SQLException {
+        return primary.verifyLogin(username, password);
+    }
+
+    // =========== Exercise Management =============
+
+    /**
+     * Add the exercise to the primary database, then to the shard that owns it.
+     */
+    @Override
+    public int addExercise(Exercise exercise) throws SQLException {
+        int id = primary.addExercise(exercise);
+        if (id != -1) {
+            shards[assign(exercise)].addExercise(exercise);
+        }
+        return id;
+    }
+
+    @Override
+    public List<Exercise> loadExercises() throws SQLException {
+        return primary.loadExercises();
+    }
+
+    // ========== Submission Storage ===============
+
+    @Override
+    public int storeSubmission(Submission submission) throws SQLException {
+        return store(shardOf(submission.exercise), Collections.singletonList(submission))[0];
+    }
+
+    /**
+     * Store a batch of submissions. The submissions are grouped by shard and the groups are written in parallel,
+     * each in a single transaction of its shard.
+     *
+     * @return the submission ids, -1 for submissions of unknown users.
+     * @throws SQLException the first failure of a shard; the groups of the other shards may have been committed
+     */
+    @Override
+    public int[] storeSubmissions(Collection<Submission> submissions) throws SQLException {
+        List<List<Submission>> groups = new ArrayList<>(shards.length);
+        List<List<Integer>> positions = new ArrayList<>(shards.length);
+        for (int k = 0; k < shards.length; ++k) {
+            groups.add(new ArrayList<>());
+            positions.add(new ArrayList<>());
+        }
+        int i = 0;
+        int used = 0;
+        for (Submission submission : submissions) {
+            int k = shardOf(submission.exercise);
+            if (groups.get(k).isEmpty()) {
+                used++;
+            }
+            groups.get(k).add(submission);
+            positions.get(k).add(i++);
+        }
+
+        int[] ids = new int[submissions.size()];
+        if (used <= 1) {
+            // a single shard is written on the calling thread
+            for (int k = 0; k < shards.length; ++k) {
+                if (!groups.get(k).isEmpty()) {
+                    scatter(store(k, groups.get(k)), positions.get(k), ids);
+                }
+            }
+            return ids;
+        }
+
+        List<Future<int[]>> futures = new ArrayList<>(shards.length);
+        for (int k = 0; k < shards.length; ++k) {
+            int shard = k;
+            List<Submission> group = groups.get(k);
+            futures.add(group.isEmpty() ? null : writers.submit(() -> store(shard, group)));
+        }
+        SQLException failure = null;
+        for (int k = 0; k < shards.length; ++k) {
+            if (futures.get(k) == null) {
+                continue;
+            }
+            try {
+                scatter(futures.get(k).get(), positions.get(k), ids);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for shard " + k, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                SQLException shardFailure = cause instanceof SQLException ? (SQLException) cause
+                        : new SQLException("Writing to shard " + k + " failed", cause);
+                if (failure == null) {
+                    failure = shardFailure;
+                } else {
+                    failure.addSuppressed(shardFailure);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return ids;
+    }
+
+    /**
+     * Store submissions that all belong to shard k, giving an id of the shard to the new ones.
+     * <p>
+     * The submissions of users the shard doesn't know are looked up in the primary: the users found there are
+     * mirrored into the shard and their submissions stored, the others get -1.
+     */
+    private int[] store(int k, List<Submission> submissions) throws SQLException {
+        int[] ids = shards[k].storeSubmissions(submissions, shards.length, k);
+        List<Integer> unknown = new ArrayList<>();
+        Set<String> usernames = new LinkedHashSet<>();
+        for (int j = 0; j < ids.length; ++j) {
+            if (ids[j] == -1) {
+                unknown.add(j);
+                usernames.add(submissions.get(j).user.username);
+            }
+        }
+        if (unknown.isEmpty()) {
+            return ids;
+        }
+        Map<Integer, User> users = primary.findUsers(usernames);
+        if (users.isEmpty()) {
+            return ids;
+        }
+        shards[k].mirrorUsers(users);
+        List<Submission> retry = new ArrayList<>(unknown.size());
+        for (int j : unknown) {
+            retry.add(submissions.get(j));
+        }
+        scatter(shards[k].storeSubmissions(retry, shards.length, k), unknown, ids);
+        return ids;
+    }
+
+    private static void scatter(int[] groupIds, List<Integer> positions, int[] ids) {
+        for (int j = 0; j < groupIds.length; ++j) {
+            ids[positions.get(j)] = groupIds[j];
+        }
+    }
+
+    // ============= Submission Query ===============
+
+    @Override
+    public Submission getLastSubmission(User user, Exercise exercise) throws SQLException {
+        return shards[shardOf(exercise)].getLastSubmission(user, exercise);
+    }
+
+    @Override
+    public Submission getBestSubmission(User user, Exercise exercise) throws SQLException {
+        return shards[shardOf(exercise)].getBestSubmission(user, exercise);
+    }
+
+    /**
+     * Close the shards and the primary database. Every database is closed even if closing one of them fails;
+     * the first failure is rethrown at the end.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+        writers.shutdown();
+        SQLException failure = closeAll(null);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Close every database that was opened.
+     *
+     * @param cause the failure that led to closing, to which close failures are added; may be null
+     * @return the first close failure, or null.
+     */
+    private SQLException closeAll(Exception cause) {
+        SQLException failure = null;
+        List<Smarticulous> all = new ArrayList<>();
+        Collections.addAll(all, shards);
+        all.add(primary);
+        for (Smarticulous db : all) {
+            if (db == null) {
+                continue;
+            }
+            try {
+                db.closeDB();
+            } catch (SQLException e) {
+                if (cause != null) {
+                    cause.addSuppressed(e);
+                } else if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        return failure;
+    }
+}
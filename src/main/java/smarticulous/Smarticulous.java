@@ -5,19 +5,37 @@ import smarticulous.db.Submission;
 import smarticulous.db.User;
 import smarticulous.db.Exercise.Question;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.naming.spi.DirStateFactory.Result;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * The Smarticulous class, implementing a grading system.
- * @param <SQLiteDatabase>
- * @param <Cursor>
+ * <p>
+ * This is the SQLite {@link StorageEngine}.
  */
-public class Smarticulous<SQLiteDatabase, Cursor> {
+public class Smarticulous implements StorageEngine {
     //Data base version
     //private static final int DATABASE_VERSION = 1;
     //data base Name
@@ -26,6 +44,193 @@ public class Smarticulous<SQLiteDatabase, Cursor> {
 
 
 
+    // =========== SQL statements =============
+    // every statement below is compiled once per connection by openDB and reused with bound parameters
+
+    private static final String UPSERT_USER = "INSERT INTO User (Username, Firstname, Lastname, Password) VALUES (?, ?, ?, ?) "
+            + "ON CONFLICT (Username) DO UPDATE SET Firstname = excluded.Firstname, Lastname = excluded.Lastname, "
+            + "Password = excluded.Password RETURNING UserId;";
+    private static final String SELECT_PASSWORD = "SELECT Password FROM User WHERE Username = ?;";
+    private static final String SELECT_EXERCISE_EXISTS = "SELECT 1 FROM Exercise WHERE ExerciseId = ?;";
+    private static final String INSERT_EXERCISE = "INSERT INTO Exercise (ExerciseId, Name, DueDate) VALUES (?, ?, ?);";
+    private static final String INSERT_QUESTION = "INSERT INTO Question (ExerciseId, QuestionId, Name, Desc, Points) VALUES (?, ?, ?, ?, ?);";
+    // one ordered pass over Exercise, reading the questions of each exercise through the Question primary key
+    private static final String SELECT_EXERCISES_WITH_QUESTIONS = "SELECT Exercise.ExerciseId AS ExerciseId, "
+            + "Exercise.Name AS ExerciseName, Exercise.DueDate AS DueDate, Question.ExerciseId AS QuestionExerciseId, "
+            + "Question.Name AS QuestionName, Question.Desc AS QuestionDesc, Question.Points AS Points "
+            + "FROM Exercise LEFT JOIN Question ON Question.ExerciseId = Exercise.ExerciseId "
+            + "ORDER BY Exercise.ExerciseId, Question.QuestionId;";
+    private static final String SELECT_EXERCISE_WITH_QUESTIONS = "SELECT Exercise.ExerciseId AS ExerciseId, "
+            + "Exercise.Name AS ExerciseName, Exercise.DueDate AS DueDate, Question.ExerciseId AS QuestionExerciseId, "
+            + "Question.Name AS QuestionName, Question.Desc AS QuestionDesc, Question.Points AS Points "
+            + "FROM Exercise LEFT JOIN Question ON Question.ExerciseId = Exercise.ExerciseId "
+            + "WHERE Exercise.ExerciseId = ? ORDER BY Question.QuestionId;";
+    private static final String INSERT_SUBMISSION = "INSERT INTO Submission (SubmissionId, UserId, ExerciseId, SubmissionTime) VALUES (?, ?, ?, ?);";
+    private static final String INSERT_GRADE = "INSERT INTO QuestionGrade (SubmissionId, QuestionId, Grade) VALUES (?, ?, ?);";
+    private static final String DELETE_EXERCISE_GRADES = "DELETE FROM QuestionGrade WHERE SubmissionId = ? AND "
+            + "EXISTS (SELECT 1 FROM Submission WHERE SubmissionId = ? AND ExerciseId = ?);";
+    private static final String INSERT_EXERCISE_GRADE = "INSERT INTO QuestionGrade (SubmissionId, QuestionId, Grade) "
+            + "SELECT ?, ?, ? WHERE EXISTS (SELECT 1 FROM Submission WHERE SubmissionId = ? AND ExerciseId = ?);";
+    // the inner query seeks Submission_User_Exercise_Time for the (user, exercise) pair, the outer one reads its grades
+    static final String LAST_SUBMISSION_GRADES = "SELECT s.SubmissionId AS SubmissionId, g.QuestionId AS QuestionId, "
+            + "g.Grade AS Grade, s.SubmissionTime AS SubmissionTime FROM "
+            + "(SELECT SubmissionId, SubmissionTime FROM Submission "
+            + "WHERE UserId = (SELECT UserId FROM User WHERE Username = ?) AND ExerciseId = ? "
+            + "ORDER BY SubmissionTime DESC, SubmissionId DESC LIMIT 1) AS s "
+            + "JOIN QuestionGrade AS g ON g.SubmissionId = s.SubmissionId ORDER BY g.QuestionId LIMIT ?;";
+    static final String BEST_SUBMISSION_GRADES = "SELECT s.SubmissionId AS SubmissionId, g.QuestionId AS QuestionId, "
+            + "g.Grade AS Grade, s.SubmissionTime AS SubmissionTime FROM "
+            + "(SELECT SubmissionId, SubmissionTime FROM Submission "
+            + "WHERE UserId = (SELECT UserId FROM User WHERE Username = ?) AND ExerciseId = ? "
+            + "ORDER BY (SELECT SUM(Grade) FROM QuestionGrade WHERE QuestionGrade.SubmissionId = Submission.SubmissionId) DESC, "
+            + "SubmissionTime DESC, SubmissionId DESC LIMIT 1) AS s "
+            + "JOIN QuestionGrade AS g ON g.SubmissionId = s.SubmissionId ORDER BY g.QuestionId LIMIT ?;";
+    // bulk scans for loadSubmissionTable, compiled on first use: both follow a primary key order, so they need no sort
+    // and can be merged on SubmissionId
+    private static final String SELECT_ALL_USERS = "SELECT UserId, Username, Firstname, Lastname FROM User;";
+    private static final String SELECT_ALL_SUBMISSIONS = "SELECT SubmissionId, UserId, ExerciseId, SubmissionTime "
+            + "FROM Submission ORDER BY SubmissionId;";
+    private static final String SELECT_ALL_GRADES = "SELECT SubmissionId, QuestionId, Grade FROM QuestionGrade "
+            + "ORDER BY SubmissionId, QuestionId;";
+    // bulk exports (see BulkIO), compiled on first use; both follow primary key order without sorting
+    // the users of a primary database, mirrored into the shards of a ShardedStorage without their passwords
+    static final String SELECT_USERS_WITH_IDS = "SELECT UserId, Username, Firstname, Lastname FROM User ORDER BY UserId;";
+    private static final String MIRROR_USER = "INSERT INTO User (UserId, Username, Firstname, Lastname) VALUES (?, ?, ?, ?) "
+            + "ON CONFLICT (UserId) DO UPDATE SET Username = excluded.Username, Firstname = excluded.Firstname, "
+            + "Lastname = excluded.Lastname;";
+    static final String SELECT_MAX_SUBMISSION_ID = "SELECT MAX(SubmissionId) FROM Submission;";
+    private static final String SELECT_USER_BY_NAME = "SELECT UserId, Username, Firstname, Lastname FROM User WHERE Username = ?;";
+    static final String EXPORT_USERS = "SELECT Username, Firstname, Lastname, Password FROM User ORDER BY UserId;";
+    static final String EXPORT_SUBMISSIONS = "SELECT s.SubmissionId AS SubmissionId, u.Username AS Username, "
+            + "s.ExerciseId AS ExerciseId, s.SubmissionTime AS SubmissionTime, g.QuestionId AS QuestionId, g.Grade AS Grade "
+            + "FROM Submission AS s JOIN User AS u ON u.UserId = s.UserId "
+            + "LEFT JOIN QuestionGrade AS g ON g.SubmissionId = s.SubmissionId ORDER BY s.SubmissionId, g.QuestionId;";
+
+    // the base schema (migration 1)
+    private static final String CREATE_USER = "CREATE TABLE IF NOT EXISTS User (UserId INTEGER PRIMARY KEY, Username TEXT UNIQUE, Firstname TEXT, Lastname TEXT, Password TEXT);";
+    private static final String CREATE_EXERCISE = "CREATE TABLE IF NOT EXISTS Exercise (ExerciseId INTEGER PRIMARY KEY, Name TEXT, DueDate INTEGER);";
+    private static final String CREATE_QUESTION = "CREATE TABLE IF NOT EXISTS Question (ExerciseId INTEGER, QuestionId INTEGER, Name TEXT, Desc TEXT, Points INTEGER, PRIMARY KEY (ExerciseId, QuestionId));";
+    private static final String CREATE_SUBMISSION = "CREATE TABLE IF NOT EXISTS Submission (SubmissionId INTEGER PRIMARY KEY, UserId INTEGER, ExerciseId INTEGER, SubmissionTime INTEGER);";
+    private static final String CREATE_QUESTION_GRADE = "CREATE TABLE IF NOT EXISTS QuestionGrade (SubmissionId INTEGER, QuestionId INTEGER, Grade REAL, PRIMARY KEY (SubmissionId, QuestionId));";
+    // used to find the submissions of a user for an exercise (Username is already indexed by its UNIQUE constraint)
+    private static final String CREATE_SUBMISSION_INDEX = "CREATE INDEX IF NOT EXISTS Submission_User_Exercise_Time ON Submission (UserId, ExerciseId, SubmissionTime);";
+
+    // finds the submissions of an exercise by time (migration 2); covering for the counts, and in time order for the scans
+    private static final String CREATE_SUBMISSION_EXERCISE_INDEX = "CREATE INDEX IF NOT EXISTS Submission_Exercise_Time ON Submission (ExerciseId, SubmissionTime);";
+
+    // time-range queries, all answered from Submission_Exercise_Time
+    static final String SUBMISSIONS_IN_RANGE = "SELECT s.SubmissionId AS SubmissionId, u.Username AS Username, "
+            + "u.Firstname AS Firstname, u.Lastname AS Lastname, s.SubmissionTime AS SubmissionTime, "
+            + "g.QuestionId AS QuestionId, g.Grade AS Grade FROM Submission AS s JOIN User AS u ON u.UserId = s.UserId "
+            + "LEFT JOIN QuestionGrade AS g ON g.SubmissionId = s.SubmissionId "
+            + "WHERE s.ExerciseId = ? AND s.SubmissionTime >= ? AND s.SubmissionTime < ? "
+            + "ORDER BY s.SubmissionTime, s.SubmissionId, g.QuestionId;";
+    static final String COUNT_SUBMISSIONS_IN_RANGE = "SELECT COUNT(*) FROM Submission "
+            + "WHERE ExerciseId = ? AND SubmissionTime >= ? AND SubmissionTime < ?;";
+    static final String COUNT_LATE_SUBMISSIONS = "SELECT e.ExerciseId AS ExerciseId, (SELECT COUNT(*) FROM Submission AS s "
+            + "WHERE s.ExerciseId = e.ExerciseId AND s.SubmissionTime > e.DueDate) AS Count FROM Exercise AS e ORDER BY e.ExerciseId;";
+    static final String COUNT_BEFORE_DEADLINE = "SELECT e.ExerciseId AS ExerciseId, (SELECT COUNT(*) FROM Submission AS s "
+            + "WHERE s.ExerciseId = e.ExerciseId AND s.SubmissionTime > e.DueDate - ? AND s.SubmissionTime <= e.DueDate) AS Count "
+            + "FROM Exercise AS e ORDER BY e.ExerciseId;";
+
+    // the optional histogram table (see rebuildSubmissionHistogram); a bucket is floor(SubmissionTime / width)
+    private static final String CREATE_HISTOGRAM = "CREATE TABLE IF NOT EXISTS SubmissionHistogram (ExerciseId INTEGER, "
+            + "Bucket INTEGER, Count INTEGER, PRIMARY KEY (ExerciseId, Bucket)) WITHOUT ROWID;";
+    // SQLite's % truncates toward zero, so the bucket of a time before 1970 is computed as a floor explicitly
+    private static final String HISTOGRAM_BUCKET = "(SubmissionTime - ((SubmissionTime % " + Smarticulous.HISTOGRAM_BUCKET_MILLIS
+            + ") + " + Smarticulous.HISTOGRAM_BUCKET_MILLIS + ") % " + Smarticulous.HISTOGRAM_BUCKET_MILLIS + ") / "
+            + Smarticulous.HISTOGRAM_BUCKET_MILLIS;
+    // recounts the buckets of a range of exercises, see HISTOGRAM_MIGRATIONS
+    private static final String BACKFILL_HISTOGRAM = "INSERT OR REPLACE INTO SubmissionHistogram (ExerciseId, Bucket, Count) "
+            + "SELECT ExerciseId, " + HISTOGRAM_BUCKET + " AS Bucket, COUNT(*) FROM Submission "
+            + "WHERE ExerciseId > ? AND ExerciseId <= ? GROUP BY ExerciseId, Bucket;";
+    private static final String UPSERT_HISTOGRAM = "INSERT INTO SubmissionHistogram (ExerciseId, Bucket, Count) VALUES (?, ?, 1) "
+            + "ON CONFLICT (ExerciseId, Bucket) DO UPDATE SET Count = Count + 1;";
+    static final String HISTOGRAM_FROM_TABLE = "SELECT Bucket, Count FROM SubmissionHistogram WHERE ExerciseId = ? ORDER BY Bucket;";
+    static final String HISTOGRAM_FROM_INDEX = "SELECT " + HISTOGRAM_BUCKET + " AS Bucket, COUNT(*) AS Count FROM Submission "
+            + "WHERE ExerciseId = ? GROUP BY Bucket ORDER BY Bucket;";
+
+    // the optional summary tables (see rebuildSubmissionSummary), compiled on first use since they may not exist
+    private static final String CREATE_BEST_SUMMARY = "CREATE TABLE IF NOT EXISTS BestSubmission (UserId INTEGER, "
+            + "ExerciseId INTEGER, SubmissionId INTEGER, Total REAL, SubmissionTime INTEGER, PRIMARY KEY (UserId, ExerciseId)) WITHOUT ROWID;";
+    private static final String CREATE_LATEST_SUMMARY = "CREATE TABLE IF NOT EXISTS LatestSubmission (UserId INTEGER, "
+            + "ExerciseId INTEGER, SubmissionId INTEGER, Total REAL, SubmissionTime INTEGER, PRIMARY KEY (UserId, ExerciseId)) WITHOUT ROWID;";
+    // only submissions with grades can be the best one, like in BEST_SUBMISSION_GRADES; the backfills recompute the
+    // rows of a range of users (see SUMMARY_MIGRATIONS), the rebuilds those of one exercise
+    private static final String BACKFILL_BEST_SUMMARY = summaryRebuild("BestSubmission", true,
+            "Total DESC, SubmissionTime DESC, SubmissionId DESC", "WHERE s.UserId > ? AND s.UserId <= ?");
+    private static final String BACKFILL_LATEST_SUMMARY = summaryRebuild("LatestSubmission", false,
+            "SubmissionTime DESC, SubmissionId DESC", "WHERE s.UserId > ? AND s.UserId <= ?");
+    private static final String REBUILD_EXERCISE_BEST_SUMMARY = summaryRebuild("BestSubmission", true,
+            "Total DESC, SubmissionTime DESC, SubmissionId DESC", "WHERE s.ExerciseId = ?");
+    private static final String REBUILD_EXERCISE_LATEST_SUMMARY = summaryRebuild("LatestSubmission", false,
+            "SubmissionTime DESC, SubmissionId DESC", "WHERE s.ExerciseId = ?");
+    private static final String DELETE_EXERCISE_BEST_SUMMARY = "DELETE FROM BestSubmission WHERE ExerciseId = ?;";
+    private static final String DELETE_EXERCISE_LATEST_SUMMARY = "DELETE FROM LatestSubmission WHERE ExerciseId = ?;";
+    // a new submission replaces the summary row only if it is later / better, with the same tie-breaks as the queries
+    private static final String UPSERT_LATEST_SUMMARY = "INSERT INTO LatestSubmission (UserId, ExerciseId, SubmissionId, "
+            + "Total, SubmissionTime) VALUES (?, ?, ?, ?, ?) ON CONFLICT (UserId, ExerciseId) DO UPDATE SET "
+            + "SubmissionId = excluded.SubmissionId, Total = excluded.Total, SubmissionTime = excluded.SubmissionTime "
+            + "WHERE excluded.SubmissionTime > LatestSubmission.SubmissionTime OR (excluded.SubmissionTime = "
+            + "LatestSubmission.SubmissionTime AND excluded.SubmissionId > LatestSubmission.SubmissionId);";
+    private static final String UPSERT_BEST_SUMMARY = "INSERT INTO BestSubmission (UserId, ExerciseId, SubmissionId, "
+            + "Total, SubmissionTime) VALUES (?, ?, ?, ?, ?) ON CONFLICT (UserId, ExerciseId) DO UPDATE SET "
+            + "SubmissionId = excluded.SubmissionId, Total = excluded.Total, SubmissionTime = excluded.SubmissionTime "
+            + "WHERE excluded.Total > BestSubmission.Total OR (excluded.Total = BestSubmission.Total AND "
+            + "(excluded.SubmissionTime > BestSubmission.SubmissionTime OR (excluded.SubmissionTime = "
+            + "BestSubmission.SubmissionTime AND excluded.SubmissionId > BestSubmission.SubmissionId)));";
+    // point lookups on the summary primary key, returning the same columns as LAST/BEST_SUBMISSION_GRADES
+    static final String LAST_SUMMARY_GRADES = summaryGrades("LatestSubmission");
+    static final String BEST_SUMMARY_GRADES = summaryGrades("BestSubmission");
+
+    // the optional change log (see enableChangeLog), compiled on first use since it may not exist. AUTOINCREMENT
+    // keeps the offsets of pruned events from being handed out again
+    private static final String CREATE_CHANGE_LOG = "CREATE TABLE IF NOT EXISTS ChangeLog (LogOffset INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "Kind INTEGER, UserId INTEGER, ExerciseId INTEGER, SubmissionId INTEGER, LoggedAt INTEGER);";
+    private static final String CREATE_CHANGE_LOG_CONSUMER = "CREATE TABLE IF NOT EXISTS ChangeLogConsumer (Name TEXT PRIMARY KEY, "
+            + "LogOffset INTEGER);";
+    private static final String INSERT_CHANGE = "INSERT INTO ChangeLog (Kind, UserId, ExerciseId, SubmissionId, LoggedAt) "
+            + "VALUES (?, ?, ?, ?, ?);";
+    // like INSERT_EXERCISE_GRADE, only logs submissions that exist and belong to the exercise
+    private static final String INSERT_GRADES_CHANGE = "INSERT INTO ChangeLog (Kind, UserId, ExerciseId, SubmissionId, LoggedAt) "
+            + "SELECT ?, UserId, ExerciseId, SubmissionId, ? FROM Submission WHERE SubmissionId = ? AND ExerciseId = ?;";
+    static final String SELECT_CHANGES = "SELECT LogOffset, Kind, UserId, ExerciseId, SubmissionId, LoggedAt FROM ChangeLog "
+            + "WHERE LogOffset > ? ORDER BY LogOffset LIMIT ?;";
+    private static final String SELECT_CONSUMER_OFFSET = "SELECT LogOffset FROM ChangeLogConsumer WHERE Name = ?;";
+    private static final String UPSERT_CONSUMER_OFFSET = "INSERT INTO ChangeLogConsumer (Name, LogOffset) VALUES (?, ?) "
+            + "ON CONFLICT (Name) DO UPDATE SET LogOffset = excluded.LogOffset;";
+    private static final String PRUNE_CHANGE_LOG = "DELETE FROM ChangeLog WHERE LogOffset <= ?;";
+
+    // the optional tables that exist, checked whenever the schema changed (see checkOptionalTables)
+    private static final String SCHEMA_VERSION_PRAGMA = "PRAGMA schema_version;";
+    private static final String SELECT_OPTIONAL_TABLES = "SELECT name FROM sqlite_master WHERE type = 'table' AND name IN "
+            + "('BestSubmission', 'LatestSubmission', 'SubmissionHistogram', 'ChangeLog', 'SchemaFeature');";
+    private static final String SELECT_FEATURE_VERSIONS = "SELECT Name, Version FROM SchemaFeature;";
+
+    /**
+     * @return an INSERT OR REPLACE that writes the first submission of every (user, exercise) pair in the given order
+     * to a summary table, restricted by a WHERE clause on the Submission table (s). The totals are summed per
+     * submission on the QuestionGrade primary key, so the cost follows the submissions the clause selects.
+     */
+    private static String summaryRebuild(String table, boolean gradedOnly, String order, String where) {
+        return "INSERT OR REPLACE INTO " + table + " (UserId, ExerciseId, SubmissionId, Total, SubmissionTime) "
+                + "SELECT UserId, ExerciseId, SubmissionId, Total, SubmissionTime FROM "
+                + "(SELECT UserId, ExerciseId, SubmissionId, Total, SubmissionTime, "
+                + "ROW_NUMBER() OVER (PARTITION BY UserId, ExerciseId ORDER BY " + order + ") AS Position FROM "
+                + "(SELECT s.UserId AS UserId, s.ExerciseId AS ExerciseId, s.SubmissionId AS SubmissionId, "
+                + "(SELECT SUM(Grade) FROM QuestionGrade AS g WHERE g.SubmissionId = s.SubmissionId) AS Total, "
+                + "s.SubmissionTime AS SubmissionTime FROM Submission AS s " + where + ")"
+                + (gradedOnly ? " WHERE Total IS NOT NULL" : "") + ") WHERE Position = 1;";
+    }
+
+    private static String summaryGrades(String table) {
+        return "SELECT s.SubmissionId AS SubmissionId, g.QuestionId AS QuestionId, g.Grade AS Grade, "
+                + "s.SubmissionTime AS SubmissionTime FROM " + table + " AS s "
+                + "JOIN QuestionGrade AS g ON g.SubmissionId = s.SubmissionId "
+                + "WHERE s.UserId = (SELECT UserId FROM User WHERE Username = ?) AND s.ExerciseId = ? "
+                + "ORDER BY g.QuestionId LIMIT ?;";
+    }
+
     /**
      * The connection to the underlying DB.
      * <p>
@@ -33,6 +238,149 @@ public class Smarticulous<SQLiteDatabase, Cursor> {
      */
     Connection db;
 
+    /**
+     * The prepared statements of {@link #db}.
+     * <p>
+     * Created by {@link #openDB(String)} and closed by {@link #closeDB()}; null if the db has not yet been opened.
+     */
+    StatementCache statements;
+
+    /**
+     * Read-only connections used to serve reads concurrently with the writer, or null if all the reads go through
+     * {@link #db}. See {@link #openDB(String, int)}.
+     */
+    ConnectionPool readers;
+
+    /**
+     * Serializes all the work done on {@link #db}: every mutation (and, without a reader pool, every read) holds
+     * this lock for its whole transaction. The lock is fair, so waiting writers are served in arrival order.
+     */
+    final ReentrantLock writeLock = new ReentrantLock(true);
+
+    private static final Logger log = LoggerFactory.getLogger(Smarticulous.class);
+
+    /**
+     * The version of the schema created by {@link #openDB}, stored in the database's user_version.
+     * This is the version of the last of {@link #MIGRATIONS}.
+     */
+    public static final int SCHEMA_VERSION = 2;
+
+    /**
+     * The width of the buckets of {@link #getSubmissionHistogram(Exercise)}: one hour.
+     */
+    public static final long HISTOGRAM_BUCKET_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * The schema changes, in order, applied by {@link #openDB} to a database with an older user_version.
+     * A new database goes through all of them; once it is at {@link #SCHEMA_VERSION}, opening it runs no DDL.
+     * Never edit a migration that was released - add a new one (and bump SCHEMA_VERSION) instead.
+     */
+    static final MigrationRunner MIGRATIONS = new MigrationRunner(Arrays.asList(
+            // IF NOT EXISTS, since databases created before versioning have the tables but user_version 0
+            Migration.statements(1, "base schema", CREATE_USER, CREATE_EXERCISE, CREATE_QUESTION, CREATE_SUBMISSION,
+                    CREATE_QUESTION_GRADE, CREATE_SUBMISSION_INDEX),
+            Migration.statements(2, "submission time index", CREATE_SUBMISSION_EXERCISE_INDEX)
+    ));
+
+    /**
+     * The optional tables, each built by its own feature migrations (versioned in the SchemaFeature table, see
+     * {@link MigrationRunner}) when it is turned on. The backfills recompute whole key ranges with INSERT OR REPLACE,
+     * so they are idempotent and the writes made between two chunks (which maintain the tables as soon as they
+     * exist) are never counted twice.
+     * Never edit a migration that was released - add a new one instead.
+     */
+    static final MigrationRunner SUMMARY_MIGRATIONS = new MigrationRunner("SubmissionSummary", Arrays.asList(
+            Migration.backfill(1, "best submission summary", "Submission", "UserId", BACKFILL_BEST_SUMMARY,
+                    CREATE_BEST_SUMMARY),
+            Migration.backfill(2, "latest submission summary", "Submission", "UserId", BACKFILL_LATEST_SUMMARY,
+                    CREATE_LATEST_SUMMARY)
+    ));
+    static final MigrationRunner HISTOGRAM_MIGRATIONS = new MigrationRunner("SubmissionHistogram", Collections.singletonList(
+            Migration.backfill(1, "submission histogram", "Submission", "ExerciseId", BACKFILL_HISTOGRAM, CREATE_HISTOGRAM)
+    ));
+    // nothing to backfill: changes made before the log was enabled are not in it
+    static final MigrationRunner CHANGE_LOG_MIGRATIONS = new MigrationRunner("ChangeLog", Collections.singletonList(
+            Migration.statements(1, "change log", CREATE_CHANGE_LOG, CREATE_CHANGE_LOG_CONSUMER)
+    ));
+
+    /**
+     * Latency histograms, row and commit counters and the slow-statement log of this instance; see {@link #getMetrics()}.
+     */
+    final Metrics metrics = new Metrics();
+
+    /**
+     * Whether the BestSubmission/LatestSubmission summary tables are complete (all the {@link #SUMMARY_MIGRATIONS}
+     * were applied), so {@link #getBestSubmission} and {@link #getLastSubmission} use them.
+     * See {@link #rebuildSubmissionSummary()}.
+     * <p>
+     * The optional tables may be created by another instance (or process) on the same database, so the flags are
+     * checked again at the start of every write transaction, see {@link #checkOptionalTables()}.
+     */
+    volatile boolean submissionSummary;
+
+    /**
+     * Whether the SubmissionHistogram table is complete, so {@link #getSubmissionHistogram(Exercise)} uses it.
+     * See {@link #rebuildSubmissionHistogram()}.
+     */
+    volatile boolean submissionHistogram;
+
+    /**
+     * Whether the BestSubmission, LatestSubmission and SubmissionHistogram tables exist, and must be maintained by
+     * every write: from the first step of their backfill on, and before they are complete. Guarded by
+     * {@link #writeLock}.
+     */
+    private boolean bestSummaryTable;
+    private boolean latestSummaryTable;
+    private boolean histogramTable;
+
+    /**
+     * Whether the database has the ChangeLog table, to which every write then appends its events in the same
+     * transaction. See {@link #enableChangeLog()}.
+     */
+    volatile boolean changeLog;
+
+    /**
+     * The schema_version of the database when the optional tables were last looked up, or -1 to look them up on the
+     * next write. Guarded by {@link #writeLock}.
+     */
+    private int probedSchemaVersion = -1;
+
+    /**
+     * A unit of database work, run on the statements of a single connection.
+     */
+    private interface SqlWork<R> {
+        R run(StatementCache st) throws SQLException;
+    }
+
+    /**
+     * Default number of exercises kept by the exercise cache.
+     */
+    public static final int DEFAULT_EXERCISE_CACHE_SIZE = 1024;
+
+    /**
+     * Read-through cache of the exercise catalog, used by {@link #getExercise(int)}.
+     * Cleared whenever a database is opened or closed, and invalidated by {@link #addExercise(Exercise)}.
+     */
+    ExerciseCache exerciseCache = new ExerciseCache(DEFAULT_EXERCISE_CACHE_SIZE);
+
+    /**
+     * Default number of usernames kept by the login cache, and how long (in ms) known and unknown users stay cached.
+     */
+    public static final int DEFAULT_LOGIN_CACHE_SIZE = 100000;
+    public static final long DEFAULT_LOGIN_TTL_MILLIS = 10 * 60 * 1000;
+    public static final long DEFAULT_UNKNOWN_LOGIN_TTL_MILLIS = 30 * 1000;
+
+    /**
+     * Cache of stored credentials used by {@link #verifyLogin(String, String)}.
+     * Cleared whenever a database is opened or closed, and invalidated by addOrUpdateUser(s).
+     */
+    LoginCache loginCache = new LoginCache(DEFAULT_LOGIN_CACHE_SIZE, DEFAULT_LOGIN_TTL_MILLIS, DEFAULT_UNKNOWN_LOGIN_TTL_MILLIS);
+
+    /**
+     * Whether new passwords are stored as salted hashes. See {@link #setHashPasswords(boolean)}.
+     */
+    volatile boolean hashPasswords = false;
+
     /**
      * Open the {@link Smarticulous} SQLite database.
      * <p>
@@ -100,40 +448,173 @@ public class Smarticulous<SQLiteDatabase, Cursor> {
 
     
     public Connection openDB(String dburl) throws SQLException {
-        // create strings to create tables user, exericse, question, submission and questiongrade
-        String Usertable = "CREATE TABLE IF NOT EXISTS User (UserId INTEGER PRIMARY KEY, Username TEXT UNIQUE, Firstname TEXT, Lastname TEXT, Password TEXT);";
-        String ExerciseTable = "CREATE TABLE IF NOT EXISTS Exercise (ExerciseId INTEGER PRIMARY KEY, Name TEXT, DueDate INTEGER);";
-        String QuestionTable = "CREATE TABLE IF NOT EXISTS Question (ExerciseId INTEGER, QuestionId INTEGER, Name TEXT, Desc TEXT, Points INTEGER, PRIMARY KEY (ExerciseId, QuestionId));";
-        String SubmissionTable = "CREATE TABLE IF NOT EXISTS Submission (SubmissionId INTEGER PRIMARY KEY, UserId INTEGER, ExerciseId INTEGER, SubmissionTime INTEGER);";
-        String QuestionGradeTable = "CREATE TABLE IF NOT EXISTS QuestionGrade (SubmissionId INTEGER, QuestionId INTEGER, Grade REAL, PRIMARY KEY (SubmissionId, QuestionId));";
-        try{
-            //get connection to dburl
-            db = DriverManager.getConnection(dburl);
-            Statement st = db.createStatement();
-            //create table User, Exercise, Question, Submission,QuestionGrade
-            st.execute(Usertable);
-            st.execute(ExerciseTable);
-            st.execute(QuestionTable);
-            st.execute(SubmissionTable);
-            st.execute(QuestionGradeTable);
-            st.close();
-        } catch (SQLException e){
-            System.out.println("Error connecting to SQLite database");
-        }
-        // set auto commit to false and return connection
-        db.setAutoCommit(false);
-        return db;
+        return openDB(dburl, 0);
+    }
+
+    /**
+     * Open the {@link Smarticulous} SQLite database in thread-safe mode.
+     * <p>
+     * The database is created and checked exactly as in {@link #openDB(String)}. In addition, when readerConnections
+     * is positive, the database is switched to WAL journaling and a pool of readerConnections read-only connections
+     * is opened next to the writer connection. Reads ({@link #verifyLogin}, {@link #loadExercises},
+     * {@link #getExercise}, {@link #getLastSubmission}, ...) are then served concurrently from the pool while
+     * mutations are queued for the single writer connection ({@link #db}); with WAL, readers don't block the writer
+     * and the writer doesn't block readers.
+     * <p>
+     * With readerConnections == 0 the reads share the writer connection. All the public methods are safe to call
+     * from several threads in both modes. The reader pool needs a file database ("jdbc:sqlite:path"), since every
+     * connection to ":memory:" opens a separate database.
+     *
+     * @param dburl The JDBC url of the database to open (will be of the form "jdbc:sqlite:...")
+     * @param readerConnections number of read-only connections to open (0 to serve reads from the writer connection)
+     * @return the writer connection
+     * @throws SQLException
+     */
+    public Connection openDB(String dburl, int readerConnections) throws SQLException {
+        return openDB(dburl, readerConnections, SqliteProfile.DEFAULT);
+    }
+
+    /**
+     * Open the {@link Smarticulous} SQLite database with the given tuning profile.
+     * <p>
+     * Same as {@link #openDB(String, int)}, but the pragmas of the profile are applied first: the ones that change
+     * the file (page size, journal mode) once, and the per-connection ones (mmap, cache size, synchronous, temp
+     * store) on the writer and on every reader connection.
+     * <p>
+     * The schema version is kept in the database's user_version, and the {@link #MIGRATIONS} newer than it are
+     * applied (see {@link MigrationRunner}). When it is already {@link #SCHEMA_VERSION}, opening an existing database
+     * costs a single pragma read instead of DDL.
+     *
+     * @param dburl The JDBC url of the database to open (will be of the form "jdbc:sqlite:...")
+     * @param readerConnections number of read-only connections to open (0 to serve reads from the writer connection)
+     * @param profile the SQLite tuning settings
+     * @return the writer connection
+     * @throws SQLException
+     */
+    public Connection openDB(String dburl, int readerConnections, SqliteProfile profile) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            //get connection to dburl; the connection records statement latencies and counts rows and commits
+            db = metrics.instrument(DriverManager.getConnection(dburl));
+            try (Statement st = db.createStatement()) {
+                // WAL lets the readers keep reading while the writer commits
+                for (String pragma : profile.databasePragmas(readerConnections > 0)) {
+                    st.execute(pragma);
+                }
+                for (String pragma : profile.connectionPragmas()) {
+                    st.execute(pragma);
+                }
+                if (readerConnections > 0) {
+                    st.execute("PRAGMA busy_timeout = " + ConnectionPool.BUSY_TIMEOUT_MS + ";");
+                }
+            }
+            // set auto commit to false, bring the schema up to date, compile all the statements we use and return connection
+            db.setAutoCommit(false);
+            MIGRATIONS.migrate(db, writeLock, MigrationRunner.DEFAULT_CHUNK_SIZE);
+            exerciseCache.clear();
+            loginCache.clear();
+            statements = new StatementCache(db);
+            statements.prepareAll(UPSERT_USER, SELECT_PASSWORD,
+                    SELECT_EXERCISE_EXISTS, INSERT_EXERCISE, INSERT_QUESTION, SELECT_EXERCISES_WITH_QUESTIONS, SELECT_EXERCISE_WITH_QUESTIONS,
+                    INSERT_SUBMISSION, INSERT_GRADE, DELETE_EXERCISE_GRADES, INSERT_EXERCISE_GRADE,
+                    LAST_SUBMISSION_GRADES, BEST_SUBMISSION_GRADES);
+            probedSchemaVersion = -1;
+            checkOptionalTables();
+            db.commit();
+            if (readerConnections > 0) {
+                readers = new ConnectionPool(dburl, readerConnections, metrics, profile.connectionPragmas(), SELECT_PASSWORD, SELECT_EXERCISES_WITH_QUESTIONS,
+                        SELECT_EXERCISE_WITH_QUESTIONS, LAST_SUBMISSION_GRADES, BEST_SUBMISSION_GRADES);
+            }
+            return db;
+        } catch (SQLException e) {
+            log.error("Error opening SQLite database {}", dburl, e);
+            // don't leave a half-opened database behind
+            try {
+                closeDB();
+            } catch (SQLException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        } finally {
+            metrics.record("openDB", start);
+        }
     }
 
     /**
      * Close the DB if it is open.
+     * <p>
+     * Waits for the writes and reads in progress to finish first; reads that start afterwards fail.
      *
      * @throws SQLException
      */
     public void closeDB() throws SQLException {
-        if (db != null) {
-            db.close();
-            db = null;
+        long start = System.nanoTime();
+        writeLock.lock();
+        try {
+            if (db != null) {
+                try {
+                    // waits for the borrowed reader connections; reads don't take the write lock, so this can't deadlock
+                    if (readers != null) {
+                        readers.close();
+                    }
+                    // the cached statements must be closed before the connection they belong to
+                    if (statements != null) {
+                        statements.close();
+                    }
+                } finally {
+                    readers = null;
+                    statements = null;
+                    exerciseCache.clear();
+                    loginCache.clear();
+                    db.close();
+                    db = null;
+                }
+            }
+        } finally {
+            writeLock.unlock();
+            metrics.record("closeDB", start);
+        }
+    }
+
+    /**
+     * Same as {@link #closeDB()}.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+        closeDB();
+    }
+
+    /**
+     * Run a read on a reader connection if there is a reader pool, or on the writer connection otherwise.
+     *
+     * @param work the read to run
+     * @return the result of the read.
+     * @throws SQLException
+     */
+    private <R> R read(SqlWork<R> work) throws SQLException {
+        // closeDB may clear the field concurrently; a closed pool rejects the read
+        ConnectionPool pool = readers;
+        if (pool == null) {
+            // reads share the writer connection and wait for the writes in progress
+            writeLock.lock();
+            try {
+                return work.run(statements);
+            } finally {
+                try {
+                    // end the read transaction even if the work failed
+                    db.commit();
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        }
+        StatementCache reader = pool.acquire();
+        try {
+            return work.run(reader);
+        } finally {
+            pool.release(reader);
         }
     }
 
@@ -151,82 +632,340 @@ public class Smarticulous<SQLiteDatabase, Cursor> {
      * @return the userid.
      * @throws SQLException
      */
+    @Override
     public int addOrUpdateUser(User user, String password) throws SQLException {
-        Statement st = db.createStatement();
-        String checkUser = "SELECT * FROM User WHERE Username='"+user.username+"';";
-        String insertUser = "INSERT INTO User (Username, Firstname, Lastname, Password) " + "VALUES (?, ?, ?, ?);";
-        String UpdateUser = "UPDATE User SET Firstname=?, Lastname=?, Password=? WHERE Username=?;";
-        String getId = "SELECT UserId FROM User WHERE Username='"+user.username+"';";
-        // prepare statements to insert and update users and add values to the queries 
-        PreparedStatement ps = db.prepareStatement(insertUser);
-        PreparedStatement pst = db.prepareStatement(UpdateUser);
+        long start = System.nanoTime();
+        try {
+            writeLock.lock();
+            try {
+                try {
+                    checkOptionalTables();
+                    // a single UPSERT inserts or updates the user and returns their id
+                    int userId = upsertUser(user, PasswordHasher.encode(password, hashPasswords));
+                    logChange(ChangeEvent.Kind.USER_UPSERTED, userId, -1, -1);
+                    db.commit();
+                    return userId;
+                } catch (SQLException e) {
+                    db.rollback();
+                    throw e;
+                } finally {
+                    // the cached credentials of this user are stale
+                    loginCache.invalidate(user.username);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            metrics.record("addOrUpdateUser", start);
+        }
+    }
+
+    /**
+     * Add or update a whole roster of users in a single transaction.
+     * <p>
+     * Every entry maps a user to their password, with the same semantics as {@link #addOrUpdateUser(User, String)}.
+     * The existing usernames are resolved with one bulk lookup first, so the result can tell how many users were
+     * inserted and how many were updated.
+     *
+     * @param users a map from user to password
+     * @return the ids of the users together with the number of inserted and updated rows.
+     * @throws SQLException
+     */
+    public UserSyncResult addOrUpdateUsers(Map<User, String> users) throws SQLException {
+        return addOrUpdateUsers(users, false);
+    }
+
+    /**
+     * Same as {@link #addOrUpdateUsers(Map)}, for {@link BulkIO}: with storedValues, a value already in the
+     * encoding of the Password column (e.g. an exported hash, see {@link PasswordHasher#isEncoded}) is stored as it
+     * is, and any other value is a password.
+     */
+    UserSyncResult addOrUpdateUsers(Map<User, String> users, boolean storedValues) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            writeLock.lock();
+            try {
+                UserSyncResult result = new UserSyncResult();
+                if (users.isEmpty()) {
+                    return result;
+                }
+                List<String> usernames = new ArrayList<>(users.size());
+                for (User user : users.keySet()) {
+                    usernames.add(user.username);
+                }
+                try {
+                    checkOptionalTables();
+                    Map<String, Integer> existing = lookupUserIds(usernames);
+                    for (Map.Entry<User, String> entry : users.entrySet()) {
+                        String username = entry.getKey().username;
+                        String password = entry.getValue();
+                        String stored = storedValues && password != null && PasswordHasher.isEncoded(password)
+                                ? password : PasswordHasher.encode(password, hashPasswords);
+                        int userId = upsertUser(entry.getKey(), stored);
+                        logChange(ChangeEvent.Kind.USER_UPSERTED, userId, -1, -1);
+                        // a username seen twice in the roster is only inserted once
+                        if (existing.containsKey(username) || result.userIds.containsKey(username)) {
+                            result.updated++;
+                        } else {
+                            result.inserted++;
+                        }
+                        result.userIds.put(username, userId);
+                    }
+                    db.commit();
+                } catch (SQLException e) {
+                    db.rollback();
+                    throw e;
+                } finally {
+                    for (String username : usernames) {
+                        loginCache.invalidate(username);
+                    }
+                }
+                return result;
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            metrics.record("addOrUpdateUsers", start);
+        }
+    }
+
+    /**
+     * Insert or update users under the given ids, without passwords, in a single transaction.
+     * <p>
+     * Used by {@link ShardedStorage} to mirror the users of the primary database into every shard, so the queries
+     * of a shard can resolve usernames locally. A mirrored user can't log in to the shard.
+     *
+     * @param users the users, by their id in the primary database
+     * @throws SQLException
+     */
+    void mirrorUsers(Map<Integer, User> users) throws SQLException {
+        writeLock.lock();
+        try {
+            PreparedStatement ps = statements.get(MIRROR_USER);
+            try {
+                for (Map.Entry<Integer, User> entry : users.entrySet()) {
+                    ps.setInt(1, entry.getKey());
+                    ps.setString(2, entry.getValue().username);
+                    ps.setString(3, entry.getValue().firstname);
+                    ps.setString(4, entry.getValue().lastname);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                db.commit();
+            } catch (SQLException e) {
+                ps.clearBatch();
+                db.rollback();
+                throw e;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Insert or update a single user without committing.
+     *
+     * @param user
+     * @param stored the value of the Password column, already encoded (see {@link PasswordHasher#encode})
+     * @return the userid.
+     * @throws SQLException
+     */
+    private int upsertUser(User user, String stored) throws SQLException {
+        PreparedStatement ps = statements.get(UPSERT_USER);
         ps.setString(1, user.username);
         ps.setString(2, user.firstname);
         ps.setString(3, user.lastname);
-        ps.setString(4, password);
-        pst.setString(1, user.firstname);
-        pst.setString(2, user.lastname);
-        pst.setString(3, password);
-        pst.setString(4, user.username);
-        // check if user exists in the system or not
-        ResultSet rs = st.executeQuery(checkUser);
-        int userId = 0;
-        ResultSet generatedKeys;
-        // if the result set is empty, no user exists and thus INSERT user
-        if(!rs.next()){
-            ps.executeUpdate();
-            // get the last generated userid using the prepared statement 
-            generatedKeys = ps.getGeneratedKeys(); 
-            if(generatedKeys.next()){
-                // only one id will be returned since there was a single update
-                userId = generatedKeys.getInt(1);
-            }
-        }
-        // the user was found and therefore we need to update their information
-        else{
-            pst.executeUpdate();
-            // get their user id using the prepared statement and return UserId
-            generatedKeys = st.executeQuery(getId);
-            while(generatedKeys.next()){
-                userId = generatedKeys.getInt("UserId");
-            }
-        }
-        // close all statements and resultsets that were open, as well as commit and return the user id
-        generatedKeys.close();
-        ps.close();
-        pst.close();
-        db.commit();
-        return userId;
+        ps.setString(4, stored);
+        try (ResultSet rs = ps.executeQuery()) {
+            if (!rs.next()) {
+                throw new SQLException("UPSERT of user " + user.username + " returned no id");
+            }
+            return rs.getInt("UserId");
+        }
+    }
+
+    /**
+     * Look up which optional tables the database has, if its schema changed since the last time.
+     * <p>
+     * Called with the writer lock held at the start of every write transaction, before the flags are used: another
+     * instance may have created a table since, and a write that skipped it would leave the summary or the histogram
+     * stale, or miss an event of the change log. The check is a single pragma read while the schema is unchanged.
+     * The lookup runs in the write transaction itself, so the flags match the snapshot the write is made on.
+     * <p>
+     * Finishing a backfill only updates SchemaFeature, which doesn't change the schema, so the reads of another
+     * instance start using a table built meanwhile after the next schema change or when the database is reopened;
+     * until then they keep using the queries on the base tables, which give the same answers.
+     *
+     * @throws SQLException (after rolling back the transaction)
+     */
+    private void checkOptionalTables() throws SQLException {
+        try {
+            int schemaVersion;
+            try (ResultSet rs = statements.get(SCHEMA_VERSION_PRAGMA).executeQuery()) {
+                schemaVersion = rs.next() ? rs.getInt(1) : 0;
+            }
+            if (schemaVersion == probedSchemaVersion) {
+                return;
+            }
+            Set<String> tables = new HashSet<>();
+            try (ResultSet rs = statements.get(SELECT_OPTIONAL_TABLES).executeQuery()) {
+                while (rs.next()) {
+                    tables.add(rs.getString(1));
+                }
+            }
+            Map<String, Integer> features = new HashMap<>();
+            if (tables.contains("SchemaFeature")) {
+                try (ResultSet rs = statements.get(SELECT_FEATURE_VERSIONS).executeQuery()) {
+                    while (rs.next()) {
+                        features.put(rs.getString(1), rs.getInt(2));
+                    }
+                }
+            }
+            bestSummaryTable = tables.contains("BestSubmission");
+            latestSummaryTable = tables.contains("LatestSubmission");
+            histogramTable = tables.contains("SubmissionHistogram");
+            changeLog = tables.contains("ChangeLog");
+            submissionSummary = isComplete(SUMMARY_MIGRATIONS, features);
+            submissionHistogram = isComplete(HISTOGRAM_MIGRATIONS, features);
+            probedSchemaVersion = schemaVersion;
+        } catch (SQLException e) {
+            db.rollback();
+            throw e;
+        }
     }
 
+    private static boolean isComplete(MigrationRunner feature, Map<String, Integer> versions) {
+        Integer version = versions.get(feature.feature());
+        return version != null && version >= feature.latestVersion();
+    }
+
+    /**
+     * Apply the migrations of an optional feature, then look up the optional tables again.
+     * <p>
+     * The writer lock is only held for one step of the migrations at a time, so the writes of this and the other
+     * instances go on during a long backfill (and maintain the tables from its first step on).
+     */
+    private void migrateFeature(MigrationRunner feature) throws SQLException {
+        feature.migrate(db, writeLock, MigrationRunner.DEFAULT_CHUNK_SIZE);
+        writeLock.lock();
+        try {
+            // the last step may only have changed the feature version, not the schema
+            probedSchemaVersion = -1;
+            checkOptionalTables();
+            db.commit();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Append an event to the change log, if it is on, without committing: the event is committed (or rolled back)
+     * together with the change itself.
+     *
+     * @param userId the user id, or -1
+     * @param exerciseId the exercise id, or -1
+     * @param submissionId the submission id, or -1
+     * @throws SQLException
+     */
+    private void logChange(ChangeEvent.Kind kind, int userId, int exerciseId, int submissionId) throws SQLException {
+        if (!changeLog) {
+            return;
+        }
+        PreparedStatement ps = statements.get(INSERT_CHANGE);
+        bindChange(ps, kind, userId, exerciseId, submissionId);
+        ps.executeUpdate();
+    }
+
+    /**
+     * Bind the parameters of {@link #INSERT_CHANGE}, e.g. to add the event to a batch.
+     */
+    private static void bindChange(PreparedStatement ps, ChangeEvent.Kind kind, int userId, int exerciseId,
+                                   int submissionId) throws SQLException {
+        ps.setInt(1, kind.code);
+        int[] ids = {userId, exerciseId, submissionId};
+        for (int i = 0; i < ids.length; ++i) {
+            if (ids[i] == -1) {
+                ps.setNull(i + 2, Types.INTEGER);
+            } else {
+                ps.setInt(i + 2, ids[i]);
+            }
+        }
+        ps.setLong(5, System.currentTimeMillis());
+    }
+
+
+    /**
+     * Store new passwords as salted hashes (PBKDF2) instead of plaintext.
+     * <p>
+     * Off by default, because the Password column is specified to hold the password itself. Turning it on only
+     * affects passwords written from now on: {@link #verifyLogin(String, String)} accepts both hashed and plaintext
+     * stored passwords, so existing users keep working and are migrated the next time their password is set.
+     *
+     * @param hashPasswords true to hash new passwords
+     */
+    public void setHashPasswords(boolean hashPasswords) {
+        this.hashPasswords = hashPasswords;
+    }
 
     /**
      * Verify a user's login credentials.
+     * <p>
+     * The stored credentials are cached by username (see {@link #getLoginCache()}), including the fact that a
+     * username doesn't exist, so repeated logins don't query the database.
      *
      * @param username
      * @param password
      * @return true if the user exists in the database and the password matches; false otherwise.
      * @throws SQLException
      * <p>
-     * Note: this is totally insecure. For real-life password checking, it's important to store only
-     * a password hash
+     * Note: unless {@link #setHashPasswords(boolean)} is on, passwords are stored in plaintext. For real-life password
+     * checking, it's important to store only a password hash
      * @see <a href="https://crackstation.net/hashing-security.htm">How to Hash Passwords Properly</a>
      */
+    @Override
     public boolean verifyLogin(String username, String password) throws SQLException {
-        Statement stmt = db.createStatement();
-        String checkUser = "SELECT Password FROM User WHERE Username='"+ username +"';";
-        //check if there is a row in the table User with the same username
-        ResultSet rs = stmt.executeQuery(checkUser);
-        db.commit();
-        // check in the result set for the password of the user if they were found in the system
-        while(rs.next()){
-            // compare the password of the given username in the database to the password given by user
-            if(rs.getString("Password").equals(password)){
-            return true;
+        long start = System.nanoTime();
+        try {
+            String stored;
+            LoginCache.Cached cached = loginCache.get(username);
+            if (cached != null) {
+                stored = cached.stored;
+            } else {
+                long stamp = loginCache.stamp();
+                stored = read(st -> {
+                    PreparedStatement ps = st.get(SELECT_PASSWORD);
+                    ps.setString(1, username);
+                    //check if there is a row in the table User with the same username
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) {
+                            return null;
+                        }
+                        metrics.rowsRead(1);
+                        return rs.getString("Password");
+                    }
+                });
+                loginCache.put(username, stored, stamp);
             }
+            // false if the user was not found in the system or the passwords didnt match
+            return stored != null && password != null && PasswordHasher.matches(password, stored);
+        } finally {
+            metrics.record("verifyLogin", start);
         }
-        // the passwords didnt match or the user was not found in the system
-        return false;
+    }
+
+    /**
+     * @return the credential cache used by {@link #verifyLogin(String, String)}, e.g. to inspect its hit/miss counters.
+     */
+    public LoginCache getLoginCache() {
+        return loginCache;
+    }
+
+    /**
+     * @return the metrics of this instance: per-operation and per-statement latency histograms, row and commit
+     * counters, and the slow-statement log settings.
+     */
+    public Metrics getMetrics() {
+        return metrics;
     }
 
     // =========== Exercise Management =============
@@ -238,87 +977,212 @@ public class Smarticulous<SQLiteDatabase, Cursor> {
      * @return the new exercise id, or -1 if an exercise with this id already existed in the database.
      * @throws SQLException
      */
+    @Override
     public int addExercise(Exercise exercise) throws SQLException {
-        Statement st = db.createStatement();
-        String checkUser = "SELECT * FROM Exercise WHERE ExerciseId='"+exercise.id+"';";
-        String insertInto = "INSERT INTO Exercise (ExerciseId, Name, DueDate) VALUES ("+exercise.id+",'"+exercise.name+"',"+exercise.dueDate.getTime()+");";
-        PreparedStatement ps = db.prepareStatement(insertInto);
-        ResultSet rs = st.executeQuery(checkUser);
-        // check if a user with the id already exists in the database
-        if(!rs.next()){
-            //if the set is empty, no exercise with this id exists in the database and therefore insert the new exercise 
-            ps.executeUpdate(); 
-            st.close();
-            // now go through each question in the exercise
-            for(Exercise.Question question: exercise.questions){
-                st = db.createStatement();
-                // insert each question from the exercise into Question
-                String insertQuestion = "INSERT INTO Question (ExerciseId, Name, Desc, Points) VALUES('"+exercise.id+"', '"+question.name+"','"+question.desc+"',"+question.points+ ");";
-                st.executeUpdate(insertQuestion);
-                st.close();
-            }
-            db.commit();
-            // use the prepared statement to get the user id
-            ResultSet generatedKeys = ps.getGeneratedKeys();
-            int exId = 0;
-            if(generatedKeys.next()) {
-                // this will return the userid as its the only generated key in the update
-                exId = generatedKeys.getInt(1);
+        return addExercises(Collections.singletonList(exercise))[0];
+    }
+
+    /**
+     * Add a batch of exercises to the database using a single transaction.
+     * <p>
+     * The exercises and all their questions are written through reused prepared statements, with the questions sent
+     * as one JDBC batch, so the whole batch costs one commit.
+     * The i-th entry of the returned array is the id of the i-th exercise (in iteration order), or -1 if an exercise
+     * with this id already existed in the database (or earlier in the batch); those exercises are skipped.
+     *
+     * @param exercises the exercises to add
+     * @return the exercise ids, one per exercise.
+     * @throws SQLException
+     */
+    public int[] addExercises(Collection<Exercise> exercises) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            writeLock.lock();
+            try {
+                int[] ids = new int[exercises.size()];
+                if (exercises.isEmpty()) {
+                    return ids;
+                }
+                checkOptionalTables();
+                PreparedStatement check = statements.get(SELECT_EXERCISE_EXISTS);
+                PreparedStatement ps = statements.get(INSERT_EXERCISE);
+                PreparedStatement qs = statements.get(INSERT_QUESTION);
+                try {
+                    int i = 0;
+                    for (Exercise exercise : exercises) {
+                        // check if an exercise with the id already exists in the database
+                        check.setInt(1, exercise.id);
+                        boolean exists;
+                        try (ResultSet rs = check.executeQuery()) {
+                            exists = rs.next();
+                        }
+                        if (exists) {
+                            // an exercise with this id already exists in the database and thus return -1 as required
+                            ids[i++] = -1;
+                            continue;
+                        }
+                        int exId = exercise.id;
+                        ps.setInt(1, exercise.id);
+                        ps.setString(2, exercise.name);
+                        TimeCodec.bind(ps, 3, exercise.dueDate);
+                        ps.executeUpdate();
+                        try (ResultSet generatedKeys = ps.getGeneratedKeys()) {
+                            if (generatedKeys.next()) {
+                                exId = generatedKeys.getInt(1);
+                            }
+                        }
+                        // the questions of all the exercises go into a single batch (questions are numbered from 1)
+                        int questionId = 1;
+                        for (Exercise.Question question : exercise.questions) {
+                            qs.setInt(1, exercise.id);
+                            qs.setInt(2, questionId++);
+                            qs.setString(3, question.name);
+                            qs.setString(4, question.desc);
+                            qs.setInt(5, question.points);
+                            qs.addBatch();
+                        }
+                        logChange(ChangeEvent.Kind.EXERCISE_ADDED, -1, exId, -1);
+                        ids[i++] = exId;
+                    }
+                    qs.executeBatch();
+                    db.commit();
+                } catch (SQLException e) {
+                    qs.clearBatch();
+                    db.rollback();
+                    throw e;
+                } finally {
+                    // whatever happened, the cache must not serve an older copy of these exercises
+                    for (Exercise exercise : exercises) {
+                        exerciseCache.invalidate(exercise.id);
+                    }
+                }
+                return ids;
+            } finally {
+                writeLock.unlock();
             }
-            // close all statements which have been opened and return the generated userid
-            ps.close();
-            generatedKeys.close();
-            return exId;
-        }
-        // therefore a user with this id already exists in the database and thus return -1 as required
-        else{
-            return -1;
+        } finally {
+            metrics.record("addExercises", start);
         }
     }
-      
+
     /**
      * Return a list of all the exercises in the database.
      * <p>
      * The list should be sorted by exercise id.
-     * @param <MyType>
      *
      * @return list of all exercises.
      * @throws SQLException
      */
+    @Override
+    public List<Exercise> loadExercises() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            // create array list of exercises to return
+            List<Exercise> returnList = new ArrayList<Exercise>();
+            streamExercises(returnList::add);
+            return returnList;
+        } finally {
+            metrics.record("loadExercises", start);
+        }
+    }
+
+    /**
+     * Stream all the exercises in the database, sorted by exercise id.
+     * <p>
+     * The exercises and their questions are read in a single pass over one ordered LEFT JOIN, and each exercise is
+     * handed to the consumer as soon as all its questions have been read, so only one exercise is held in memory at
+     * a time. Exercises without questions are included (with an empty question list).
+     *
+     * @param consumer receives the exercises in order
+     * @throws SQLException
+     */
+    public void streamExercises(ResultConsumer<Exercise> consumer) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            read(st -> {
+                try (ResultSet rs = st.get(SELECT_EXERCISES_WITH_QUESTIONS).executeQuery()) {
+                    readExercises(rs, consumer);
+                }
+                return null;
+            });
+        } finally {
+            metrics.record("streamExercises", start);
+        }
+    }
 
+    /**
+     * Return the exercise with the given id.
+     * <p>
+     * Exercises are served from a bounded LRU cache ({@link #getExerciseCache()}) and only read from the database
+     * on a miss. The returned exercise may be shared with other callers and must not be modified.
+     *
+     * @param id the exercise id
+     * @return the exercise, or null if there is no exercise with this id.
+     * @throws SQLException
+     */
+    public Exercise getExercise(int id) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Exercise cached = exerciseCache.get(id);
+            if (cached != null) {
+                return cached;
+            }
+            List<Exercise> found = new ArrayList<>(1);
+            read(st -> {
+                PreparedStatement ps = st.get(SELECT_EXERCISE_WITH_QUESTIONS);
+                ps.setInt(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    readExercises(rs, found::add);
+                }
+                return null;
+            });
+            if (found.isEmpty()) {
+                return null;
+            }
+            exerciseCache.put(found.get(0));
+            return found.get(0);
+        } finally {
+            metrics.record("getExercise", start);
+        }
+    }
 
-    public <MyType> List<Exercise> loadExercises() throws SQLException {
-        // create array list of exercises to return
-        List<Exercise> returnList = new ArrayList<Exercise>();
-        Statement st1 = db.createStatement();
-        // select queries to get all the exercises from Exercise and to get the questions from the exercise
-        String GetQuestions = "SELECT * FROM Question INNER JOIN Exercise ON " + "Exercise.ExerciseId = Question.ExerciseId ORDER BY Exercise.ExerciseId, QuestionId;";
-        String GetExercises = "SELECT *, COUNT(QuestionId) FROM Exercise INNER JOIN Question ON " + "Exercise.ExerciseId = Question.ExerciseId GROUP BY Question.ExerciseId ORDER BY Exercise.ExerciseId;";
-        // execute the queries to get the exercises and the questions
-        ResultSet es = st1.executeQuery(GetExercises);
-        Statement st2 = db.createStatement();
-        ResultSet qs = st2.executeQuery(GetQuestions);
-        // create while loop to iterate through all the exercises
-        while(es.next()){
-            int exID = es.getInt("ExerciseId");
-            String name = es.getString("Name");
-            // create new exercise using the current exercises exid, name and date
-            Exercise current = new Exercise(exID, name, new Date(es.getInt("DueDate")));
-            // assign numEx to be the number of questions in the exercise
-            int numEx = es.getInt("COUNT(QuestionId)");
-            int cur = 0;
-            // create a for loop to iterate through the questions array in the exercise and add each one to the current exercise
-            for(cur = 0; cur < numEx; cur++){
-                qs.next();
-                current.addQuestion(qs.getString("Name"), qs.getString("Desc"), qs.getInt("Points"));
-            }
-            returnList.add(current);
-        }
-        // close statements and return exercise list
-        st1.close();
-        st2.close();
-        db.commit();
-        return returnList;
+    /**
+     * @return the exercise cache used by {@link #getExercise(int)}, e.g. to inspect its hit/miss counters.
+     */
+    public ExerciseCache getExerciseCache() {
+        return exerciseCache;
+    }
+
+    /**
+     * Build exercises from the rows of an Exercise LEFT JOIN Question query ordered by exercise id and question id.
+     *
+     * @param rs the query results
+     * @param consumer receives each exercise once all its questions have been read
+     * @throws SQLException
+     */
+    private void readExercises(ResultSet rs, ResultConsumer<Exercise> consumer) throws SQLException {
+        Exercise current = null;
+        long rows = 0;
+        while (rs.next()) {
+            rows++;
+            int exID = rs.getInt("ExerciseId");
+            // a new exercise id means all the questions of the previous exercise have been read
+            if (current == null || current.id != exID) {
+                if (current != null) {
+                    consumer.accept(current);
+                }
+                current = new Exercise(exID, rs.getString("ExerciseName"), TimeCodec.date(rs, "DueDate"));
+            }
+            // the question columns are NULL for an exercise without questions
+            rs.getInt("QuestionExerciseId");
+            if (!rs.wasNull()) {
+                current.addQuestion(rs.getString("QuestionName"), rs.getString("QuestionDesc"), rs.getInt("Points"));
+            }
+        }
+        metrics.rowsRead(rows);
+        if (current != null) {
+            consumer.accept(current);
+        }
     }
 
     // ========== Submission Storage ===============
@@ -327,61 +1191,395 @@ public class Smarticulous<SQLiteDatabase, Cursor> {
      * Store a submission in the database.
      * The id field of the submission will be ignored if it is -1.
      * <p>
+     * The grades in submission.questionGrades are stored in the QuestionGrade table (questionGrades[i] with
+     * QuestionId i+1), in the same transaction as the Submission row.
+     * <p>
      * Return -1 if the corresponding user doesn't exist in the database.
      *
      * @param submission
      * @return the submission id.
      * @throws SQLException
      */
+    @Override
     public int storeSubmission(Submission submission) throws SQLException {
-        Statement st = db.createStatement();
-        // sql queries to check if user exists in the database
-        String checkUser = "SELECT UserId FROM User WHERE Username='"+submission.user.username+"';"; 
-        // sql query to get the submission id to return
-        String GetSubId = "SELECT SubmissionId FROM Submission ORDER BY SubmissionId DESC LIMIT 1;";
-        //check if the user exists in the data base
-        ResultSet rs = st.executeQuery(checkUser);
-        int UserID = 0;
-        //if the result set is empty then the user doesnt exist in the database and thus return -1
-        if(!rs.next()){
-            return -1;
-        }
-        // else the user is in the database and we get their userId
-        else{
-            UserID = rs.getInt("UserId");
-            rs.close();
-            st.close();
-            db.commit();
+        // the Submission row and its QuestionGrade rows are written together in one transaction
+        return storeSubmissions(Collections.singletonList(submission))[0];
+    }
+
+    /**
+     * Store a batch of submissions in the database using a single transaction.
+     * <p>
+     * The usernames of all the submissions are resolved with a few bulk lookups, and the Submission and
+     * QuestionGrade rows are written through reused prepared statements, so the whole batch costs one commit
+     * instead of one per submission.
+     * The id field of a submission will be ignored if it is -1.
+     * <p>
+     * The i-th entry of the returned array is the id of the i-th submission (in iteration order), or -1 if
+     * the corresponding user doesn't exist in the database (that submission is skipped, the rest are stored).
+     *
+     * @param submissions the submissions to store
+     * @return the submission ids, one per submission.
+     * @throws SQLException
+     */
+    @Override
+    public int[] storeSubmissions(Collection<Submission> submissions) throws SQLException {
+        return storeSubmissions(submissions, 1, 0);
+    }
+
+    /**
+     * Same as {@link #storeSubmissions(Collection)}, for {@link ShardedStorage}: with an idStride above 1, the new
+     * submissions get the ids that are equal to idOffset modulo idStride, above the largest id in the database.
+     * The ids are picked inside the write transaction, so two processes that share the file never hand out the
+     * same one (the second transaction fails instead of overwriting).
+     *
+     * @param idStride 1 to let SQLite pick the ids, otherwise the number of id sequences
+     * @param idOffset the sequence of this database, between 0 and idStride - 1
+     */
+    int[] storeSubmissions(Collection<Submission> submissions, int idStride, int idOffset) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            writeLock.lock();
+            try {
+                int[] ids = new int[submissions.size()];
+                if (submissions.isEmpty()) {
+                    return ids;
+                }
+                checkOptionalTables();
+                // collect the distinct usernames and resolve them all at once
+                Set<String> usernames = new LinkedHashSet<>();
+                for (Submission submission : submissions) {
+                    usernames.add(submission.user.username);
+                }
+                Map<String, Integer> userIds = lookupUserIds(usernames);
+
+                PreparedStatement subSt = statements.get(INSERT_SUBMISSION);
+                PreparedStatement gradeSt = statements.get(INSERT_GRADE);
+                PreparedStatement latestSt = latestSummaryTable ? statements.get(UPSERT_LATEST_SUMMARY) : null;
+                PreparedStatement bestSt = bestSummaryTable ? statements.get(UPSERT_BEST_SUMMARY) : null;
+                PreparedStatement histogramSt = histogramTable ? statements.get(UPSERT_HISTOGRAM) : null;
+                PreparedStatement logSt = changeLog ? statements.get(INSERT_CHANGE) : null;
+                try {
+                    long nextId = -1;
+                    if (idStride > 1) {
+                        try (ResultSet rs = statements.get(SELECT_MAX_SUBMISSION_ID).executeQuery()) {
+                            nextId = idAbove(rs.next() ? rs.getLong(1) : 0, idStride, idOffset);
+                        }
+                    }
+                    int i = 0;
+                    for (Submission submission : submissions) {
+                        Integer userId = userIds.get(submission.user.username);
+                        // unknown user - report -1 for this submission and move on
+                        if (userId == null) {
+                            ids[i++] = -1;
+                            continue;
+                        }
+                        if (submission.id != -1) {
+                            subSt.setInt(1, submission.id);
+                            if (idStride > 1) {
+                                // later ids of the sequence must not collide with the explicit one
+                                nextId = Math.max(nextId, idAbove(submission.id, idStride, idOffset));
+                            }
+                        } else if (idStride > 1) {
+                            if (nextId > Integer.MAX_VALUE) {
+                                throw new SQLException("No SubmissionId left in sequence " + idOffset + " of " + idStride);
+                            }
+                            subSt.setInt(1, (int) nextId);
+                            nextId += idStride;
+                        } else {
+                            // a null id lets SQLite pick the next SubmissionId
+                            subSt.setNull(1, Types.INTEGER);
+                        }
+                        subSt.setInt(2, userId);
+                        long time = TimeCodec.millis(submission.submissionTime);
+                        subSt.setInt(3, submission.exercise.id);
+                        TimeCodec.bind(subSt, 4, time);
+                        subSt.executeUpdate();
+                        int subId = submission.id;
+                        try (ResultSet generatedKeys = subSt.getGeneratedKeys()) {
+                            if (generatedKeys.next()) {
+                                subId = generatedKeys.getInt(1);
+                            }
+                        }
+                        addGradesToBatch(gradeSt, subId, submission.questionGrades);
+                        addSummaryToBatch(latestSt, bestSt, userId, subId, time, submission);
+                        if (histogramSt != null) {
+                            histogramSt.setInt(1, submission.exercise.id);
+                            histogramSt.setLong(2, Math.floorDiv(time, HISTOGRAM_BUCKET_MILLIS));
+                            histogramSt.addBatch();
+                        }
+                        if (logSt != null) {
+                            bindChange(logSt, ChangeEvent.Kind.SUBMISSION_STORED, userId, submission.exercise.id, subId);
+                            logSt.addBatch();
+                        }
+                        ids[i++] = subId;
+                    }
+                    gradeSt.executeBatch();
+                    for (PreparedStatement ps : new PreparedStatement[]{latestSt, bestSt, histogramSt, logSt}) {
+                        if (ps != null) {
+                            ps.executeBatch();
+                        }
+                    }
+                    db.commit();
+                } catch (SQLException e) {
+                    // nothing from a failed batch should be left half-written
+                    gradeSt.clearBatch();
+                    for (PreparedStatement ps : new PreparedStatement[]{latestSt, bestSt, histogramSt, logSt}) {
+                        if (ps != null) {
+                            ps.clearBatch();
+                        }
+                    }
+                    db.rollback();
+                    throw e;
+                }
+                return ids;
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            metrics.record("storeSubmissions", start);
         }
-        
-        // we now know the user exists in the database and have their user id
-        int subID = submission.id;
-        // sql queries to insert with and without the submission id
-        String InsertSubNoId = "INSERT INTO Submission (UserId, ExerciseId, SubmissionTime) VALUES("+UserID+","+submission.exercise.id+", "+submission.submissionTime.getTime()+");";
-        String InsertSub = "INSERT INTO Submission (SubmissionId, UserId, ExerciseId, SubmissionTime) VALUES("+submission.id+","+ UserID +", "+submission.exercise.id+", "+submission.submissionTime.getTime()+");";
-        if (subID == -1){
-            //if the submission id is -1 then insert submission WITHOUT the submission id, ignore it
-            Statement stmt2 = db.createStatement();
-            stmt2.executeUpdate(InsertSubNoId);
-            // get their submission id into a result set 
-            ResultSet getsubId = stmt2.executeQuery(GetSubId);
-            if(getsubId.next()){
-                subID = getsubId.getInt("SubmissionId");
-            }
-            // close all statements and result sets that were opened and return the submission id that was retrieved
-            stmt2.close();
-            getsubId.close();
-            db.commit();
-            return subID;
+    }
+
+    /**
+     * @return the smallest id larger than id that is equal to offset modulo stride.
+     */
+    private static long idAbove(long id, int stride, int offset) {
+        return id - Math.floorMod(id - offset, stride) + stride;
+    }
+
+    /**
+     * Add one QuestionGrade row per question of the given submission to the batch of a prepared
+     * "INSERT INTO QuestionGrade (SubmissionId, QuestionId, Grade)" statement.
+     * Questions are numbered from 1, so questionGrades[i] is stored with QuestionId i+1.
+     *
+     * @param gradeSt the prepared insert statement
+     * @param submissionId the id of the submission the grades belong to
+     * @param questionGrades the grades (may be null if the submission has none)
+     * @throws SQLException
+     */
+    private void addGradesToBatch(PreparedStatement gradeSt, int submissionId, float[] questionGrades) throws SQLException {
+        if (questionGrades == null) {
+            return;
+        }
+        for (int q = 0; q < questionGrades.length; ++q) {
+            gradeSt.setInt(1, submissionId);
+            gradeSt.setInt(2, q + 1);
+            gradeSt.setFloat(3, questionGrades[q]);
+            gradeSt.addBatch();
+        }
+    }
+
+    /**
+     * Add a new submission to the batches of the LatestSubmission and BestSubmission upserts (each null if that
+     * table doesn't exist). A submission without grades can be the latest one but never the best one.
+     */
+    private void addSummaryToBatch(PreparedStatement latestSt, PreparedStatement bestSt, int userId, int submissionId,
+                                   long time, Submission submission) throws SQLException {
+        float[] grades = submission.questionGrades;
+        boolean graded = grades != null && grades.length > 0;
+        double total = 0;
+        if (graded) {
+            for (float grade : grades) {
+                total += grade;
+            }
+        }
+        PreparedStatement[] targets = graded ? new PreparedStatement[]{latestSt, bestSt} : new PreparedStatement[]{latestSt};
+        for (PreparedStatement ps : targets) {
+            if (ps == null) {
+                continue;
+            }
+            ps.setInt(1, userId);
+            ps.setInt(2, submission.exercise.id);
+            ps.setInt(3, submissionId);
+            if (graded) {
+                ps.setDouble(4, total);
+            } else {
+                ps.setNull(4, Types.REAL);
+            }
+            TimeCodec.bind(ps, 5, time);
+            ps.addBatch();
+        }
+    }
+
+    /**
+     * Rewrite the grades of many submissions of a single exercise in one pass.
+     * <p>
+     * For every entry of newGrades, all the QuestionGrade rows of that submission are replaced by the given grades
+     * (grades[i] is stored with QuestionId i+1). Submissions that don't exist or don't belong to the given exercise
+     * are ignored. All the deletes and inserts are sent as two JDBC batches and committed once.
+     * <p>
+     * With the submission summary on, the summary rows of the exercise are recomputed in the same transaction.
+     *
+     * @param exercise the exercise whose submissions are regraded
+     * @param newGrades a map from submission id to the new grades of that submission
+     * @return the number of QuestionGrade rows written.
+     * @throws SQLException
+     */
+    public int regradeSubmissions(Exercise exercise, Map<Integer, float[]> newGrades) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            writeLock.lock();
+            try {
+                if (newGrades.isEmpty()) {
+                    return 0;
+                }
+                checkOptionalTables();
+                // both statements only touch submissions of the given exercise
+                PreparedStatement deleteSt = statements.get(DELETE_EXERCISE_GRADES);
+                PreparedStatement insertSt = statements.get(INSERT_EXERCISE_GRADE);
+                int written = 0;
+                try {
+                    for (Map.Entry<Integer, float[]> entry : newGrades.entrySet()) {
+                        int subId = entry.getKey();
+                        deleteSt.setInt(1, subId);
+                        deleteSt.setInt(2, subId);
+                        deleteSt.setInt(3, exercise.id);
+                        deleteSt.addBatch();
+
+                        float[] grades = entry.getValue();
+                        for (int q = 0; q < grades.length; ++q) {
+                            insertSt.setInt(1, subId);
+                            insertSt.setInt(2, q + 1);
+                            insertSt.setFloat(3, grades[q]);
+                            insertSt.setInt(4, subId);
+                            insertSt.setInt(5, exercise.id);
+                            insertSt.addBatch();
+                        }
+                    }
+                    // old grades must be gone before the new ones are inserted
+                    deleteSt.executeBatch();
+                    for (int count : insertSt.executeBatch()) {
+                        if (count > 0) {
+                            written += count;
+                        }
+                    }
+                    if (changeLog) {
+                        PreparedStatement logSt = statements.get(INSERT_GRADES_CHANGE);
+                        long now = System.currentTimeMillis();
+                        try {
+                            for (int subId : newGrades.keySet()) {
+                                logSt.setInt(1, ChangeEvent.Kind.GRADES_WRITTEN.code);
+                                logSt.setLong(2, now);
+                                logSt.setInt(3, subId);
+                                logSt.setInt(4, exercise.id);
+                                logSt.addBatch();
+                            }
+                            logSt.executeBatch();
+                        } finally {
+                            logSt.clearBatch();
+                        }
+                    }
+                    // the totals changed, so the best (and latest) rows of this exercise are recomputed
+                    List<String> summary = new ArrayList<>(4);
+                    if (bestSummaryTable) {
+                        summary.addAll(Arrays.asList(DELETE_EXERCISE_BEST_SUMMARY, REBUILD_EXERCISE_BEST_SUMMARY));
+                    }
+                    if (latestSummaryTable) {
+                        summary.addAll(Arrays.asList(DELETE_EXERCISE_LATEST_SUMMARY, REBUILD_EXERCISE_LATEST_SUMMARY));
+                    }
+                    for (String sql : summary) {
+                        PreparedStatement ps = statements.get(sql);
+                        ps.setInt(1, exercise.id);
+                        ps.executeUpdate();
+                    }
+                    db.commit();
+                } catch (SQLException e) {
+                    deleteSt.clearBatch();
+                    insertSt.clearBatch();
+                    db.rollback();
+                    throw e;
+                }
+                return written;
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            metrics.record("regradeSubmissions", start);
+        }
+    }
+
+    /**
+     * Look up users by username, e.g. for {@link ShardedStorage} to mirror the users a shard doesn't have yet.
+     *
+     * @param usernames the usernames to look up
+     * @return the users that exist, by user id.
+     * @throws SQLException
+     */
+    Map<Integer, User> findUsers(Collection<String> usernames) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return read(st -> {
+                Map<Integer, User> users = new LinkedHashMap<>();
+                PreparedStatement ps = st.get(SELECT_USER_BY_NAME);
+                for (String username : usernames) {
+                    ps.setString(1, username);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            users.put(rs.getInt(1), new User(rs.getString(2), rs.getString(3), rs.getString(4)));
+                        }
+                    }
+                }
+                metrics.rowsRead(users.size());
+                return users;
+            });
+        } finally {
+            metrics.record("findUsers", start);
+        }
+    }
+
+    /**
+     * Maximal number of usernames bound in a single IN (...) lookup.
+     * SQLite limits the number of host parameters in a statement (999 by default).
+     */
+    private static final int LOOKUP_CHUNK = 512;
+
+    /**
+     * Resolve many usernames to user ids with as few queries as possible.
+     *
+     * @param usernames the usernames to look up
+     * @return a map from username to user id, containing only the users that exist in the database.
+     * @throws SQLException
+     */
+    Map<String, Integer> lookupUserIds(Collection<String> usernames) throws SQLException {
+        Map<String, Integer> userIds = new HashMap<>();
+        List<String> chunk = new ArrayList<>(LOOKUP_CHUNK);
+        for (String username : usernames) {
+            chunk.add(username);
+            if (chunk.size() == LOOKUP_CHUNK) {
+                lookupUserIdChunk(chunk, userIds);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            lookupUserIdChunk(chunk, userIds);
+        }
+        return userIds;
+    }
+
+    private void lookupUserIdChunk(List<String> chunk, Map<String, Integer> userIds) throws SQLException {
+        // the number of placeholders is rounded up to a power of two, so only a handful of shapes are ever cached;
+        // the extra placeholders repeat the last username, which doesn't change the result
+        int placeholders = Integer.highestOneBit(chunk.size());
+        if (placeholders < chunk.size()) {
+            placeholders <<= 1;
+        }
+        StringBuilder query = new StringBuilder("SELECT UserId, Username FROM User WHERE Username IN (");
+        for (int i = 0; i < placeholders; ++i) {
+            query.append(i == 0 ? "?" : ", ?");
+        }
+        query.append(");");
+        PreparedStatement ps = statements.get(query.toString());
+        for (int i = 0; i < placeholders; ++i) {
+            ps.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+        }
+        try (ResultSet rs = ps.executeQuery()) {
+            int rows = 0;
+            while (rs.next()) {
+                userIds.put(rs.getString("Username"), rs.getInt("UserId"));
+                rows++;
+            }
+            metrics.rowsRead(rows);
         }
-        else{ // this means the submission id is not -1 and therefore insert WITH the submissionid field
-            Statement stmt1 = db.createStatement();
-            stmt1.executeUpdate(InsertSub);
-            stmt1.close();
-            // commit the change and return the normal submission id since we have it and it != -1
-            db.commit();      
-            return subID;
-        } 
     }
 
 
@@ -402,19 +1600,14 @@ public class Smarticulous<SQLiteDatabase, Cursor> {
      * Parameter 3 to the number of questions in the given exercise.
      * <p>
      * This will be used by {@link #getLastSubmission(User, Exercise)}
+     * <p>
+     * The returned statement belongs to the caller, who must close it.
+     * (getLastSubmission itself uses the copy cached by openDB.)
      *
      * @return
      */
     PreparedStatement getLastSubmissionGradesStatement() throws SQLException {
-        Statement st = db.createStatement();
-        String query= "SELECT Question" +
-               " FROM Exercise USING (ExerciseId)" +
-               " Submission Using (SubmissionId)" +
-               " User USING (Username)LIMIT 1" +
-               "SORT BY QuestionID ASC" +
-               "GROUP BY SubmissionID, QuestionId, Grade, SubmissionTime";
-        st.close();
-        return null;
+        return db.prepareStatement(LAST_SUBMISSION_GRADES);
     }
 
     /**
@@ -432,12 +1625,13 @@ public class Smarticulous<SQLiteDatabase, Cursor> {
      * Parameter 3 to the number of questions in the given exercise.
      * <p>
      * This will be used by {@link #getBestSubmission(User, Exercise)}
+     * <p>
+     * Ties on the point total are broken in favour of the latest submission (by time, then by submission id).
+     * The returned statement belongs to the caller, who must close it.
      *
      */
-    // didnt do bonus
     PreparedStatement getBestSubmissionGradesStatement() throws SQLException {
-        // TODO: Implement
-        return null;
+        return db.prepareStatement(BEST_SUBMISSION_GRADES);
     }
 
     /**
@@ -460,22 +1654,25 @@ public class Smarticulous<SQLiteDatabase, Cursor> {
         stmt.setInt(2, exercise.id);
         stmt.setInt(3, exercise.questions.size());
 
-        ResultSet res = stmt.executeQuery();
+        try (ResultSet res = stmt.executeQuery()) {
+            boolean hasNext = res.next();
+            if (!hasNext)
+                return null;
 
-        boolean hasNext = res.next();
-        if (!hasNext)
-            return null;
+            int sid = res.getInt("SubmissionId");
+            Date submissionTime = TimeCodec.date(res, "SubmissionTime");
 
-        int sid = res.getInt("SubmissionId");
-        Date submissionTime = new Date(res.getLong("SubmissionTime"));
+            float[] grades = new float[exercise.questions.size()];
 
-        float[] grades = new float[exercise.questions.size()];
+            int rows = 0;
+            for (int i = 0; hasNext; ++i, hasNext = res.next()) {
+                grades[i] = res.getFloat("Grade");
+                rows++;
+            }
+            metrics.rowsRead(rows);
 
-        for (int i = 0; hasNext; ++i, hasNext = res.next()) {
-            grades[i] = res.getFloat("Grade");
+            return new Submission(sid, user, exercise, submissionTime, (float[]) grades);
         }
-
-        return new Submission(sid, user, exercise, submissionTime, (float[]) grades);
     }
 
     /**
@@ -488,8 +1685,14 @@ public class Smarticulous<SQLiteDatabase, Cursor> {
      * @return
      * @throws SQLException
      */
+    @Override
     public Submission getLastSubmission(User user, Exercise exercise) throws SQLException {
-        return getSubmission(user, exercise, getLastSubmissionGradesStatement());
+        long start = System.nanoTime();
+        try {
+            return read(st -> getSubmission(user, exercise, st.get(submissionSummary ? LAST_SUMMARY_GRADES : LAST_SUBMISSION_GRADES)));
+        } finally {
+            metrics.record("getLastSubmission", start);
+        }
     }
 
 
@@ -501,7 +1704,569 @@ public class Smarticulous<SQLiteDatabase, Cursor> {
      * @return
      * @throws SQLException
      */
+    @Override
     public Submission getBestSubmission(User user, Exercise exercise) throws SQLException {
-        return getSubmission(user, exercise, getBestSubmissionGradesStatement());
+        long start = System.nanoTime();
+        try {
+            return read(st -> getSubmission(user, exercise, st.get(submissionSummary ? BEST_SUMMARY_GRADES : BEST_SUBMISSION_GRADES)));
+        } finally {
+            metrics.record("getBestSubmission", start);
+        }
+    }
+
+    // ============= Submission Summary ===============
+
+    /**
+     * Build the BestSubmission and LatestSubmission summary tables, and start using them.
+     * <p>
+     * Each table holds one row per (user, exercise) pair: the id, point total and time of the best (respectively
+     * latest) submission. Once they exist, {@link #storeSubmissions} and {@link #regradeSubmissions} keep them up to
+     * date in the same transaction as the submissions, and {@link #getBestSubmission} / {@link #getLastSubmission}
+     * become primary key lookups instead of summing the grades of every submission of the pair.
+     * <p>
+     * The tables are built by the {@link #SUMMARY_MIGRATIONS}: the existing submissions are backfilled in chunks of
+     * users, each in its own transaction, so the other writes aren't blocked for the whole scan. The reads use the
+     * tables once the last chunk is committed. This is needed once per database; on a database that has the summary
+     * it does nothing, and an interrupted backfill is started over by calling it again.
+     * The summary is off by default because the tables are not part of the base schema.
+     *
+     * @throws SQLException
+     */
+    public void rebuildSubmissionSummary() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            migrateFeature(SUMMARY_MIGRATIONS);
+        } finally {
+            metrics.record("rebuildSubmissionSummary", start);
+        }
+    }
+
+    /**
+     * @return true if the summary tables are maintained and used (see {@link #rebuildSubmissionSummary()}).
+     */
+    public boolean isSubmissionSummaryEnabled() {
+        return submissionSummary;
+    }
+
+    // ============= Time-Range Queries ===============
+
+    /**
+     * Stream the submissions of an exercise made in [from, to), in time order (then by submission id).
+     * <p>
+     * The range is found on the (ExerciseId, SubmissionTime) index, and each submission is handed to the consumer
+     * as soon as its grades have been read, so only one submission is held in memory at a time.
+     * The submissions refer to the given exercise, and their grades array has one entry per question of it.
+     *
+     * @param exercise the exercise
+     * @param from the earliest submission time (inclusive)
+     * @param to the latest submission time (exclusive)
+     * @param consumer receives the submissions in order
+     * @throws SQLException
+     */
+    public void streamSubmissions(Exercise exercise, Date from, Date to, ResultConsumer<Submission> consumer) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            read(st -> {
+                PreparedStatement ps = st.get(SUBMISSIONS_IN_RANGE);
+                ps.setInt(1, exercise.id);
+                TimeCodec.bind(ps, 2, from);
+                TimeCodec.bind(ps, 3, to);
+                try (ResultSet rs = ps.executeQuery()) {
+                    readSubmissions(rs, exercise, consumer);
+                }
+                return null;
+            });
+        } finally {
+            metrics.record("streamSubmissions", start);
+        }
+    }
+
+    /**
+     * Build submissions from the rows of a Submission JOIN User LEFT JOIN QuestionGrade query ordered by submission.
+     */
+    private void readSubmissions(ResultSet rs, Exercise exercise, ResultConsumer<Submission> consumer) throws SQLException {
+        int questions = exercise.questions.size();
+        Submission current = null;
+        long rows = 0;
+        while (rs.next()) {
+            rows++;
+            int sid = rs.getInt("SubmissionId");
+            // a new submission id means all the grades of the previous submission have been read
+            if (current == null || current.id != sid) {
+                if (current != null) {
+                    consumer.accept(current);
+                }
+                User user = new User(rs.getString("Username"), rs.getString("Firstname"), rs.getString("Lastname"));
+                current = new Submission(sid, user, exercise, TimeCodec.date(rs, "SubmissionTime"), new float[questions]);
+            }
+            // the grade columns are NULL for a submission without grades
+            int question = rs.getInt("QuestionId");
+            if (!rs.wasNull() && question >= 1 && question <= questions) {
+                current.questionGrades[question - 1] = rs.getFloat("Grade");
+            }
+        }
+        metrics.rowsRead(rows);
+        if (current != null) {
+            consumer.accept(current);
+        }
+    }
+
+    /**
+     * Count the submissions of an exercise made in [from, to), from the index alone.
+     *
+     * @param exercise the exercise
+     * @param from the earliest submission time (inclusive)
+     * @param to the latest submission time (exclusive)
+     * @return the number of submissions.
+     * @throws SQLException
+     */
+    public int countSubmissions(Exercise exercise, Date from, Date to) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return read(st -> {
+                PreparedStatement ps = st.get(COUNT_SUBMISSIONS_IN_RANGE);
+                ps.setInt(1, exercise.id);
+                TimeCodec.bind(ps, 2, from);
+                TimeCodec.bind(ps, 3, to);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : 0;
+                }
+            });
+        } finally {
+            metrics.record("countSubmissions", start);
+        }
+    }
+
+    /**
+     * Count the late submissions (made after the due date) of every exercise.
+     * One index range per exercise is counted; the Submission table itself is not read.
+     *
+     * @return the number of late submissions by exercise id, in exercise id order (0 for exercises without any).
+     * @throws SQLException
+     */
+    public Map<Integer, Integer> countLateSubmissions() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return read(st -> countByExercise(st.get(COUNT_LATE_SUBMISSIONS)));
+        } finally {
+            metrics.record("countLateSubmissions", start);
+        }
+    }
+
+    /**
+     * Count, for every exercise, the submissions made in the given window before its due date, i.e. in
+     * (dueDate - windowMillis, dueDate]. One index range per exercise is counted.
+     *
+     * @param windowMillis the length of the window, e.g. one hour
+     * @return the number of submissions in the window by exercise id, in exercise id order.
+     * @throws SQLException
+     */
+    public Map<Integer, Integer> countSubmissionsBeforeDeadline(long windowMillis) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return read(st -> {
+                PreparedStatement ps = st.get(COUNT_BEFORE_DEADLINE);
+                ps.setLong(1, windowMillis);
+                return countByExercise(ps);
+            });
+        } finally {
+            metrics.record("countSubmissionsBeforeDeadline", start);
+        }
+    }
+
+    private Map<Integer, Integer> countByExercise(PreparedStatement ps) throws SQLException {
+        Map<Integer, Integer> counts = new LinkedHashMap<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                counts.put(rs.getInt("ExerciseId"), rs.getInt("Count"));
+            }
+        }
+        metrics.rowsRead(counts.size());
+        return counts;
+    }
+
+    /**
+     * Return the number of submissions of an exercise per {@link #HISTOGRAM_BUCKET_MILLIS} bucket.
+     * <p>
+     * With the histogram table on (see {@link #rebuildSubmissionHistogram()}) this reads the precomputed counts;
+     * otherwise the counts are computed from the (ExerciseId, SubmissionTime) index. Empty buckets are omitted.
+     *
+     * @param exercise the exercise
+     * @return the number of submissions by bucket start time (in milliseconds since the epoch), in time order.
+     * @throws SQLException
+     */
+    public NavigableMap<Long, Integer> getSubmissionHistogram(Exercise exercise) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return read(st -> {
+                PreparedStatement ps = st.get(submissionHistogram ? HISTOGRAM_FROM_TABLE : HISTOGRAM_FROM_INDEX);
+                ps.setInt(1, exercise.id);
+                NavigableMap<Long, Integer> histogram = new TreeMap<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        histogram.put(rs.getLong("Bucket") * HISTOGRAM_BUCKET_MILLIS, rs.getInt("Count"));
+                    }
+                }
+                metrics.rowsRead(histogram.size());
+                return histogram;
+            });
+        } finally {
+            metrics.record("getSubmissionHistogram", start);
+        }
+    }
+
+    /**
+     * Build the SubmissionHistogram table, and start using it.
+     * <p>
+     * The table holds the number of submissions of every exercise per hour. Once it exists,
+     * {@link #storeSubmissions} increments the bucket of every new submission in the same transaction, and
+     * {@link #getSubmissionHistogram(Exercise)} reads it instead of counting the index.
+     * Like the submission summary, it is built by feature migrations ({@link #HISTOGRAM_MIGRATIONS}, backfilled in
+     * chunks of exercises) and off by default because the table is not part of the base schema.
+     *
+     * @throws SQLException
+     */
+    public void rebuildSubmissionHistogram() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            migrateFeature(HISTOGRAM_MIGRATIONS);
+        } finally {
+            metrics.record("rebuildSubmissionHistogram", start);
+        }
+    }
+
+    /**
+     * @return true if the histogram table is maintained and used (see {@link #rebuildSubmissionHistogram()}).
+     */
+    public boolean isSubmissionHistogramEnabled() {
+        return submissionHistogram;
+    }
+
+    // ============= Change Log ===============
+
+    /**
+     * Create the ChangeLog and ChangeLogConsumer tables (if needed) and start logging.
+     * <p>
+     * From then on, every user upsert, exercise addition, stored submission and regrade appends an event (see
+     * {@link ChangeEvent}) to the log in the same transaction as the change, so a committed change always has its
+     * event and a rolled back one never does. All the writes hold the writer lock, so offsets are assigned in commit
+     * order and a consumer that has read up to some offset never misses an earlier event committed later.
+     * Changes made before the log was enabled are not in it.
+     * <p>
+     * Like the submission summary, it is off by default because the tables are not part of the base schema (they are
+     * created by {@link #CHANGE_LOG_MIGRATIONS}). Once enabled, the log stays on for the database: it is detected by
+     * {@link #openDB}, and by the next write of the instances that already have the database open.
+     *
+     * @throws SQLException
+     */
+    public void enableChangeLog() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            migrateFeature(CHANGE_LOG_MIGRATIONS);
+        } finally {
+            metrics.record("enableChangeLog", start);
+        }
+    }
+
+    /**
+     * @return true if the writes append to the change log (see {@link #enableChangeLog()}).
+     */
+    public boolean isChangeLogEnabled() {
+        return changeLog;
+    }
+
+    /**
+     * Read the events after the given offset, in offset order.
+     *
+     * @param afterOffset the offset of the last event already seen (0 for the start of the log)
+     * @param limit the maximal number of events returned
+     * @return the events; empty if there are no newer ones.
+     * @throws SQLException
+     */
+    public List<ChangeEvent> readChanges(long afterOffset, int limit) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return read(st -> {
+                PreparedStatement ps = st.get(SELECT_CHANGES);
+                ps.setLong(1, afterOffset);
+                ps.setInt(2, limit);
+                List<ChangeEvent> events = new ArrayList<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        events.add(new ChangeEvent(rs.getLong(1), ChangeEvent.Kind.of(rs.getInt(2)), optionalId(rs, 3),
+                                optionalId(rs, 4), optionalId(rs, 5), TimeCodec.requiredMillis(rs, 6)));
+                    }
+                }
+                metrics.rowsRead(events.size());
+                return events;
+            });
+        } finally {
+            metrics.record("readChanges", start);
+        }
+    }
+
+    private static int optionalId(ResultSet rs, int column) throws SQLException {
+        int id = rs.getInt(column);
+        return rs.wasNull() ? -1 : id;
+    }
+
+    /**
+     * @return the stored offset of the consumer, or 0 if it never committed one.
+     * @throws SQLException
+     */
+    public long getConsumerOffset(String consumer) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return read(st -> {
+                PreparedStatement ps = st.get(SELECT_CONSUMER_OFFSET);
+                ps.setString(1, consumer);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                }
+            });
+        } finally {
+            metrics.record("getConsumerOffset", start);
+        }
+    }
+
+    /**
+     * Store the offset of the last event the consumer has handled. The offset is stored as given, so a consumer
+     * may also move back.
+     *
+     * @throws SQLException
+     */
+    public void commitConsumerOffset(String consumer, long offset) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            writeLock.lock();
+            try {
+                PreparedStatement ps = statements.get(UPSERT_CONSUMER_OFFSET);
+                try {
+                    ps.setString(1, consumer);
+                    ps.setLong(2, offset);
+                    ps.executeUpdate();
+                    db.commit();
+                } catch (SQLException e) {
+                    db.rollback();
+                    throw e;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            metrics.record("commitConsumerOffset", start);
+        }
+    }
+
+    /**
+     * Delete the events up to the given offset (e.g. the smallest offset committed by all the consumers).
+     * Later events keep their offsets, and new events never reuse the deleted ones.
+     *
+     * @return the number of deleted events.
+     * @throws SQLException
+     */
+    public int pruneChangeLog(long upToOffset) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            writeLock.lock();
+            try {
+                PreparedStatement ps = statements.get(PRUNE_CHANGE_LOG);
+                try {
+                    ps.setLong(1, upToOffset);
+                    int deleted = ps.executeUpdate();
+                    db.commit();
+                    return deleted;
+                } catch (SQLException e) {
+                    db.rollback();
+                    throw e;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            metrics.record("pruneChangeLog", start);
+        }
+    }
+
+    /**
+     * Create a consumer that tails the change log from its stored offset.
+     *
+     * @param consumer the name under which the consumer's offset is stored
+     * @param batchSize the maximal number of events returned by one {@link ChangeLogConsumer#poll()}
+     * @return the consumer.
+     * @throws SQLException
+     */
+    public ChangeLogConsumer subscribe(String consumer, int batchSize) throws SQLException {
+        return new ChangeLogConsumer(this, consumer, batchSize);
+    }
+
+    // ============= Bulk Reads ===============
+
+    /**
+     * Load all the submissions and their grades into a columnar {@link SubmissionTable}.
+     * <p>
+     * Submission and QuestionGrade are each scanned once in SubmissionId order and merged in memory, so the cost is
+     * one sequential pass over both tables instead of one query per submission. The users and exercises are loaded
+     * too, so the table can materialize rows as {@link Submission}s. All the scans read the same snapshot.
+     *
+     * @return a snapshot of all the submissions.
+     * @throws SQLException also if a submission has no SubmissionTime
+     */
+    public SubmissionTable loadSubmissionTable() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return read(st -> {
+                Connection connection = st.connection();
+                // reader connections are in autocommit mode: group the scans in one read transaction
+                boolean autoCommit = connection.getAutoCommit();
+                if (autoCommit) {
+                    connection.setAutoCommit(false);
+                }
+                try {
+                    return readSubmissionTable(st);
+                } finally {
+                    if (autoCommit) {
+                        connection.setAutoCommit(true);
+                    }
+                }
+            });
+        } finally {
+            metrics.record("loadSubmissionTable", start);
+        }
+    }
+
+    /**
+     * Compute the gradebook of the whole course: the best and latest totals and the on-time status of every user in
+     * every exercise, with per-exercise statistics.
+     * <p>
+     * All the submissions are loaded with {@link #loadSubmissionTable()} and aggregated in memory, in parallel across
+     * exercises, instead of calling {@link #getBestSubmission} and {@link #getLastSubmission} for every pair.
+     *
+     * @return the gradebook.
+     * @throws SQLException
+     */
+    public Gradebook loadGradebook() throws SQLException {
+        return Gradebook.compute(loadSubmissionTable());
+    }
+
+    /**
+     * Write an immutable, memory-mappable snapshot of the users, exercises, submissions and grades (see
+     * {@link GradeSnapshot}), replacing the file.
+     * <p>
+     * The database is read once, in a single read transaction (see {@link #loadSubmissionTable()}), so the snapshot
+     * is consistent while writers keep storing submissions; the table is held in memory until the file is written.
+     *
+     * @param file the snapshot file
+     * @return the size of the file in bytes.
+     * @throws SQLException
+     * @throws IOException if the file can't be written
+     */
+    public long exportSnapshot(Path file) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            return GradeSnapshot.write(loadSubmissionTable(), file);
+        } finally {
+            metrics.record("exportSnapshot", start);
+        }
+    }
+
+    /**
+     * Run a query and hand each row of its cursor to the consumer, without collecting the results.
+     * <p>
+     * The consumer must not keep the result set. Without a reader pool, writers wait until the scan is over.
+     *
+     * @param sql the query (without parameters)
+     * @param consumer called once per row, with the cursor positioned on that row
+     * @throws SQLException
+     */
+    void scan(String sql, ResultConsumer<ResultSet> consumer) throws SQLException {
+        read(st -> {
+            long rows = 0;
+            try (ResultSet rs = st.get(sql).executeQuery()) {
+                while (rs.next()) {
+                    rows++;
+                    consumer.accept(rs);
+                }
+            } finally {
+                metrics.rowsRead(rows);
+            }
+            return null;
+        });
+    }
+
+    private SubmissionTable readSubmissionTable(StatementCache st) throws SQLException {
+        IntMap<User> users = new IntMap<>();
+        try (ResultSet rs = st.get(SELECT_ALL_USERS).executeQuery()) {
+            while (rs.next()) {
+                users.put(rs.getInt(1), new User(rs.getString(2), rs.getString(3), rs.getString(4)));
+            }
+            metrics.rowsRead(users.size());
+        }
+        IntMap<Exercise> exercises = new IntMap<>();
+        try (ResultSet rs = st.get(SELECT_EXERCISES_WITH_QUESTIONS).executeQuery()) {
+            readExercises(rs, exercise -> exercises.put(exercise.id, exercise));
+        }
+
+        int n = 0;
+        int[] ids = new int[1024];
+        int[] userIds = new int[1024];
+        int[] exerciseIds = new int[1024];
+        long[] times = new long[1024];
+        try (ResultSet rs = st.get(SELECT_ALL_SUBMISSIONS).executeQuery()) {
+            while (rs.next()) {
+                if (n == ids.length) {
+                    ids = Arrays.copyOf(ids, n * 2);
+                    userIds = Arrays.copyOf(userIds, n * 2);
+                    exerciseIds = Arrays.copyOf(exerciseIds, n * 2);
+                    times = Arrays.copyOf(times, n * 2);
+                }
+                ids[n] = rs.getInt(1);
+                userIds[n] = rs.getInt(2);
+                exerciseIds[n] = rs.getInt(3);
+                times[n] = TimeCodec.requiredMillis(rs, 4);
+                n++;
+            }
+            metrics.rowsRead(n);
+        }
+
+        // merge the grades into the submissions; both are ordered by SubmissionId
+        int[] gradeStart = new int[n];
+        int[] gradeEnd = new int[n];
+        float[] grades = new float[Math.max(16, n * 4)];
+        int length = 0;
+        int r = -1;
+        long gradeRows = 0;
+        try (ResultSet rs = st.get(SELECT_ALL_GRADES).executeQuery()) {
+            while (rs.next()) {
+                gradeRows++;
+                int submissionId = rs.getInt(1);
+                while (r + 1 < n && ids[r + 1] <= submissionId) {
+                    r++;
+                    gradeStart[r] = gradeEnd[r] = length;
+                }
+                int questionId = rs.getInt(2);
+                // skip the grades of submissions that don't exist, and question ids that aren't numbered from 1
+                if (r < 0 || ids[r] != submissionId || questionId < 1) {
+                    continue;
+                }
+                int slot = gradeStart[r] + questionId - 1;
+                if (slot >= grades.length) {
+                    grades = Arrays.copyOf(grades, Math.max(grades.length * 2, slot + 1));
+                }
+                // a missing question gets a 0 grade, so grades stay addressable by question
+                while (gradeEnd[r] < slot) {
+                    grades[gradeEnd[r]++] = 0;
+                }
+                grades[slot] = rs.getFloat(3);
+                gradeEnd[r] = slot + 1;
+                length = gradeEnd[r];
+            }
+        }
+        metrics.rowsRead(gradeRows);
+        while (r + 1 < n) {
+            r++;
+            gradeStart[r] = gradeEnd[r] = length;
+        }
+        return SubmissionTable.build(n, ids, userIds, exerciseIds, times, gradeStart, gradeEnd, grades, users, exercises);
     }
 }
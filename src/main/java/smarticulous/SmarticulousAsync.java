@@ -0,0 +1,286 @@
+package smarticulous;
+
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A non-blocking facade over an open {@link Smarticulous}: every operation returns a {@link CompletableFuture}
+ * instead of blocking the calling thread on SQLite.
+ * <p>
+ * Reads run on the read executor - one virtual thread per call on Java 21+, see {@link #newReadExecutor(int)} -
+ * and at most maxConcurrentReads of them are inside Smarticulous at a time. SQLite calls are JNI calls, which pin a
+ * virtual thread to its carrier, so the bound is what keeps thousands of waiting callers from occupying every carrier
+ * thread; it should match the reader pool of the database (see {@link Smarticulous#openDB(String, int)}).
+ * Callers waiting for a permit are parked, not pinned.
+ * <p>
+ * Submissions go to a {@link SubmissionWriter}, which group-commits them, and the other writes to a single writer
+ * thread, since all the writes serialize on the writer connection anyway.
+ * <p>
+ * A read fails with a {@link TimeoutException} if it hasn't completed within the timeout. A read that times out while
+ * waiting for a permit is dropped; one that already started runs to completion.
+ * <p>
+ * A write only times out while it waits for the writer thread: a write that times out is dropped, and one that
+ * started completes with its result, however long it takes. So a write whose future failed with a timeout was never
+ * applied and can be retried. Submissions accepted by the submission writer always complete with their id (or the
+ * failure of their group); the bound on them is the size of its queue, see {@link #storeSubmission(Submission)}.
+ * <p>
+ * End-to-end latencies (including the wait) are recorded in the database's {@link Metrics} as "async.&lt;name&gt;".
+ */
+public class SmarticulousAsync implements AutoCloseable {
+    /**
+     * How long the submission writer collects a group before committing it.
+     */
+    static final long SUBMISSION_WINDOW_MILLIS = 2;
+
+    /**
+     * The largest group of submissions committed together.
+     */
+    static final int SUBMISSION_MAX_BATCH = 500;
+
+    private final Smarticulous smarticulous;
+    private final ExecutorService readExecutor;
+    private final boolean ownsReadExecutor;
+    private final Semaphore readPermits;
+    private final ExecutorService writeExecutor;
+    private final SubmissionWriter submissionWriter;
+    private final long timeoutMillis;
+
+    /**
+     * Create a facade with its own read executor (see {@link #newReadExecutor(int)}).
+     *
+     * @param smarticulous the open database, preferably with a reader pool
+     * @param maxConcurrentReads how many reads may run in the database at the same time
+     * @param maxQueuedSubmissions how many submissions may wait for the submission writer
+     * @param timeoutMillis the time after which a call fails with a TimeoutException
+     */
+    public SmarticulousAsync(Smarticulous smarticulous, int maxConcurrentReads, int maxQueuedSubmissions,
+                             long timeoutMillis) {
+        this(smarticulous, newReadExecutor(maxConcurrentReads), true, maxConcurrentReads, maxQueuedSubmissions,
+                timeoutMillis);
+    }
+
+    /**
+     * Create a facade that runs its reads on the given executor, which the caller keeps owning (e.g. a shared
+     * pool on a JDK without virtual threads).
+     *
+     * @param smarticulous the open database, preferably with a reader pool
+     * @param readExecutor runs the reads
+     * @param maxConcurrentReads how many reads may run in the database at the same time
+     * @param maxQueuedSubmissions how many submissions may wait for the submission writer
+     * @param timeoutMillis the time after which a call fails with a TimeoutException
+     */
+    public SmarticulousAsync(Smarticulous smarticulous, ExecutorService readExecutor, int maxConcurrentReads,
+                             int maxQueuedSubmissions, long timeoutMillis) {
+        this(smarticulous, readExecutor, false, maxConcurrentReads, maxQueuedSubmissions, timeoutMillis);
+    }
+
+    private SmarticulousAsync(Smarticulous smarticulous, ExecutorService readExecutor, boolean ownsReadExecutor,
+                              int maxConcurrentReads, int maxQueuedSubmissions, long timeoutMillis) {
+        if (maxConcurrentReads <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid async settings: maxConcurrentReads=" + maxConcurrentReads
+                    + ", timeout=" + timeoutMillis + "ms");
+        }
+        this.smarticulous = smarticulous;
+        this.readExecutor = readExecutor;
+        this.ownsReadExecutor = ownsReadExecutor;
+        this.readPermits = new Semaphore(maxConcurrentReads, true);
+        this.timeoutMillis = timeoutMillis;
+        this.writeExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "smarticulous-async-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.submissionWriter = new SubmissionWriter(smarticulous, SUBMISSION_WINDOW_MILLIS, SUBMISSION_MAX_BATCH,
+                maxQueuedSubmissions);
+    }
+
+    /**
+     * A virtual-thread-per-task executor on Java 21+. On older JDKs, where a blocked call occupies a whole platform
+     * thread, a fixed pool of maxConcurrentReads daemon threads is returned instead, and the calls beyond that wait
+     * in its queue.
+     *
+     * @param maxConcurrentReads the size of the fallback pool
+     * @return the executor.
+     */
+    public static ExecutorService newReadExecutor(int maxConcurrentReads) {
+        try {
+            // looked up reflectively, so the code still builds and runs on Java 11
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(maxConcurrentReads, r -> {
+                Thread thread = new Thread(r, "smarticulous-async-reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // =========== Reads =============
+
+    public CompletableFuture<Boolean> verifyLogin(String username, String password) {
+        return read("verifyLogin", () -> smarticulous.verifyLogin(username, password));
+    }
+
+    public CompletableFuture<List<Exercise>> loadExercises() {
+        return read("loadExercises", smarticulous::loadExercises);
+    }
+
+    public CompletableFuture<Exercise> getExercise(int id) {
+        return read("getExercise", () -> smarticulous.getExercise(id));
+    }
+
+    public CompletableFuture<Submission> getLastSubmission(User user, Exercise exercise) {
+        return read("getLastSubmission", () -> smarticulous.getLastSubmission(user, exercise));
+    }
+
+    public CompletableFuture<Submission> getBestSubmission(User user, Exercise exercise) {
+        return read("getBestSubmission", () -> smarticulous.getBestSubmission(user, exercise));
+    }
+
+    // =========== Writes =============
+
+    public CompletableFuture<Integer> addOrUpdateUser(User user, String password) {
+        return write("addOrUpdateUser", () -> smarticulous.addOrUpdateUser(user, password));
+    }
+
+    public CompletableFuture<Integer> addExercise(Exercise exercise) {
+        return write("addExercise", () -> smarticulous.addExercise(exercise));
+    }
+
+    /**
+     * Queue a submission for the group-committing writer.
+     * <p>
+     * The future doesn't time out: once the writer accepted the submission, it will be committed (or fail with its
+     * group), and the future is the only way to learn its id.
+     *
+     * @return the future id of the stored submission (-1 for an unknown user); failed with a
+     * {@link RejectedExecutionException} right away if the submission queue is full.
+     */
+    public CompletableFuture<Integer> storeSubmission(Submission submission) {
+        long start = System.nanoTime();
+        CompletableFuture<Integer> future;
+        try {
+            future = submissionWriter.offer(submission, 0, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        } catch (RejectedExecutionException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        return recorded("storeSubmission", start, future);
+    }
+
+    private <T> CompletableFuture<T> read(String name, Callable<T> call) {
+        long start = System.nanoTime();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            readExecutor.execute(() -> run(future, readPermits, call));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return recorded(name, start, future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS));
+    }
+
+    private <T> CompletableFuture<T> write(String name, Callable<T> call) {
+        long start = System.nanoTime();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        // either the write starts or the timeout fires, never both: a started write completes with its result
+        AtomicBoolean claimed = new AtomicBoolean();
+        try {
+            writeExecutor.execute(() -> {
+                if (claimed.compareAndSet(false, true)) {
+                    run(future, null, call);
+                }
+            });
+            CompletableFuture.delayedExecutor(timeoutMillis, TimeUnit.MILLISECONDS).execute(() -> {
+                if (claimed.compareAndSet(false, true)) {
+                    future.completeExceptionally(new TimeoutException(name + " did not start within "
+                            + timeoutMillis + " ms"));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return recorded(name, start, future);
+    }
+
+    private <T> CompletableFuture<T> recorded(String name, long start, CompletableFuture<T> future) {
+        return future.whenComplete((result, failure) -> smarticulous.metrics.record("async." + name, start));
+    }
+
+    private static <T> void run(CompletableFuture<T> future, Semaphore permits, Callable<T> call) {
+        if (permits != null) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return;
+            }
+        }
+        try {
+            // a call that timed out while waiting doesn't need to run any more
+            if (!future.isDone()) {
+                future.complete(call.call());
+            }
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * @return the number of reads waiting for a permit.
+     */
+    public int waitingReads() {
+        return readPermits.getQueueLength();
+    }
+
+    /**
+     * Write the queued submissions and stop the writer threads (and the read executor, if this facade created it).
+     * The database itself stays open.
+     * <p>
+     * The other queued writes are given up to the timeout to finish. Like {@link SubmissionWriter#close()}, an
+     * interrupt doesn't cut the wait short; the interrupt status is restored before returning.
+     */
+    @Override
+    public void close() {
+        submissionWriter.close();
+        writeExecutor.shutdown();
+        boolean interrupted = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            try {
+                writeExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownsReadExecutor) {
+            readExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package smarticulous;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQLite tuning settings applied by {@link Smarticulous#openDB(String, int, SqliteProfile)}.
+ * <p>
+ * A profile is immutable; the {@code with...} methods return modified copies. {@link #DEFAULT} keeps SQLite's own
+ * defaults, {@link #TUNED} is meant for a server process that owns the database file:
+ * <ul>
+ *   <li>mmap_size - read pages through a memory map instead of read() calls (per connection);</li>
+ *   <li>cache_size - the page cache of each connection;</li>
+ *   <li>WAL journaling with synchronous=NORMAL - a commit is an append to the log without an fsync; a power loss
+ *       may lose the last transactions but never corrupts the database;</li>
+ *   <li>temp_store=MEMORY - sorts and temporary indexes stay in memory;</li>
+ *   <li>page_size - the page size of a database created by this open (ignored for existing databases).</li>
+ * </ul>
+ */
+public final class SqliteProfile {
+    /**
+     * SQLite's defaults: no pragmas are set (WAL is still turned on when reader connections are requested).
+     */
+    public static final SqliteProfile DEFAULT = new SqliteProfile(-1, 0, false, null, false, 0);
+
+    /**
+     * 256MB memory map, 64MB page cache per connection, WAL with synchronous=NORMAL, in-memory temp storage and
+     * 8KB pages for new databases.
+     */
+    public static final SqliteProfile TUNED = new SqliteProfile(256L << 20, 64 << 10, true, "NORMAL", true, 8192);
+
+    private final long mmapSize;
+    private final int cacheSizeKib;
+    private final boolean wal;
+    private final String synchronous;
+    private final boolean tempStoreMemory;
+    private final int pageSize;
+
+    private SqliteProfile(long mmapSize, int cacheSizeKib, boolean wal, String synchronous, boolean tempStoreMemory,
+                          int pageSize) {
+        this.mmapSize = mmapSize;
+        this.cacheSizeKib = cacheSizeKib;
+        this.wal = wal;
+        this.synchronous = synchronous;
+        this.tempStoreMemory = tempStoreMemory;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @param bytes the maximal size of the memory map (0 disables it, -1 keeps the default)
+     */
+    public SqliteProfile withMmapSize(long bytes) {
+        return new SqliteProfile(bytes, cacheSizeKib, wal, synchronous, tempStoreMemory, pageSize);
+    }
+
+    /**
+     * @param kib the page cache size of each connection, in KiB (0 keeps the default)
+     */
+    public SqliteProfile withCacheSizeKib(int kib) {
+        return new SqliteProfile(mmapSize, kib, wal, synchronous, tempStoreMemory, pageSize);
+    }
+
+    /**
+     * @param wal true to switch the database to WAL journaling
+     */
+    public SqliteProfile withWal(boolean wal) {
+        return new SqliteProfile(mmapSize, cacheSizeKib, wal, synchronous, tempStoreMemory, pageSize);
+    }
+
+    /**
+     * @param synchronous OFF, NORMAL, FULL or EXTRA (null keeps the default)
+     */
+    public SqliteProfile withSynchronous(String synchronous) {
+        if (synchronous != null && !synchronous.matches("(?i)OFF|NORMAL|FULL|EXTRA")) {
+            throw new IllegalArgumentException("unknown synchronous mode " + synchronous);
+        }
+        return new SqliteProfile(mmapSize, cacheSizeKib, wal, synchronous, tempStoreMemory, pageSize);
+    }
+
+    /**
+     * @param memory true to keep temporary tables and indexes in memory
+     */
+    public SqliteProfile withTempStoreMemory(boolean memory) {
+        return new SqliteProfile(mmapSize, cacheSizeKib, wal, synchronous, memory, pageSize);
+    }
+
+    /**
+     * @param bytes the page size of new databases: a power of two between 512 and 65536 (0 keeps the default)
+     */
+    public SqliteProfile withPageSize(int bytes) {
+        if (bytes != 0 && (bytes < 512 || bytes > 65536 || Integer.bitCount(bytes) != 1)) {
+            throw new IllegalArgumentException("page size must be a power of two between 512 and 65536: " + bytes);
+        }
+        return new SqliteProfile(mmapSize, cacheSizeKib, wal, synchronous, tempStoreMemory, bytes);
+    }
+
+    public long getMmapSize() {
+        return mmapSize;
+    }
+
+    public int getCacheSizeKib() {
+        return cacheSizeKib;
+    }
+
+    public boolean isWal() {
+        return wal;
+    }
+
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    public boolean isTempStoreMemory() {
+        return tempStoreMemory;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * The pragmas that change the database file, run once on the writer connection before anything else.
+     *
+     * @param wal true if WAL is needed regardless of the profile (e.g. for reader connections)
+     */
+    List<String> databasePragmas(boolean wal) {
+        List<String> pragmas = new ArrayList<>();
+        // page_size only takes effect before the first table is created
+        if (pageSize > 0) {
+            pragmas.add("PRAGMA page_size = " + pageSize + ";");
+        }
+        if (wal || this.wal) {
+            pragmas.add("PRAGMA journal_mode = WAL;");
+        }
+        return pragmas;
+    }
+
+    /**
+     * The pragmas that only affect the connection they run on, run on every connection.
+     */
+    List<String> connectionPragmas() {
+        List<String> pragmas = new ArrayList<>();
+        if (synchronous != null) {
+            pragmas.add("PRAGMA synchronous = " + synchronous.toUpperCase() + ";");
+        }
+        if (mmapSize >= 0) {
+            pragmas.add("PRAGMA mmap_size = " + mmapSize + ";");
+        }
+        if (cacheSizeKib > 0) {
+            // a negative cache_size is in KiB rather than pages
+            pragmas.add("PRAGMA cache_size = -" + cacheSizeKib + ";");
+        }
+        if (tempStoreMemory) {
+            pragmas.add("PRAGMA temp_store = MEMORY;");
+        }
+        return pragmas;
+    }
+
+    @Override
+    public String toString() {
+        List<String> pragmas = databasePragmas(false);
+        pragmas.addAll(connectionPragmas());
+        return pragmas.isEmpty() ? "SqliteProfile[default]" : "SqliteProfile" + pragmas;
+    }
+}
@@ -0,0 +1,96 @@
+package smarticulous;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A cache of prepared statements tied to a single connection.
+ * <p>
+ * Each SQL shape is compiled once and then reused with new bound parameters on every call.
+ * Statements handed out by the cache are owned by it: callers must close the result sets they open,
+ * but must never close the statements themselves. All the statements are closed together by {@link #close()}.
+ */
+class StatementCache implements AutoCloseable {
+    /**
+     * The connection all the cached statements belong to.
+     */
+    private final Connection connection;
+
+    /**
+     * The compiled statements, keyed by their SQL text.
+     */
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    StatementCache(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * @return the connection the cached statements belong to.
+     */
+    Connection connection() {
+        return connection;
+    }
+
+    /**
+     * Compile the given SQL shapes ahead of time.
+     *
+     * @param sqls the statements to prepare
+     * @throws SQLException
+     */
+    void prepareAll(String... sqls) throws SQLException {
+        for (String sql : sqls) {
+            get(sql);
+        }
+    }
+
+    /**
+     * Return the prepared statement for the given SQL, compiling it if this is the first time it is used.
+     *
+     * @param sql the SQL text of the statement
+     * @return the cached prepared statement.
+     * @throws SQLException
+     */
+    PreparedStatement get(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps == null) {
+            ps = connection.prepareStatement(sql);
+            statements.put(sql, ps);
+        }
+        return ps;
+    }
+
+    /**
+     * @return the number of statements currently cached.
+     */
+    int size() {
+        return statements.size();
+    }
+
+    /**
+     * Close all the cached statements (but not the connection).
+     * Every statement is closed even if closing one of them fails; the first failure is rethrown at the end.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+        SQLException failure = null;
+        for (PreparedStatement ps : statements.values()) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        statements.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package smarticulous;
+
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The storage operations of the grading system, independent of where the data lives.
+ * <p>
+ * {@link Smarticulous} is the SQLite implementation; {@link InMemoryStorage} keeps everything on the heap;
+ * {@link ShardedStorage} splits the submissions across several SQLite files.
+ * Every implementation follows the contracts documented on {@link Smarticulous}.
+ */
+public interface StorageEngine extends AutoCloseable {
+
+    // =========== User Management =============
+
+    /**
+     * Add a user / modify an existing user (see {@link Smarticulous#addOrUpdateUser(User, String)}).
+     *
+     * @return the userid.
+     */
+    int addOrUpdateUser(User user, String password) throws SQLException;
+
+    /**
+     * @return true if the user exists and the password matches; false otherwise.
+     */
+    boolean verifyLogin(String username, String password) throws SQLException;
+
+    // =========== Exercise Management =============
+
+    /**
+     * Add an exercise.
+     *
+     * @return the new exercise id, or -1 if an exercise with this id already exists.
+     */
+    int addExercise(Exercise exercise) throws SQLException;
+
+    /**
+     * @return all the exercises, sorted by exercise id.
+     */
+    List<Exercise> loadExercises() throws SQLException;
+
+    // ========== Submission Storage ===============
+
+    /**
+     * Store a submission and its grades (see {@link Smarticulous#storeSubmission(Submission)}).
+     *
+     * @return the submission id, or -1 if the user doesn't exist.
+     */
+    int storeSubmission(Submission submission) throws SQLException;
+
+    /**
+     * Store a batch of submissions (see {@link Smarticulous#storeSubmissions(Collection)}).
+     *
+     * @return the submission ids, -1 for submissions of unknown users.
+     */
+    int[] storeSubmissions(Collection<Submission> submissions) throws SQLException;
+
+    // ============= Submission Query ===============
+
+    /**
+     * @return the latest submission of the exercise by the user, or null if there is none.
+     */
+    Submission getLastSubmission(User user, Exercise exercise) throws SQLException;
+
+    /**
+     * @return the submission of the exercise by the user with the highest total grade, or null if there is none.
+     */
+    Submission getBestSubmission(User user, Exercise exercise) throws SQLException;
+
+    /**
+     * Release the storage.
+     */
+    @Override
+    void close() throws SQLException;
+}
@@ -0,0 +1,326 @@
+package smarticulous;
+
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * A read-only, columnar snapshot of all the submissions and their grades.
+ * <p>
+ * Instead of one {@link Submission} (with its own {@link Date} and float[]) per submission, every column is a single
+ * primitive array: submission, user and exercise ids, the submission times in epoch millis, and one flat array of
+ * grades. The grades of row r are {@code grades[gradeOffsets[r] .. gradeOffsets[r + 1])}, the grade of question q
+ * (numbered from 1) at index q - 1.
+ * <p>
+ * Rows are grouped by exercise (in exercise id order) and ordered by submission id within an exercise, so the
+ * submissions of the exercise at index e are rows {@link #exerciseStart(int)} to {@link #exerciseEnd(int)}.
+ * <p>
+ * {@link View} reads a row without allocating, and {@link #asSubmission(int)} materializes a row as a regular
+ * {@link Submission} for code that needs one.
+ * Tables are loaded with {@link Smarticulous#loadSubmissionTable()} and are safe to share between threads.
+ */
+public final class SubmissionTable {
+    private final int size;
+    private final int[] submissionIds;
+    private final int[] userIds;
+    private final int[] exerciseIds;
+    private final long[] times;
+    private final int[] gradeOffsets;
+    private final float[] grades;
+
+    /**
+     * The distinct exercise ids, ascending, and the first row of each (with one extra entry for the end).
+     */
+    private final int[] exercises;
+    private final int[] exerciseOffsets;
+
+    private final IntMap<User> users;
+    private final IntMap<Exercise> exerciseDefs;
+
+    private SubmissionTable(int size, int[] submissionIds, int[] userIds, int[] exerciseIds, long[] times,
+                            int[] gradeOffsets, float[] grades, int[] exercises, int[] exerciseOffsets,
+                            IntMap<User> users, IntMap<Exercise> exerciseDefs) {
+        this.size = size;
+        this.submissionIds = submissionIds;
+        this.userIds = userIds;
+        this.exerciseIds = exerciseIds;
+        this.times = times;
+        this.gradeOffsets = gradeOffsets;
+        this.grades = grades;
+        this.exercises = exercises;
+        this.exerciseOffsets = exerciseOffsets;
+        this.users = users;
+        this.exerciseDefs = exerciseDefs;
+    }
+
+    /**
+     * Build a table from rows in any order.
+     * The grades of row r are {@code flatGrades[gradeStart[r] .. gradeEnd[r])}.
+     * The arrays may be longer than n; they are not kept.
+     *
+     * @param users the users, by user id
+     * @param exerciseDefs the exercises, by exercise id
+     */
+    static SubmissionTable build(int n, int[] submissionIds, int[] userIds, int[] exerciseIds, long[] times,
+                                 int[] gradeStart, int[] gradeEnd, float[] flatGrades,
+                                 IntMap<User> users, IntMap<Exercise> exerciseDefs) {
+        // count the rows of every exercise
+        IntMap<int[]> counts = new IntMap<>();
+        for (int r = 0; r < n; ++r) {
+            int[] count = counts.get(exerciseIds[r]);
+            if (count == null) {
+                count = new int[1];
+                counts.put(exerciseIds[r], count);
+            }
+            count[0]++;
+        }
+        // turn the counts into the next free row of every exercise (a stable counting sort)
+        int[] exercises = counts.sortedKeys();
+        int[] exerciseOffsets = new int[exercises.length + 1];
+        for (int e = 0; e < exercises.length; ++e) {
+            int[] count = counts.get(exercises[e]);
+            exerciseOffsets[e + 1] = exerciseOffsets[e] + count[0];
+            count[0] = exerciseOffsets[e];
+        }
+
+        int[] rowOf = new int[n];
+        int totalGrades = 0;
+        for (int r = 0; r < n; ++r) {
+            rowOf[r] = counts.get(exerciseIds[r])[0]++;
+            totalGrades += gradeEnd[r] - gradeStart[r];
+        }
+
+        int[] ids = new int[n];
+        int[] uids = new int[n];
+        int[] exids = new int[n];
+        long[] ts = new long[n];
+        int[] gradeCounts = new int[n];
+        for (int r = 0; r < n; ++r) {
+            int to = rowOf[r];
+            ids[to] = submissionIds[r];
+            uids[to] = userIds[r];
+            exids[to] = exerciseIds[r];
+            ts[to] = times[r];
+            gradeCounts[to] = gradeEnd[r] - gradeStart[r];
+        }
+        int[] offsets = new int[n + 1];
+        for (int r = 0; r < n; ++r) {
+            offsets[r + 1] = offsets[r] + gradeCounts[r];
+        }
+        float[] gs = new float[totalGrades];
+        for (int r = 0; r < n; ++r) {
+            System.arraycopy(flatGrades, gradeStart[r], gs, offsets[rowOf[r]], gradeEnd[r] - gradeStart[r]);
+        }
+        return new SubmissionTable(n, ids, uids, exids, ts, offsets, gs, exercises, exerciseOffsets, users, exerciseDefs);
+    }
+
+    /**
+     * @return the number of submissions (rows).
+     */
+    public int size() {
+        return size;
+    }
+
+    public int submissionId(int row) {
+        return submissionIds[row];
+    }
+
+    public int userId(int row) {
+        return userIds[row];
+    }
+
+    public int exerciseId(int row) {
+        return exerciseIds[row];
+    }
+
+    /**
+     * @return the submission time of the row, in milliseconds since the epoch.
+     */
+    public long time(int row) {
+        return times[row];
+    }
+
+    /**
+     * @return the number of grades stored for the row.
+     */
+    public int gradeCount(int row) {
+        return gradeOffsets[row + 1] - gradeOffsets[row];
+    }
+
+    /**
+     * @param question the question index (0 for the first question)
+     * @return the grade of the question, or 0 if the row has no grade for it.
+     */
+    public float grade(int row, int question) {
+        int index = gradeOffsets[row] + question;
+        return question >= 0 && index < gradeOffsets[row + 1] ? grades[index] : 0;
+    }
+
+    /**
+     * @return the sum of the grades of the row.
+     */
+    public double total(int row) {
+        double total = 0;
+        for (int i = gradeOffsets[row]; i < gradeOffsets[row + 1]; ++i) {
+            total += grades[i];
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of distinct exercises that have submissions.
+     */
+    public int exerciseCount() {
+        return exercises.length;
+    }
+
+    /**
+     * @param index the exercise index, between 0 and {@link #exerciseCount()} - 1 (in exercise id order)
+     * @return the id of the exercise.
+     */
+    public int exerciseIdAt(int index) {
+        return exercises[index];
+    }
+
+    /**
+     * @return the index of the exercise with the given id, or -1 if it has no submissions.
+     */
+    public int exerciseIndex(int exerciseId) {
+        int index = Arrays.binarySearch(exercises, exerciseId);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * @return the first row of the exercise at the given index.
+     */
+    public int exerciseStart(int index) {
+        return exerciseOffsets[index];
+    }
+
+    /**
+     * @return one past the last row of the exercise at the given index.
+     */
+    public int exerciseEnd(int index) {
+        return exerciseOffsets[index + 1];
+    }
+
+    /**
+     * @return the user with the given id, or null if there is no such user.
+     */
+    public User user(int userId) {
+        return users.get(userId);
+    }
+
+    /**
+     * @return the exercise with the given id, or null if there is no such exercise.
+     */
+    public Exercise exercise(int exerciseId) {
+        return exerciseDefs.get(exerciseId);
+    }
+
+    /**
+     * @return the ids of all the users loaded with the table (with or without submissions), ascending.
+     */
+    int[] userIds() {
+        return users.sortedKeys();
+    }
+
+    /**
+     * @return the ids of all the exercises loaded with the table (with or without submissions), ascending.
+     */
+    int[] exerciseIds() {
+        return exerciseDefs.sortedKeys();
+    }
+
+    /**
+     * Materialize a row as a {@link Submission}.
+     * Its grades array has one entry per question of the exercise (or per stored grade, if the exercise is unknown).
+     *
+     * @return a new submission; the user and exercise objects are shared with the table.
+     */
+    public Submission asSubmission(int row) {
+        Exercise exercise = exerciseDefs.get(exerciseIds[row]);
+        int count = exercise != null ? exercise.questions.size() : gradeCount(row);
+        float[] result = new float[count];
+        System.arraycopy(grades, gradeOffsets[row], result, 0, Math.min(count, gradeCount(row)));
+        return new Submission(submissionIds[row], users.get(userIds[row]), exercise, TimeCodec.date(times[row]), result);
+    }
+
+    /**
+     * @return a new cursor over this table, positioned at row 0.
+     */
+    public View view() {
+        return new View();
+    }
+
+    /**
+     * A movable, allocation-free view of one row, for code that reads submissions one at a time.
+     * A view is not thread-safe, but any number of views may read the same table.
+     */
+    public final class View {
+        private int row;
+
+        /**
+         * Move the view to another row.
+         *
+         * @return this view.
+         */
+        public View moveTo(int row) {
+            if (row < 0 || row >= size) {
+                throw new IndexOutOfBoundsException("row " + row + " of " + size);
+            }
+            this.row = row;
+            return this;
+        }
+
+        public int row() {
+            return row;
+        }
+
+        public int id() {
+            return submissionIds[row];
+        }
+
+        public int userId() {
+            return userIds[row];
+        }
+
+        public int exerciseId() {
+            return exerciseIds[row];
+        }
+
+        public long time() {
+            return times[row];
+        }
+
+        public int gradeCount() {
+            return SubmissionTable.this.gradeCount(row);
+        }
+
+        public float grade(int question) {
+            return SubmissionTable.this.grade(row, question);
+        }
+
+        public double total() {
+            return SubmissionTable.this.total(row);
+        }
+
+        public User user() {
+            return users.get(userIds[row]);
+        }
+
+        public Exercise exercise() {
+            return exerciseDefs.get(exerciseIds[row]);
+        }
+
+        /**
+         * @return the row as a new {@link Submission}.
+         */
+        public Submission asSubmission() {
+            return SubmissionTable.this.asSubmission(row);
+        }
+    }
+}
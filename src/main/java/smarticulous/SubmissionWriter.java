@@ -0,0 +1,327 @@
+package smarticulous;
+
+import smarticulous.db.Submission;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous, group-committing submission ingestion.
+ * <p>
+ * Callers enqueue submissions and get a future for the submission id. A background thread collects everything that
+ * arrives within a short window (or until a maximal batch size is reached) and stores the whole group with a single
+ * {@link Smarticulous#storeSubmissions} call, i.e. a single commit. Under a burst of submissions this turns one fsync
+ * per submission into one fsync per group.
+ * <p>
+ * The queue is bounded: {@link #submit(Submission)} blocks while it is full, and
+ * {@link #offer(Submission, long, TimeUnit)} gives up after a timeout.
+ * The futures complete with -1 for submissions of unknown users (as {@link Smarticulous#storeSubmission} returns),
+ * and exceptionally if the submission itself can't be stored. A group whose commit fails (e.g. because one of its
+ * submissions reuses an existing SubmissionId) is split in halves and retried, down to single submissions, so only
+ * the futures of the offending submissions fail.
+ */
+public class SubmissionWriter implements AutoCloseable {
+    /**
+     * A queued submission and the future of its id.
+     */
+    private static class Pending {
+        final Submission submission;
+        final CompletableFuture<Integer> id = new CompletableFuture<>();
+
+        Pending(Submission submission) {
+            this.submission = submission;
+        }
+    }
+
+    private final Smarticulous smarticulous;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final BlockingQueue<Pending> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // ---- metrics ----
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong submissions = new AtomicLong();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private final AtomicLong commitNanos = new AtomicLong();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong failedSubmissions = new AtomicLong();
+
+    /**
+     * Start a writer thread for the given (open) database.
+     *
+     * @param smarticulous the database to store the submissions in
+     * @param windowMillis how long to keep collecting submissions after the first one of a group arrives
+     * @param maxBatch the maximal number of submissions committed together
+     * @param capacity the maximal number of submissions waiting in the queue
+     */
+    public SubmissionWriter(Smarticulous smarticulous, long windowMillis, int maxBatch, int capacity) {
+        if (windowMillis < 0 || maxBatch <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Invalid writer settings: window=" + windowMillis
+                    + "ms, maxBatch=" + maxBatch + ", capacity=" + capacity);
+        }
+        this.smarticulous = smarticulous;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatch = maxBatch;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::run, "smarticulous-submission-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Enqueue a submission, waiting for room in the queue if it is full.
+     *
+     * @param submission the submission to store
+     * @return the future id of the stored submission.
+     * @throws InterruptedException if interrupted while waiting for room in the queue
+     */
+    public CompletableFuture<Integer> submit(Submission submission) throws InterruptedException {
+        checkRunning();
+        Pending pending = new Pending(submission);
+        queue.put(pending);
+        return checkQueued(pending);
+    }
+
+    /**
+     * Enqueue a submission, waiting at most the given time for room in the queue.
+     *
+     * @param submission the submission to store
+     * @param timeout how long to wait for room in the queue
+     * @param unit the unit of timeout
+     * @return the future id of the stored submission; failed with a {@link RejectedExecutionException} if the queue
+     * stayed full.
+     * @throws InterruptedException if interrupted while waiting for room in the queue
+     */
+    public CompletableFuture<Integer> offer(Submission submission, long timeout, TimeUnit unit) throws InterruptedException {
+        checkRunning();
+        Pending pending = new Pending(submission);
+        if (!queue.offer(pending, timeout, unit)) {
+            pending.id.completeExceptionally(new RejectedExecutionException("Submission queue is full"));
+            return pending.id;
+        }
+        return checkQueued(pending);
+    }
+
+    private void checkRunning() {
+        if (!running) {
+            throw new RejectedExecutionException("SubmissionWriter is closed");
+        }
+    }
+
+    /**
+     * Look at {@link #running} again after enqueuing: if the writer stopped in between, its last drain of the queue
+     * may have missed the submission, so take it back and reject it. If it is no longer in the queue, the writer (or
+     * {@link #close()}) took it and completes its future.
+     */
+    private CompletableFuture<Integer> checkQueued(Pending pending) {
+        if (!running && queue.remove(pending)) {
+            throw new RejectedExecutionException("SubmissionWriter is closed");
+        }
+        return pending.id;
+    }
+
+    /**
+     * The writer loop: wait for a first submission, collect a group around it and commit the group.
+     * <p>
+     * If the loop dies (e.g. an Error while storing), the writer stops accepting submissions and fails every
+     * pending future, since nothing would complete them any more.
+     */
+    private void run() {
+        List<Pending> group = new ArrayList<>(maxBatch);
+        try {
+            loop(group);
+        } catch (Throwable t) {
+            running = false;
+            for (Pending pending : group) {
+                pending.id.completeExceptionally(t);
+            }
+            Pending queued;
+            while ((queued = queue.poll()) != null) {
+                queued.id.completeExceptionally(t);
+            }
+            throw t;
+        }
+    }
+
+    private void loop(List<Pending> group) {
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (group.size() < maxBatch) {
+                    // take whatever is already queued without waiting, then wait for the rest of the window
+                    if (queue.drainTo(group, maxBatch - group.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                // an interrupted writer stops, but whatever was collected is still written
+                running = false;
+            }
+            if (!group.isEmpty()) {
+                commit(group);
+                group.clear();
+            }
+        }
+    }
+
+    /**
+     * Store a group of submissions in one transaction and complete their futures.
+     * <p>
+     * A failed commit rolls back the whole group, so the group is bisected and both halves are committed again: a
+     * single bad submission costs about 2*log2(group size) extra commits, and fails only its own future.
+     */
+    private void commit(List<Pending> group) {
+        List<Submission> subs = new ArrayList<>(group.size());
+        for (Pending pending : group) {
+            subs.add(pending.submission);
+        }
+        long start = System.nanoTime();
+        try {
+            int[] ids = smarticulous.storeSubmissions(subs);
+            record(group.size(), System.nanoTime() - start);
+            for (int i = 0; i < ids.length; ++i) {
+                group.get(i).id.complete(ids[i]);
+            }
+        } catch (SQLException | RuntimeException e) {
+            failedBatches.incrementAndGet();
+            if (group.size() == 1) {
+                failedSubmissions.incrementAndGet();
+                group.get(0).id.completeExceptionally(e);
+                return;
+            }
+            int half = group.size() / 2;
+            commit(group.subList(0, half));
+            commit(group.subList(half, group.size()));
+        }
+    }
+
+    private void record(int size, long nanos) {
+        batches.incrementAndGet();
+        submissions.addAndGet(size);
+        commitNanos.addAndGet(nanos);
+        maxBatchSize.accumulateAndGet(size, Math::max);
+        maxCommitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Stop accepting submissions, write everything that is still queued and stop the writer thread.
+     * <p>
+     * Waits for the writer thread even if the calling thread is interrupted, so every queued future is completed when
+     * this returns; the interrupt status is restored afterwards. This is why close() doesn't throw
+     * InterruptedException, and the writer can be used in a try-with-resources without handling it.
+     */
+    @Override
+    public void close() {
+        running = false;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                writer.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        // a submission that raced with close() after the writer's last look at the queue is rejected
+        Pending late;
+        while ((late = queue.poll()) != null) {
+            late.id.completeExceptionally(new RejectedExecutionException("SubmissionWriter is closed"));
+        }
+    }
+
+    /**
+     * @return the number of submissions waiting in the queue.
+     */
+    public int queued() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of groups committed so far.
+     */
+    public long batchCount() {
+        return batches.get();
+    }
+
+    /**
+     * @return the number of submissions committed so far.
+     */
+    public long submissionCount() {
+        return submissions.get();
+    }
+
+    /**
+     * @return the number of failed commits, counting the retries of the halves of a failed group.
+     */
+    public long failedBatchCount() {
+        return failedBatches.get();
+    }
+
+    /**
+     * @return the number of submissions whose future failed because they couldn't be stored on their own.
+     */
+    public long failedSubmissionCount() {
+        return failedSubmissions.get();
+    }
+
+    /**
+     * @return the largest group committed so far.
+     */
+    public long maxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    /**
+     * @return the average number of submissions per committed group.
+     */
+    public double averageBatchSize() {
+        long n = batches.get();
+        return n == 0 ? 0 : (double) submissions.get() / n;
+    }
+
+    /**
+     * @return the average time (in ms) it took to store and commit a group.
+     */
+    public double averageCommitMillis() {
+        long n = batches.get();
+        return n == 0 ? 0 : commitNanos.get() / 1e6 / n;
+    }
+
+    /**
+     * @return the longest time (in ms) it took to store and commit a group.
+     */
+    public double maxCommitMillis() {
+        return maxCommitNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SubmissionWriter[%d submissions in %d batches (avg %.1f, max %d), commit avg %.2fms max %.2fms, %d queued]",
+                submissionCount(), batchCount(), averageBatchSize(), maxBatchSize(), averageCommitMillis(),
+                maxCommitMillis(), queued());
+    }
+}
@@ -0,0 +1,120 @@
+package smarticulous;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * The one place where times cross between the domain objects and the database.
+ * <p>
+ * Every time (Exercise.DueDate, Submission.SubmissionTime) is stored as an INTEGER holding milliseconds since the
+ * epoch. SQLite integers are 64-bit and stored in 1 to 8 bytes depending on their magnitude (6 for current dates),
+ * so any long round-trips exactly; a missing date is stored as NULL. Times must always be read with
+ * {@link ResultSet#getLong} - reading them as int silently truncates them.
+ * <p>
+ * The storage internals (SubmissionTable, the summary and histogram maintenance, InMemoryStorage) keep times as
+ * primitive longs; a {@link Date} is only created when a domain object is handed out.
+ */
+final class TimeCodec {
+    private TimeCodec() {
+    }
+
+    /**
+     * @param date a required date (e.g. a submission time)
+     * @return the milliseconds since the epoch of the date.
+     * @throws NullPointerException if the date is null
+     */
+    static long millis(Date date) {
+        return Objects.requireNonNull(date, "missing date").getTime();
+    }
+
+    /**
+     * @param date a date, or null
+     * @return the milliseconds since the epoch of the date, or {@code ifNull} for a null date.
+     */
+    static long millis(Date date, long ifNull) {
+        return date == null ? ifNull : date.getTime();
+    }
+
+    /**
+     * @param millis milliseconds since the epoch
+     * @return the date.
+     */
+    static Date date(long millis) {
+        return new Date(millis);
+    }
+
+    /**
+     * Bind a date (null binds NULL).
+     */
+    static void bind(PreparedStatement ps, int index, Date date) throws SQLException {
+        if (date == null) {
+            ps.setNull(index, Types.INTEGER);
+        } else {
+            ps.setLong(index, date.getTime());
+        }
+    }
+
+    /**
+     * Bind a time in milliseconds since the epoch.
+     */
+    static void bind(PreparedStatement ps, int index, long millis) throws SQLException {
+        ps.setLong(index, millis);
+    }
+
+    /**
+     * Read a time column without allocating.
+     *
+     * @return the milliseconds since the epoch, or {@code ifNull} if the column is NULL.
+     */
+    static long millis(ResultSet rs, String column, long ifNull) throws SQLException {
+        long millis = rs.getLong(column);
+        return rs.wasNull() ? ifNull : millis;
+    }
+
+    /**
+     * @see #millis(ResultSet, String, long)
+     */
+    static long millis(ResultSet rs, int column, long ifNull) throws SQLException {
+        long millis = rs.getLong(column);
+        return rs.wasNull() ? ifNull : millis;
+    }
+
+    /**
+     * Read a required time column (e.g. SubmissionTime) without allocating.
+     *
+     * @return the milliseconds since the epoch.
+     * @throws SQLException if the column is NULL; a missing time is never read as the epoch
+     */
+    static long requiredMillis(ResultSet rs, String column) throws SQLException {
+        long millis = rs.getLong(column);
+        if (rs.wasNull()) {
+            throw new SQLException("missing " + column);
+        }
+        return millis;
+    }
+
+    /**
+     * @see #requiredMillis(ResultSet, String)
+     */
+    static long requiredMillis(ResultSet rs, int column) throws SQLException {
+        long millis = rs.getLong(column);
+        if (rs.wasNull()) {
+            throw new SQLException("missing " + rs.getMetaData().getColumnLabel(column));
+        }
+        return millis;
+    }
+
+    /**
+     * Read a time column as a date.
+     *
+     * @return the date, or null if the column is NULL.
+     */
+    static Date date(ResultSet rs, String column) throws SQLException {
+        long millis = rs.getLong(column);
+        return rs.wasNull() ? null : new Date(millis);
+    }
+}
@@ -0,0 +1,44 @@
+package smarticulous;
+
+/**
+ * The outcome of a bulk import or export ({@link BulkIO}).
+ */
+public class TransferStats {
+    /**
+     * Number of records read (import) or written (export): users, exercises or submissions.
+     */
+    public long records;
+
+    /**
+     * Number of records stored in the database by an import.
+     */
+    public long stored;
+
+    /**
+     * Number of records an import skipped (exercises that already existed, submissions of unknown users).
+     */
+    public long skipped;
+
+    /**
+     * Number of transactions used by an import.
+     */
+    public long transactions;
+
+    /**
+     * Wall-clock duration of the transfer, in milliseconds.
+     */
+    public long millis;
+
+    /**
+     * @return the throughput, in records per second.
+     */
+    public double recordsPerSecond() {
+        return millis == 0 ? records * 1000.0 : records * 1000.0 / millis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d records (%d stored, %d skipped) in %d ms, %d transactions, %.0f records/sec",
+                records, stored, skipped, millis, transactions, recordsPerSecond());
+    }
+}
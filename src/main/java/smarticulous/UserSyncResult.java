@@ -0,0 +1,29 @@
+package smarticulous;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The outcome of a bulk user sync ({@link Smarticulous#addOrUpdateUsers(Map)}).
+ */
+public class UserSyncResult {
+    /**
+     * Number of users that didn't exist and were inserted.
+     */
+    public int inserted;
+
+    /**
+     * Number of existing users whose details were updated.
+     */
+    public int updated;
+
+    /**
+     * The user id of every synced user, keyed by username.
+     */
+    public Map<String, Integer> userIds = new HashMap<>();
+
+    @Override
+    public String toString() {
+        return inserted + " inserted, " + updated + " updated";
+    }
+}
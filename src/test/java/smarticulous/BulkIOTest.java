@@ -0,0 +1,177 @@
+package smarticulous;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips through the CSV and JSONL import/export, and the parsers behind them.
+ */
+public class BulkIOTest {
+    DBUtil db = new DBUtil(1);
+    File tmpdb = null;
+    File copydb = null;
+    Smarticulous source = new Smarticulous();
+    Smarticulous target = new Smarticulous();
+
+    @Before
+    public void setUp() throws Exception {
+        tmpdb = db.open(null);
+        db.fillRandomDB();
+        copydb = File.createTempFile("testBulkIO", "sqlite");
+        copydb.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        source.closeDB();
+        target.closeDB();
+        db.close();
+        if (tmpdb != null)
+            tmpdb.delete();
+        copydb.delete();
+    }
+
+    @Test
+    public void bulk_roundTripCsv() throws Exception {
+        roundTrip(BulkIO.Format.CSV);
+    }
+
+    @Test
+    public void bulk_roundTripJsonl() throws Exception {
+        roundTrip(BulkIO.Format.JSONL);
+    }
+
+    void roundTrip(BulkIO.Format format) throws Exception {
+        source.openDB(db.getDbUrl());
+        target.openDB(db.convertFileToURL(copydb));
+        // small chunks, so the import needs several transactions
+        BulkIO from = new BulkIO(source, 7);
+        BulkIO to = new BulkIO(target, 7);
+
+        StringWriter users = new StringWriter();
+        assertEquals(db.getNumUsers(), from.exportUsers(users, format).records);
+        TransferStats imported = to.importUsers(new StringReader(users.toString()), format);
+        assertEquals(db.getNumUsers(), imported.stored);
+        assertTrue("Import should be chunked", imported.transactions > 1);
+
+        StringWriter exercises = new StringWriter();
+        from.exportExercises(exercises, format);
+        assertEquals(db.getNumExercises(), to.importExercises(new StringReader(exercises.toString()), format).stored);
+        // importing the same exercises again skips them all
+        assertEquals(db.getNumExercises(), to.importExercises(new StringReader(exercises.toString()), format).skipped);
+
+        StringWriter submissions = new StringWriter();
+        TransferStats exported = from.exportSubmissions(submissions, format);
+        assertEquals(exported.records, to.importSubmissions(new StringReader(submissions.toString()), format).stored);
+
+        for (int uid = 1; uid <= db.getNumUsers(); ++uid) {
+            User user = db.getUser(uid);
+            assertTrue(target.verifyLogin(user.username, db.getPassword(uid)));
+            for (int exid = 1; exid <= db.getNumExercises(); ++exid) {
+                Exercise ex = db.getExercise(exid);
+                Submission expected = source.getLastSubmission(user, ex);
+                Submission actual = target.getLastSubmission(user, ex);
+                if (expected == null) {
+                    assertNull(actual);
+                    continue;
+                }
+                assertEquals(expected.id, actual.id);
+                assertEquals(expected.submissionTime.getTime(), actual.submissionTime.getTime());
+                assertArrayEquals(expected.questionGrades, actual.questionGrades, 0);
+            }
+        }
+        for (Exercise ex : target.loadExercises())
+            db.checkExercise(ex);
+    }
+
+    @Test
+    public void bulk_jsonlGradesByQuestion() throws Exception {
+        source.openDB(db.convertFileToURL(copydb));
+        User alice = new User("alice", "Alice", "A");
+        source.addOrUpdateUser(alice, "pass");
+        Exercise ex = new Exercise(1, "ex1", new Date(1000));
+        ex.addQuestion("q1", "question 1", 10);
+        ex.addQuestion("q2", "question 2", 10);
+        ex.addQuestion("q3", "question 3", 10);
+        source.addExercise(ex);
+        int id = source.storeSubmission(new Submission(alice, ex, new Date(500), new float[]{1, 2, 3}));
+        // the grade of the middle question goes missing
+        try (Statement st = source.db.createStatement()) {
+            st.executeUpdate("DELETE FROM QuestionGrade WHERE SubmissionId = " + id + " AND QuestionId = 2;");
+        }
+        source.db.commit();
+
+        StringWriter out = new StringWriter();
+        new BulkIO(source).exportSubmissions(out, BulkIO.Format.JSONL);
+        assertTrue(out.toString(), out.toString().contains("\"grades\":[1.0,0,3.0]"));
+
+        // JSON has no infinity
+        source.storeSubmission(new Submission(alice, ex, new Date(600), new float[]{Float.POSITIVE_INFINITY}));
+        try {
+            new BulkIO(source).exportSubmissions(new StringWriter(), BulkIO.Format.JSONL);
+            fail("An infinite grade was exported as JSON");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void bulk_csvQuoting() throws Exception {
+        StringWriter out = new StringWriter();
+        Csv.writeRow(out, "plain", "with,comma", "with \"quotes\"", "two\nlines", null, 3);
+        Csv.RowReader reader = new Csv.RowReader(new StringReader(out + "\r\n\r\nlast,row"));
+        assertEquals(Arrays.asList("plain", "with,comma", "with \"quotes\"", "two\nlines", "", "3"), reader.next());
+        assertEquals(Arrays.asList("last", "row"), reader.next());
+        assertNull(reader.next());
+        assertEquals(2, reader.line());
+    }
+
+    @Test
+    public void bulk_jsonParsing() throws Exception {
+        StringBuilder name = new StringBuilder();
+        Json.writeString(name, "tab\t\"quote\" \\ \u0001");
+        Map<String, Object> object = Json.parseObject(
+                "{\"name\": " + name + ", \"id\": 12, \"grades\": [1.5, -2, 3e2], \"none\": null, \"ok\": true}");
+        assertEquals("tab\t\"quote\" \\ \u0001", object.get("name"));
+        assertEquals(12L, object.get("id"));
+        assertEquals(Arrays.asList(1.5, -2L, 300.0), object.get("grades"));
+        assertTrue(object.containsKey("none"));
+        assertEquals(Boolean.TRUE, object.get("ok"));
+
+        for (String bad : new String[]{"", "[1]", "{\"a\":1", "{\"a\":1} x", "{\"a\":tru}"}) {
+            try {
+                Json.parseObject(bad);
+                fail("Parsed malformed JSON: " + bad);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void bulk_rejectsBadHeader() throws Exception {
+        target.openDB(db.convertFileToURL(copydb));
+        try {
+            new BulkIO(target).importUsers(new StringReader("name,password\nx,y\n"), BulkIO.Format.CSV);
+            fail("A file with the wrong header should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package smarticulous;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * The change log: which writes append events, offsets, and consumers tailing from their stored offsets.
+ */
+public class ChangeLogTest {
+    File tmpdb;
+    String url;
+    Smarticulous smarticulous = new Smarticulous();
+    User alice = new User("alice", "Alice", "A");
+    Exercise ex1 = new Exercise(1, "ex1", new Date(1000));
+
+    @Before
+    public void setUp() throws Exception {
+        tmpdb = File.createTempFile("smarticulousChangeLog", ".sqlite");
+        tmpdb.delete();
+        url = "jdbc:sqlite:" + tmpdb.getPath();
+        smarticulous.openDB(url);
+        ex1.addQuestion("q1", "question 1", 10);
+        ex1.addQuestion("q2", "question 2", 10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        smarticulous.closeDB();
+        tmpdb.delete();
+    }
+
+    static List<ChangeEvent.Kind> kinds(List<ChangeEvent> events) {
+        List<ChangeEvent.Kind> kinds = new ArrayList<>();
+        for (ChangeEvent event : events)
+            kinds.add(event.kind);
+        return kinds;
+    }
+
+    @Test
+    public void changeLog_offByDefault() throws Exception {
+        assertFalse(smarticulous.isChangeLogEnabled());
+        smarticulous.addOrUpdateUser(alice, "pass");
+        smarticulous.enableChangeLog();
+        assertTrue(smarticulous.isChangeLogEnabled());
+        assertTrue("changes before enabling aren't logged", smarticulous.readChanges(0, 10).isEmpty());
+
+        // the log is detected when the database is opened again
+        smarticulous.closeDB();
+        smarticulous.openDB(url);
+        assertTrue(smarticulous.isChangeLogEnabled());
+    }
+
+    @Test
+    public void changeLog_enabledByAnotherInstance() throws Exception {
+        // enabled by another instance, after this one was opened: the next write finds the log
+        Smarticulous other = new Smarticulous();
+        other.openDB(url);
+        other.enableChangeLog();
+        other.closeDB();
+        assertFalse(smarticulous.isChangeLogEnabled());
+
+        int aliceId = smarticulous.addOrUpdateUser(alice, "pass");
+        assertTrue(smarticulous.isChangeLogEnabled());
+        List<ChangeEvent> events = smarticulous.readChanges(0, 10);
+        assertEquals(Collections.singletonList(ChangeEvent.Kind.USER_UPSERTED), kinds(events));
+        assertEquals(aliceId, events.get(0).userId);
+    }
+
+    @Test
+    public void changeLog_everyWrite() throws Exception {
+        smarticulous.enableChangeLog();
+        int aliceId = smarticulous.addOrUpdateUser(alice, "pass");
+        smarticulous.addExercise(ex1);
+        // an existing exercise isn't added again, and isn't logged
+        smarticulous.addExercise(ex1);
+        int subId = smarticulous.storeSubmission(new Submission(alice, ex1, new Date(500), new float[]{1, 2}));
+        // a submission of an unknown user isn't stored, and isn't logged
+        smarticulous.storeSubmission(new Submission(new User("nobody", null, null), ex1, new Date(500), new float[]{1}));
+        Map<Integer, float[]> regrade = new HashMap<>();
+        regrade.put(subId, new float[]{3, 4});
+        regrade.put(subId + 1000, new float[]{3, 4});
+        smarticulous.regradeSubmissions(ex1, regrade);
+
+        List<ChangeEvent> events = smarticulous.readChanges(0, 100);
+        assertEquals(Arrays.asList(ChangeEvent.Kind.USER_UPSERTED, ChangeEvent.Kind.EXERCISE_ADDED,
+                ChangeEvent.Kind.SUBMISSION_STORED, ChangeEvent.Kind.GRADES_WRITTEN), kinds(events));
+        for (int i = 1; i < events.size(); ++i)
+            assertTrue("offsets must increase", events.get(i).offset > events.get(i - 1).offset);
+
+        assertEquals(aliceId, events.get(0).userId);
+        assertEquals(-1, events.get(0).exerciseId);
+        assertEquals(ex1.id, events.get(1).exerciseId);
+        assertEquals(-1, events.get(1).userId);
+        for (ChangeEvent event : events.subList(2, 4)) {
+            assertEquals(subId, event.submissionId);
+            assertEquals(aliceId, event.userId);
+            assertEquals(ex1.id, event.exerciseId);
+        }
+
+        assertEquals(events.subList(2, 4).toString(),
+                smarticulous.readChanges(events.get(1).offset, 100).toString());
+        assertEquals(1, smarticulous.readChanges(0, 1).size());
+    }
+
+    @Test
+    public void changeLog_rolledBackWritesAreNotLogged() throws Exception {
+        smarticulous.enableChangeLog();
+        smarticulous.addOrUpdateUser(alice, "pass");
+        smarticulous.addExercise(ex1);
+        Submission first = new Submission(alice, ex1, new Date(500), new float[]{1, 2});
+        first.id = smarticulous.storeSubmission(first);
+        int before = smarticulous.readChanges(0, 100).size();
+
+        // the second submission reuses the id, so the whole batch fails
+        Submission duplicate = new Submission(first.id, alice, ex1, new Date(600), new float[]{1, 2});
+        try {
+            smarticulous.storeSubmissions(Arrays.asList(new Submission(alice, ex1, new Date(550), new float[]{1}),
+                    duplicate));
+            fail("a duplicate submission id was stored");
+        } catch (java.sql.SQLException expected) {
+        }
+        assertEquals(before, smarticulous.readChanges(0, 100).size());
+    }
+
+    @Test
+    public void changeLog_consumersResumeFromTheirOffsets() throws Exception {
+        smarticulous.enableChangeLog();
+        smarticulous.addOrUpdateUser(alice, "pass");
+        smarticulous.addExercise(ex1);
+        List<Submission> subs = new ArrayList<>();
+        for (int i = 0; i < 25; ++i)
+            subs.add(new Submission(alice, ex1, new Date(i), new float[]{i, i}));
+        smarticulous.storeSubmissions(subs);
+
+        ChangeLogConsumer leaderboard = smarticulous.subscribe("leaderboard", 10);
+        assertEquals(0, leaderboard.position());
+        assertEquals(10, leaderboard.poll().size());
+        leaderboard.commit();
+        // a polled but uncommitted batch is seen again after a restart
+        List<ChangeEvent> uncommitted = leaderboard.poll();
+        assertEquals(10, uncommitted.size());
+
+        ChangeLogConsumer restarted = smarticulous.subscribe("leaderboard", 10);
+        assertEquals(uncommitted.toString(), restarted.poll().toString());
+        assertEquals(7, restarted.poll().size());
+        assertTrue(restarted.poll().isEmpty());
+        restarted.commit();
+
+        // another consumer has its own offset
+        ChangeLogConsumer notifications = smarticulous.subscribe("notifications", 100);
+        assertEquals(27, notifications.poll().size());
+
+        // new events are picked up where the consumer stopped
+        smarticulous.storeSubmission(new Submission(alice, ex1, new Date(100), new float[]{1, 1}));
+        List<ChangeEvent> next = restarted.poll();
+        assertEquals(Collections.singletonList(ChangeEvent.Kind.SUBMISSION_STORED), kinds(next));
+
+        // pruned offsets are not reused
+        long last = next.get(0).offset;
+        assertEquals(28, smarticulous.pruneChangeLog(last));
+        smarticulous.addOrUpdateUser(alice, "other");
+        List<ChangeEvent> afterPrune = smarticulous.readChanges(0, 100);
+        assertEquals(1, afterPrune.size());
+        assertTrue(afterPrune.get(0).offset > last);
+
+        restarted.seek(0);
+        assertEquals(1, restarted.poll().size());
+        assertEquals(27, smarticulous.getConsumerOffset("leaderboard"));
+    }
+}
@@ -0,0 +1,172 @@
+package smarticulous;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Multi-threaded correctness test: several threads mix logins, exercise and submission reads and submission writes
+ * against a single {@link Smarticulous} instance.
+ */
+public class ConcurrencyTest {
+    static final int THREADS = 8;
+    static final int OPS_PER_THREAD = 500;
+
+    DBUtil db = new DBUtil(1);
+    File tmpdb = null;
+    Smarticulous smarticulous = new Smarticulous();
+
+    List<User> users = new ArrayList<>();
+    List<String> passwords = new ArrayList<>();
+    List<Exercise> exercises = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        tmpdb = db.open(null);
+        db.fillRandomDB();
+        for (int uid = 1; uid <= db.getNumUsers(); ++uid) {
+            users.add(db.getUser(uid));
+            passwords.add(db.getPassword(uid));
+        }
+        for (int exid = 1; exid <= db.getNumExercises(); ++exid)
+            exercises.add(db.getExercise(exid));
+        // release the file so the WAL switch doesn't have to wait for DBUtil's connection
+        db.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        smarticulous.closeDB();
+        if (tmpdb != null) {
+            new File(tmpdb.getPath() + "-wal").delete();
+            new File(tmpdb.getPath() + "-shm").delete();
+            tmpdb.delete();
+        }
+    }
+
+    /**
+     * Run the workload and return the ids of all the stored submissions.
+     */
+    private List<Integer> runWorkload() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            return runWorkload(pool);
+        } finally {
+            // don't leak the threads into the next test (or past closeDB) when a worker fails
+            pool.shutdownNow();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private List<Integer> runWorkload(ExecutorService pool) throws Exception {
+        List<Future<List<Integer>>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; ++t) {
+            final Random rand = new Random(t);
+            results.add(pool.submit(new Callable<List<Integer>>() {
+                @Override
+                public List<Integer> call() throws Exception {
+                    List<Integer> ids = new ArrayList<>();
+                    for (int i = 0; i < OPS_PER_THREAD; ++i) {
+                        int u = rand.nextInt(users.size());
+                        Exercise ex = exercises.get(rand.nextInt(exercises.size()));
+                        switch (i % 4) {
+                            case 0:
+                                assertTrue("Valid login rejected", smarticulous.verifyLogin(users.get(u).username, passwords.get(u)));
+                                break;
+                            case 1:
+                                assertNotNull("Exercise not found", smarticulous.getExercise(ex.id));
+                                break;
+                            case 2:
+                                smarticulous.getLastSubmission(users.get(u), ex);
+                                break;
+                            default:
+                                float[] grades = new float[ex.questions.size()];
+                                for (int q = 0; q < grades.length; ++q)
+                                    grades[q] = rand.nextFloat();
+                                ids.add(smarticulous.storeSubmission(new Submission(users.get(u), ex, new Date(), grades)));
+                        }
+                    }
+                    return ids;
+                }
+            }));
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (Future<List<Integer>> result : results)
+            ids.addAll(result.get());
+        return ids;
+    }
+
+    private void checkIds(List<Integer> ids) {
+        assertEquals(THREADS * (OPS_PER_THREAD / 4), ids.size());
+        assertFalse("A submission was not stored", ids.contains(-1));
+        Set<Integer> distinct = new HashSet<>(ids);
+        assertEquals("Two submissions got the same id", ids.size(), distinct.size());
+    }
+
+    @Test
+    public void concurrent_singleConnection() throws Exception {
+        smarticulous.openDB(db.convertFileToURL(tmpdb));
+        checkIds(runWorkload());
+    }
+
+    @Test
+    public void concurrent_readerPool() throws Exception {
+        smarticulous.openDB(db.convertFileToURL(tmpdb), 4);
+        checkIds(runWorkload());
+
+        // a committed submission is immediately visible to the readers
+        User user = users.get(0);
+        Exercise ex = exercises.get(0);
+        Submission sub = new Submission(user, ex, new Date(Long.MAX_VALUE / 2), new float[ex.questions.size()]);
+        int id = smarticulous.storeSubmission(sub);
+        assertEquals("Reader doesn't see the latest submission", id, smarticulous.getLastSubmission(user, ex).id);
+    }
+
+    @Test
+    public void concurrent_closeWaitsForReads() throws Exception {
+        smarticulous.openDB(db.convertFileToURL(tmpdb), 2);
+        ConnectionPool pool = smarticulous.readers;
+        // a read in progress on another thread
+        StatementCache borrowed = pool.acquire();
+        Thread closer = new Thread(() -> {
+            try {
+                smarticulous.closeDB();
+            } catch (java.sql.SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        closer.start();
+        closer.join(200);
+        assertTrue("closeDB didn't wait for the borrowed connection", closer.isAlive());
+        assertFalse(borrowed.connection().isClosed());
+        try {
+            pool.acquire();
+            fail("a closing pool lent out a connection");
+        } catch (java.sql.SQLException expected) {
+        }
+
+        pool.release(borrowed);
+        closer.join(10000);
+        assertFalse(closer.isAlive());
+        assertTrue(borrowed.connection().isClosed());
+        assertNull(smarticulous.db);
+    }
+}
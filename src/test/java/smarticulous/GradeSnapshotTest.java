@@ -0,0 +1,192 @@
+package smarticulous;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writing and mapping {@link GradeSnapshot} files: lookups against hand-built tables, and a snapshot of a live
+ * database compared with the SQL queries.
+ */
+public class GradeSnapshotTest {
+    Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("snapshot", ".grades");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    GradeSnapshot snapshot(SubmissionTable table) throws IOException {
+        assertEquals(GradeSnapshot.write(table, file), Files.size(file));
+        return GradeSnapshot.open(file);
+    }
+
+    @Test
+    public void snapshot_bestAndLatest() throws Exception {
+        GradebookTest.TableBuilder builder = new GradebookTest.TableBuilder()
+                .exercise(1, 100)
+                .add(1, 7, 1, 50, 5, 5)     // total 10
+                .add(2, 7, 1, 150, 1, 2)    // latest
+                .add(3, 8, 1, 130, 9, 9)
+                .add(4, 8, 1, 120, 9, 9)    // ties the best total, earlier
+                .add(5, 9, 1, 10)           // no grades
+                .add(6, 9, 2, 10, 3);       // an exercise with no definition
+        builder.userDefs.put(10, new User("idle", null, "Last"));
+        GradeSnapshot snapshot = snapshot(builder.build());
+
+        assertEquals(6, snapshot.size());
+        assertEquals(4, snapshot.userCount());
+        assertEquals(1, snapshot.exerciseCount());
+        assertEquals(2, snapshot.submissionId(snapshot.latestRow(7, 1)));
+        assertEquals(1, snapshot.submissionId(snapshot.bestRow(7, 1)));
+        assertEquals("a tie on the best total goes to the latest submission", 3,
+                snapshot.submissionId(snapshot.bestRow(8, 1)));
+        assertEquals(18, snapshot.total(snapshot.bestRow(8, 1)), 0);
+        assertEquals(-1, snapshot.bestRow(9, 1));
+        assertEquals(5, snapshot.submissionId(snapshot.latestRow(9, 1)));
+        assertEquals(6, snapshot.submissionId(snapshot.latestRow(9, 2)));
+        assertEquals(-1, snapshot.latestRow(7, 2));
+        assertEquals(-1, snapshot.latestRow(10, 1));
+
+        int first = snapshot.firstRow(7, 1);
+        assertEquals(1, snapshot.submissionId(first));
+        assertEquals(2, snapshot.submissionId(first + 1));
+        assertEquals(150, snapshot.time(first + 1));
+        assertEquals(2, snapshot.grade(first + 1, 1), 0);
+        assertEquals("a missing grade is 0", 0, snapshot.grade(first + 1, 2), 0);
+
+        assertEquals(10, snapshot.findUserId("idle"));
+        assertEquals(-1, snapshot.findUserId("nobody"));
+        assertNull(snapshot.user(10).firstname);
+        assertEquals(100, snapshot.exercise(1).dueDate.getTime());
+        assertNull(snapshot.exercise(2));
+
+        // the SQL semantics: a submission without grades isn't returned
+        Exercise ex1 = snapshot.exercise(1);
+        assertNull(snapshot.getLastSubmission(new User("user9", null, null), ex1));
+        Submission last = snapshot.getLastSubmission(new User("user7", null, null), ex1);
+        assertEquals(2, last.id);
+        assertEquals(150, last.submissionTime.getTime());
+    }
+
+    @Test
+    public void snapshot_stringsAndDates() throws Exception {
+        GradebookTest.TableBuilder builder = new GradebookTest.TableBuilder();
+        String[] names = {"zed", "\u00e9mile", "Zed", "", "\u05e9\u05dc\u05d5\u05dd", "a\u0000b", "\ud83d\ude00"};
+        for (int i = 0; i < names.length; ++i)
+            builder.userDefs.put(100 + i, new User(names[i], "First" + i, null));
+        Exercise undated = new Exercise(1, "undated", null);
+        undated.addQuestion("q1", null, 3);
+        undated.addQuestion("\u00e9", "desc", 4);
+        builder.exerciseDefs.put(1, undated);
+        builder.exerciseDefs.put(2, new Exercise(2, "ancient", new Date(Long.MIN_VALUE)));
+        GradeSnapshot snapshot = snapshot(builder.build());
+
+        assertEquals(0, snapshot.size());
+        for (int i = 0; i < names.length; ++i) {
+            assertEquals(names[i], 100 + i, snapshot.findUserId(names[i]));
+            assertEquals(names[i], snapshot.user(100 + i).username);
+        }
+        Exercise back = snapshot.exercise(1);
+        assertNull(back.dueDate);
+        assertEquals(2, back.questions.size());
+        assertNull(back.questions.get(0).desc);
+        assertEquals("\u00e9", back.questions.get(1).name);
+        assertEquals(4, back.questions.get(1).points);
+        assertEquals(Long.MIN_VALUE, snapshot.exercise(2).dueDate.getTime());
+    }
+
+    @Test
+    public void snapshot_rejectsOtherFiles() throws Exception {
+        Files.write(file, new byte[]{1, 2, 3, 4});
+        try {
+            GradeSnapshot.open(file);
+            fail("a file that isn't a snapshot was opened");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void snapshot_matchesDatabase() throws Exception {
+        DBUtil db = new DBUtil(1);
+        File tmpdb = db.open(null);
+        Smarticulous smarticulous = new Smarticulous();
+        try {
+            db.fillRandomDB();
+            smarticulous.openDB(db.getDbUrl());
+            Random rand = new Random(7);
+            List<Submission> subs = new ArrayList<>();
+            for (int i = 0; i < 200; ++i) {
+                Exercise ex = db.getExercise(rand.nextInt(db.getNumExercises()) + 1);
+                float[] grades = new float[ex.questions.size()];
+                for (int q = 0; q < grades.length; ++q)
+                    grades[q] = rand.nextInt(4);
+                subs.add(new Submission(db.getUser(rand.nextInt(db.getNumUsers()) + 1), ex,
+                        new Date(rand.nextInt(1000) * 1000L), grades));
+            }
+            smarticulous.storeSubmissions(subs);
+            smarticulous.exportSnapshot(file);
+            List<Submission> expectedLast = new ArrayList<>();
+            List<Submission> expectedBest = new ArrayList<>();
+            for (Submission sub : subs) {
+                expectedLast.add(smarticulous.getLastSubmission(sub.user, sub.exercise));
+                expectedBest.add(smarticulous.getBestSubmission(sub.user, sub.exercise));
+            }
+
+            // later writes don't reach the snapshot
+            for (Submission sub : subs)
+                smarticulous.storeSubmission(new Submission(sub.user, sub.exercise, new Date(Long.MAX_VALUE),
+                        new float[sub.questionGrades.length]));
+            GradeSnapshot snapshot = GradeSnapshot.open(file);
+            assertEquals(db.getNumUsers(), snapshot.userCount());
+            assertEquals(db.getNumExercises(), snapshot.exerciseCount());
+
+            for (int i = 0; i < subs.size(); ++i) {
+                Submission sub = subs.get(i);
+                Submission last = snapshot.getLastSubmission(sub.user, sub.exercise);
+                Submission best = snapshot.getBestSubmission(sub.user, sub.exercise);
+                assertEquals(expectedLast.get(i) == null, last == null);
+                assertEquals(expectedBest.get(i) == null, best == null);
+                if (last != null) {
+                    assertEquals(expectedLast.get(i).id, last.id);
+                    assertEquals(expectedLast.get(i).submissionTime, last.submissionTime);
+                    assertArrayEquals(expectedLast.get(i).questionGrades, last.questionGrades, 0);
+                }
+                // ties on the best total may be broken differently, but the total is the same
+                if (best != null)
+                    assertEquals(total(expectedBest.get(i)), total(best), 1e-4);
+                db.checkExercise(snapshot.exercise(sub.exercise.id));
+            }
+        } finally {
+            smarticulous.closeDB();
+            db.close();
+            tmpdb.delete();
+        }
+    }
+
+    private static double total(Submission sub) {
+        double total = 0;
+        for (float grade : sub.questionGrades)
+            total += grade;
+        return total;
+    }
+}
@@ -0,0 +1,181 @@
+package smarticulous;
+
+import org.junit.Test;
+import smarticulous.db.Exercise;
+import smarticulous.db.User;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Gradebook aggregation over hand-built submission tables, and a full-course timing check.
+ * <p>
+ * The full course is aggregated with 2000 students in 50 exercises by default. The timing check is a load test and
+ * only runs when {@code smarticulous.bench.students} is set (e.g. {@code gradle test -Dsmarticulous.bench.students=20000}):
+ * it fails if the aggregation takes longer than {@code smarticulous.bench.maxGradebookMillis}. A full 100k-student
+ * course needs about 2GB of heap.
+ */
+public class GradebookTest {
+    static final boolean LOAD_TEST = System.getProperty("smarticulous.bench.students") != null;
+    static final int STUDENTS = Integer.getInteger("smarticulous.bench.students", 2000);
+    static final int MAX_GRADEBOOK_MILLIS = Integer.getInteger("smarticulous.bench.maxGradebookMillis", 10000);
+    static final int EXERCISES = 50;
+    static final int QUESTIONS = 4;
+
+    /**
+     * Collects the rows of a table before building it.
+     */
+    static class TableBuilder {
+        int n;
+        int[] ids = new int[16];
+        int[] users = new int[16];
+        int[] exercises = new int[16];
+        long[] times = new long[16];
+        int[] gradeStart = new int[16];
+        int[] gradeEnd = new int[16];
+        float[] grades = new float[64];
+        int length;
+        IntMap<User> userDefs = new IntMap<>();
+        IntMap<Exercise> exerciseDefs = new IntMap<>();
+
+        TableBuilder exercise(int id, long dueDate) {
+            exerciseDefs.put(id, new Exercise(id, "ex" + id, new Date(dueDate)));
+            return this;
+        }
+
+        TableBuilder add(int id, int user, int exercise, long time, float... questionGrades) {
+            if (n == ids.length) {
+                ids = Arrays.copyOf(ids, n * 2);
+                users = Arrays.copyOf(users, n * 2);
+                exercises = Arrays.copyOf(exercises, n * 2);
+                times = Arrays.copyOf(times, n * 2);
+                gradeStart = Arrays.copyOf(gradeStart, n * 2);
+                gradeEnd = Arrays.copyOf(gradeEnd, n * 2);
+            }
+            if (length + questionGrades.length > grades.length) {
+                grades = Arrays.copyOf(grades, Math.max(grades.length * 2, length + questionGrades.length));
+            }
+            if (userDefs.get(user) == null) {
+                userDefs.put(user, new User("user" + user, "First", "Last"));
+            }
+            ids[n] = id;
+            users[n] = user;
+            exercises[n] = exercise;
+            times[n] = time;
+            gradeStart[n] = length;
+            System.arraycopy(questionGrades, 0, grades, length, questionGrades.length);
+            length += questionGrades.length;
+            gradeEnd[n] = length;
+            n++;
+            return this;
+        }
+
+        SubmissionTable build() {
+            return SubmissionTable.build(n, ids, users, exercises, times, gradeStart, gradeEnd, grades, userDefs, exerciseDefs);
+        }
+    }
+
+    @Test
+    public void gradebook_bestLatestAndStatus() {
+        SubmissionTable table = new TableBuilder()
+                .exercise(1, 100)
+                .add(1, 7, 1, 50, 5, 5)     // on time, total 10
+                .add(2, 7, 1, 150, 1, 2)    // late, latest
+                .add(3, 8, 1, 120, 9, 9)    // late only
+                .add(4, 8, 1, 130, 9, 9)    // ties the best total, later
+                .add(5, 9, 2, 10, 3)        // an exercise with no definition
+                .build();
+        Gradebook gradebook = Gradebook.compute(table);
+
+        assertEquals(10, gradebook.bestTotal(7, 1), 0);
+        assertEquals(3, gradebook.latestTotal(7, 1), 0);
+        assertEquals(Gradebook.Status.ON_TIME, gradebook.status(7, 1));
+
+        assertEquals(18, gradebook.bestTotal(8, 1), 0);
+        assertEquals(Gradebook.Status.LATE, gradebook.status(8, 1));
+        Gradebook.ExerciseGrades ex1 = gradebook.exercise(1);
+        assertEquals("a tie on the best total goes to the latest submission", 4, ex1.bestSubmissionId(ex1.indexOf(8)));
+        assertEquals(2, ex1.latestSubmissionId(ex1.indexOf(7)));
+        assertEquals(2, ex1.students());
+        assertEquals(1, ex1.onTimeCount());
+        assertEquals(1, ex1.lateCount());
+
+        assertEquals(Gradebook.Status.ON_TIME, gradebook.status(9, 2));
+        assertTrue("no submission means no grade", Double.isNaN(gradebook.bestTotal(7, 2)));
+        assertNull(gradebook.status(7, 2));
+        assertNull(gradebook.exercise(3));
+        assertEquals(2, gradebook.exercises().size());
+    }
+
+    @Test
+    public void gradebook_statistics() {
+        TableBuilder builder = new TableBuilder().exercise(1, 0);
+        // best totals 1, 2, 3, 4 and one user without any grade
+        for (int user = 1; user <= 4; ++user)
+            builder.add(user, user, 1, 0, user);
+        builder.add(5, 5, 1, 0);
+        Gradebook.ExerciseGrades grades = Gradebook.compute(builder.build()).exercise(1);
+
+        assertEquals(5, grades.students());
+        assertTrue(Double.isNaN(grades.bestTotal(grades.indexOf(5))));
+        assertTrue("an ungraded latest submission has no total", Double.isNaN(grades.latestTotal(grades.indexOf(5))));
+        assertEquals(5, grades.latestSubmissionId(grades.indexOf(5)));
+        assertEquals(2.5, grades.mean(), 1e-9);
+        assertEquals(2.5, grades.median(), 1e-9);
+        assertEquals(1, grades.percentile(0), 1e-9);
+        assertEquals(4, grades.percentile(100), 1e-9);
+        assertEquals(1.75, grades.percentile(25), 1e-9);
+        try {
+            grades.percentile(101);
+            fail("percentiles above 100 should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    static SubmissionTable fullCourse() {
+        Random rand = new Random(42);
+        TableBuilder builder = new TableBuilder();
+        for (int ex = 1; ex <= EXERCISES; ++ex)
+            builder.exercise(ex, 1000L * ex);
+        int id = 1;
+        float[] grades = new float[QUESTIONS];
+        for (int student = 1; student <= STUDENTS; ++student) {
+            for (int ex = 1; ex <= EXERCISES; ++ex) {
+                for (int q = 0; q < QUESTIONS; ++q)
+                    grades[q] = rand.nextInt(11);
+                builder.add(id++, student, ex, rand.nextInt(2000 * ex), grades);
+            }
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void gradebook_fullCourse() {
+        Gradebook gradebook = Gradebook.compute(fullCourse());
+
+        assertEquals(EXERCISES, gradebook.exercises().size());
+        for (Gradebook.ExerciseGrades exercise : gradebook.exercises()) {
+            assertEquals(STUDENTS, exercise.students());
+            assertEquals(STUDENTS, exercise.onTimeCount() + exercise.lateCount());
+        }
+    }
+
+    @Test
+    public void gradebook_fullCourseTiming() {
+        assumeTrue("the timing check runs with -Dsmarticulous.bench.students", LOAD_TEST);
+        SubmissionTable table = fullCourse();
+
+        long start = System.nanoTime();
+        Gradebook gradebook = Gradebook.compute(table);
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(EXERCISES, gradebook.exercises().size());
+        assertTrue("Computing the gradebook of " + STUDENTS + " students took " + millis + "ms",
+                millis <= MAX_GRADEBOOK_MILLIS);
+    }
+}
@@ -0,0 +1,11 @@
+package smarticulous;
+
+/**
+ * Runs the {@link StorageEngine} contract against {@link InMemoryStorage}.
+ */
+public class InMemoryStorageTest extends StorageEngineTest {
+    @Override
+    StorageEngine createEngine() {
+        return new InMemoryStorage();
+    }
+}
@@ -0,0 +1,75 @@
+package smarticulous;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Accuracy and thread-safety of {@link LatencyHistogram}.
+ */
+public class MetricsTest {
+
+    @Test
+    public void histogram_percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v = 1; v <= 100000; ++v)
+            histogram.record(v * 1000);
+
+        assertEquals(100000, histogram.count());
+        assertEquals(100000L * 1000, histogram.maxNanos());
+        assertEquals(50000.5 * 1000, histogram.meanNanos(), 1);
+        // bucket precision is 1/16 of the power of two, so within ~6.25%
+        for (double p : new double[]{1, 50, 90, 99, 99.9}) {
+            double expected = p / 100 * 100000 * 1000;
+            long actual = histogram.valueAtPercentile(p);
+            assertTrue("p" + p + " = " + actual, actual >= expected && actual <= expected * 1.0625 + 1);
+        }
+        assertEquals(histogram.maxNanos(), histogram.valueAtPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.valueAtPercentile(50));
+    }
+
+    @Test
+    public void histogram_buckets() {
+        // every value falls in a bucket whose bounds contain it
+        Random rand = new Random(42);
+        for (int i = 0; i < 100000; ++i) {
+            long value = rand.nextLong() >>> rand.nextInt(64);
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value <= LatencyHistogram.highestValueIn(bucket));
+            assertTrue(bucket == 0 || value > LatencyHistogram.highestValueIn(bucket - 1));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void histogram_concurrentRecording() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; ++t) {
+                futures.add(pool.submit(() -> {
+                    for (int i = 1; i <= 100000; ++i)
+                        histogram.record(i);
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(800000, histogram.count());
+        assertEquals(8L * 100000 * 100001 / 2, histogram.totalNanos());
+        assertEquals(100000, histogram.maxNanos());
+    }
+}
@@ -0,0 +1,141 @@
+package smarticulous;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ordering, chunking, failure handling and feature versions of {@link MigrationRunner}.
+ */
+public class MigrationTest {
+    static final String CREATE_ITEM = "CREATE TABLE Item (ItemId INTEGER PRIMARY KEY, Price INTEGER);";
+    // a derived table, filled in chunks of ItemId ranges
+    static final Migration BACKFILL_DOUBLE = Migration.backfill(2, "double prices", "Item", "ItemId",
+            "INSERT OR REPLACE INTO DoublePrice (ItemId, Price) SELECT ItemId, 2 * Price FROM Item WHERE ItemId > ? AND ItemId <= ?;",
+            "CREATE TABLE DoublePrice (ItemId INTEGER PRIMARY KEY, Price INTEGER);");
+
+    Metrics metrics = new Metrics();
+    Connection db;
+    ReentrantLock lock = new ReentrantLock();
+
+    @Before
+    public void setUp() throws Exception {
+        db = metrics.instrument(DriverManager.getConnection("jdbc:sqlite::memory:"));
+        db.setAutoCommit(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.close();
+    }
+
+    int count(String sql) throws SQLException {
+        try (Statement st = db.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+
+    Migration items(int n) {
+        String[] sqls = new String[n + 1];
+        sqls[0] = CREATE_ITEM;
+        for (int i = 1; i <= n; ++i) {
+            sqls[i] = "INSERT INTO Item (ItemId, Price) VALUES (" + i + ", " + i + ");";
+        }
+        return Migration.statements(1, "items", sqls);
+    }
+
+    @Test
+    public void migrate_inOrderAndOnce() throws Exception {
+        MigrationRunner runner = new MigrationRunner(Arrays.asList(items(10), BACKFILL_DOUBLE));
+        assertEquals(2, runner.latestVersion());
+
+        long commits = metrics.getCommits();
+        assertEquals(2, runner.migrate(db, lock, 3));
+        assertEquals(2, MigrationRunner.version(db));
+        assertEquals(10, count("SELECT COUNT(*) FROM DoublePrice;"));
+        assertEquals(2 * 55, count("SELECT SUM(Price) FROM DoublePrice;"));
+        // 1 step for the items, 4 chunks of at most 3 + the final empty step for the backfill
+        assertTrue("each chunk is its own transaction", metrics.getCommits() - commits >= 6);
+
+        // an up-to-date database runs nothing
+        assertEquals(0, runner.migrate(db, lock, 3));
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    public void migrate_emptyBackfill() throws Exception {
+        MigrationRunner runner = new MigrationRunner(Arrays.asList(items(0), BACKFILL_DOUBLE));
+        assertEquals(2, runner.migrate(db, lock, 100));
+        assertEquals(0, count("SELECT COUNT(*) FROM DoublePrice;"));
+        assertEquals(2, MigrationRunner.version(db));
+    }
+
+    @Test
+    public void migrate_failureKeepsEarlierVersions() throws Exception {
+        Migration broken = Migration.statements(3, "broken",
+                "CREATE TABLE Broken (Id INTEGER);", "INSERT INTO Missing VALUES (1);");
+        MigrationRunner runner = new MigrationRunner(Arrays.asList(items(5), BACKFILL_DOUBLE, broken));
+        try {
+            runner.migrate(db, lock, 2);
+            fail("the broken migration should fail");
+        } catch (SQLException e) {
+            // expected
+        }
+        assertEquals(2, MigrationRunner.version(db));
+        assertEquals(5, count("SELECT COUNT(*) FROM DoublePrice;"));
+        // the failed step was rolled back as a whole
+        assertEquals(0, count("SELECT COUNT(*) FROM sqlite_master WHERE name = 'Broken';"));
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    public void migrate_newerDatabaseIsLeftAlone() throws Exception {
+        try (Statement st = db.createStatement()) {
+            st.execute("PRAGMA user_version = 7;");
+        }
+        db.commit();
+        assertEquals(0, new MigrationRunner(Collections.singletonList(items(1))).migrate(db, lock, 10));
+        assertEquals(0, count("SELECT COUNT(*) FROM sqlite_master WHERE name = 'Item';"));
+    }
+
+    @Test
+    public void migrate_featureHasItsOwnVersion() throws Exception {
+        new MigrationRunner(Collections.singletonList(items(5))).migrate(db, lock, 10);
+        assertEquals("no feature, no SchemaFeature table", 0,
+                count("SELECT COUNT(*) FROM sqlite_master WHERE name = 'SchemaFeature';"));
+        assertEquals(0, MigrationRunner.featureVersion(db, "DoublePrice"));
+
+        MigrationRunner feature = new MigrationRunner("DoublePrice", Collections.singletonList(BACKFILL_DOUBLE));
+        assertEquals(1, feature.migrate(db, lock, 2));
+        assertEquals(5, count("SELECT COUNT(*) FROM DoublePrice;"));
+        assertEquals(2, MigrationRunner.featureVersion(db, "DoublePrice"));
+        assertEquals("the base schema version is unchanged", 1, MigrationRunner.version(db));
+        assertEquals(0, MigrationRunner.featureVersion(db, "Other"));
+
+        assertEquals(0, feature.migrate(db, lock, 2));
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    public void runner_rejectsUnorderedVersions() {
+        try {
+            new MigrationRunner(Arrays.asList(BACKFILL_DOUBLE, items(1)));
+            fail("migrations must be in increasing version order");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(Smarticulous.SCHEMA_VERSION, Smarticulous.MIGRATIONS.latestVersion());
+    }
+}
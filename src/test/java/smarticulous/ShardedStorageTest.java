@@ -0,0 +1,159 @@
+package smarticulous;
+
+import org.junit.Test;
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the {@link StorageEngine} contract against {@link ShardedStorage} with three shard files, plus the routing
+ * and id allocation across shards.
+ */
+public class ShardedStorageTest extends StorageEngineTest {
+    static final int SHARDS = 3;
+
+    List<File> files = new ArrayList<>();
+
+    String newUrl() throws Exception {
+        File file = File.createTempFile("shardedStorage", ".sqlite");
+        file.delete();
+        files.add(file);
+        return "jdbc:sqlite:" + file.getPath();
+    }
+
+    List<String> urls;
+
+    @Override
+    StorageEngine createEngine() throws Exception {
+        String primary = newUrl();
+        urls = new ArrayList<>();
+        urls.add(primary);
+        for (int k = 0; k < SHARDS; ++k) {
+            urls.add(newUrl());
+        }
+        return open(ShardRouter.byExerciseId());
+    }
+
+    ShardedStorage open(ShardRouter router) throws Exception {
+        return new ShardedStorage(urls.get(0), urls.subList(1, urls.size()), router);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void shard_routingAndUniqueIds() throws Exception {
+        ShardedStorage sharded = (ShardedStorage) engine;
+        sharded.addOrUpdateUser(alice, "secret");
+        sharded.addOrUpdateUser(bob, "secret");
+        List<Submission> batch = new ArrayList<>();
+        for (int id = 1; id <= 6; ++id) {
+            Exercise ex = exercise(id, 2);
+            sharded.addExercise(ex);
+            for (int t = 0; t < 5; ++t) {
+                batch.add(new Submission(t % 2 == 0 ? alice : bob, ex, new Date(t), new float[]{t, id}));
+            }
+        }
+        int[] ids = sharded.storeSubmissions(batch);
+
+        Set<Integer> unique = new HashSet<>();
+        for (int i = 0; i < ids.length; ++i) {
+            assertTrue(unique.add(ids[i]));
+            // every submission went to the shard of its exercise, which hands out ids of its residue
+            assertEquals(batch.get(i).exercise.id % SHARDS, ids[i] % SHARDS);
+            assertEquals("the caller's submission should not be modified", -1, batch.get(i).id);
+        }
+        for (int k = 0; k < SHARDS; ++k) {
+            assertEquals("each shard holds two exercises", 2, sharded.getShard(k).loadExercises().size());
+        }
+        assertEquals(6, sharded.getPrimary().loadExercises().size());
+        // shards mirror the users but can't log them in
+        assertTrue(sharded.verifyLogin("alice", "secret"));
+        assertFalse(sharded.getShard(1).verifyLogin("alice", "secret"));
+
+        Exercise ex = exercise(5, 2);
+        assertEquals(ids[4 * 5 + 4], sharded.getLastSubmission(alice, ex).id);
+        assertEquals(ids[4 * 5 + 4], sharded.getBestSubmission(alice, ex).id);
+        assertEquals(ids[4 * 5 + 3], sharded.getLastSubmission(bob, ex).id);
+
+        // after reopening, new ids continue above the stored ones
+        int max = Arrays.stream(ids).max().getAsInt();
+        sharded.close();
+        engine = sharded = open(ShardRouter.byExerciseId());
+        int next = sharded.storeSubmission(new Submission(alice, exercise(5, 2), new Date(10), new float[]{1, 1}));
+        assertTrue(next > max - SHARDS);
+        assertFalse(unique.contains(next));
+        assertEquals(next, sharded.getLastSubmission(alice, exercise(5, 2)).id);
+    }
+
+    @Test
+    public void shard_sharedFiles() throws Exception {
+        ShardedStorage first = (ShardedStorage) engine;
+        first.addOrUpdateUser(alice, "secret");
+        Exercise ex = exercise(4, 1);
+        first.addExercise(ex);
+
+        // a second instance on the same files (like another process) hands out ids from the same sequences
+        try (ShardedStorage second = open(ShardRouter.byExerciseId())) {
+            Set<Integer> unique = new HashSet<>();
+            for (int t = 0; t < 6; ++t) {
+                ShardedStorage writer = t % 2 == 0 ? first : second;
+                int id = writer.storeSubmission(new Submission(alice, ex, new Date(t), new float[]{t}));
+                assertTrue("submission ids must not be handed out twice", unique.add(id));
+                assertEquals(ex.id % SHARDS, id % SHARDS);
+            }
+        }
+
+        // a user added to the primary behind the shards' back is mirrored when their first submission arrives
+        first.getPrimary().addOrUpdateUser(bob, "secret");
+        int id = first.storeSubmission(new Submission(bob, ex, new Date(1), new float[]{2}));
+        assertNotEquals(-1, id);
+        assertEquals(id, first.getLastSubmission(bob, ex).id);
+        assertEquals(-1, first.storeSubmission(new Submission(new User("nobody", null, null), ex, new Date(1),
+                new float[]{2})));
+    }
+
+    @Test
+    public void shard_byTerm() throws Exception {
+        engine.close();
+        ShardRouter byTerm = ShardRouter.byTerm(10000, 20000);
+        engine = open(byTerm);
+        ShardedStorage sharded = (ShardedStorage) engine;
+        sharded.addOrUpdateUser(alice, "secret");
+        // exercise(id) is due at id seconds
+        for (int id : new int[]{1, 10, 15, 25}) {
+            sharded.addExercise(exercise(id, 1));
+        }
+        assertEquals(1, sharded.getShard(0).loadExercises().size());
+        assertEquals(2, sharded.getShard(1).loadExercises().size());
+        assertEquals(1, sharded.getShard(2).loadExercises().size());
+
+        int id = sharded.storeSubmission(new Submission(alice, exercise(25, 1), new Date(1), new float[]{3}));
+        // the stored shard is found by id, even if the caller's exercise has no due date
+        Exercise byId = new Exercise(25, "ex25", null);
+        assertEquals(id, sharded.getLastSubmission(alice, byId).id);
+        assertNull(sharded.getShard(0).getLastSubmission(alice, byId));
+
+        try {
+            ShardRouter.byTerm(5, 5);
+            fail("term starts must be increasing");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
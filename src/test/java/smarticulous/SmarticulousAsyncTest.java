@@ -0,0 +1,207 @@
+package smarticulous;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * {@link SmarticulousAsync}: results, timeouts and latency under many concurrent callers.
+ * <p>
+ * The latency check is a load test and only runs when {@code smarticulous.bench.asyncCallers} is set (e.g.
+ * {@code gradle test -Dsmarticulous.bench.asyncCallers=10000}): it fails if the p99 of an operation is above
+ * {@code smarticulous.bench.maxAsyncP99Millis}.
+ */
+public class SmarticulousAsyncTest {
+    static final int CALLERS = Integer.getInteger("smarticulous.bench.asyncCallers", 0);
+    static final int MAX_P99_MILLIS = Integer.getInteger("smarticulous.bench.maxAsyncP99Millis", 10000);
+    static final int READERS = 4;
+    static final int USERS = 1000;
+    static final int EXERCISES = 10;
+
+    File tmpdb;
+    Smarticulous smarticulous = new Smarticulous();
+    List<User> users = new ArrayList<>();
+    List<Exercise> exercises = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        tmpdb = File.createTempFile("smarticulousAsync", ".sqlite");
+        tmpdb.delete();
+        smarticulous.openDB("jdbc:sqlite:" + tmpdb.getPath(), READERS);
+
+        Map<User, String> roster = new LinkedHashMap<>();
+        for (int u = 0; u < USERS; ++u) {
+            User user = new User("user" + u, "First" + u, "Last" + u);
+            users.add(user);
+            roster.put(user, "pass" + u);
+        }
+        smarticulous.addOrUpdateUsers(roster);
+        for (int e = 1; e <= EXERCISES; ++e) {
+            Exercise ex = new Exercise(e, "ex" + e, new Date(e * 1000L));
+            ex.addQuestion("q1", "question 1", 10);
+            ex.addQuestion("q2", "question 2", 10);
+            smarticulous.addExercise(ex);
+            exercises.add(ex);
+        }
+        Random rand = new Random(7);
+        List<Submission> submissions = new ArrayList<>();
+        for (int s = 0; s < USERS * 5; ++s) {
+            submissions.add(new Submission(users.get(rand.nextInt(USERS)), exercises.get(rand.nextInt(EXERCISES)),
+                    new Date(s), new float[]{rand.nextInt(11), rand.nextInt(11)}));
+        }
+        smarticulous.storeSubmissions(submissions);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        smarticulous.closeDB();
+        tmpdb.delete();
+        new File(tmpdb.getPath() + "-wal").delete();
+        new File(tmpdb.getPath() + "-shm").delete();
+    }
+
+    @Test
+    public void async_readsAndWrites() throws Exception {
+        try (SmarticulousAsync async = new SmarticulousAsync(smarticulous, READERS, 1000, 10000)) {
+            assertTrue(async.verifyLogin("user3", "pass3").get());
+            assertFalse(async.verifyLogin("user3", "wrong").get());
+            assertEquals(EXERCISES, async.loadExercises().get().size());
+            assertEquals("ex4", async.getExercise(4).get().name);
+
+            User carol = new User("carol", "Carol", "C");
+            assertTrue(async.addOrUpdateUser(carol, "pw").get() > 0);
+            Exercise ex = exercises.get(0);
+            List<CompletableFuture<Integer>> ids = new ArrayList<>();
+            for (int t = 0; t < 20; ++t) {
+                ids.add(async.storeSubmission(new Submission(carol, ex, new Date(100000 + t), new float[]{t % 10, 1})));
+            }
+            for (CompletableFuture<Integer> id : ids) {
+                assertTrue(id.get() > 0);
+            }
+            assertEquals((int) ids.get(19).get(), async.getLastSubmission(carol, ex).get().id);
+            assertEquals((int) ids.get(19).get(), async.getBestSubmission(carol, ex).get().id);
+            assertEquals(-1, (int) async.storeSubmission(new Submission(new User("nobody", "N", "N"), ex,
+                    new Date(1), new float[]{1, 1})).get());
+        }
+        assertTrue(smarticulous.getMetrics().operation("async.verifyLogin").count() >= 2);
+    }
+
+    @Test
+    public void async_timeout() throws Exception {
+        // a single-thread executor kept busy, so the read can't start before its timeout
+        ExecutorService blocked = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        blocked.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try (SmarticulousAsync async = new SmarticulousAsync(smarticulous, blocked, 1, 10, 50)) {
+            CompletableFuture<Boolean> login = async.verifyLogin("user1", "pass1");
+            try {
+                login.get(5, TimeUnit.SECONDS);
+                fail("the read should time out");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+        } finally {
+            release.countDown();
+            blocked.shutdown();
+        }
+    }
+
+    @Test
+    public void async_startedWritesDontTimeOut() throws Exception {
+        User carol = new User("carol", "Carol", "C");
+        User dave = new User("dave", "Dave", "D");
+        Exercise ex = exercises.get(0);
+        try (SmarticulousAsync async = new SmarticulousAsync(smarticulous, READERS, 10, 100)) {
+            CompletableFuture<Integer> started;
+            CompletableFuture<Integer> queued;
+            CompletableFuture<Integer> submission;
+            // the writers wait for the lock far longer than the timeout
+            smarticulous.writeLock.lock();
+            try {
+                started = async.addOrUpdateUser(carol, "pw");
+                queued = async.addOrUpdateUser(dave, "pw");
+                submission = async.storeSubmission(new Submission(users.get(0), ex, new Date(1), new float[]{1, 1}));
+                Thread.sleep(500);
+            } finally {
+                smarticulous.writeLock.unlock();
+            }
+            assertTrue("a started write completes with its result", started.get(5, TimeUnit.SECONDS) > 0);
+            assertTrue(submission.get(5, TimeUnit.SECONDS) > 0);
+            try {
+                queued.get(5, TimeUnit.SECONDS);
+                fail("the queued write should time out");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+        }
+        assertTrue(smarticulous.verifyLogin("carol", "pw"));
+        assertFalse("a write that timed out is never applied", smarticulous.verifyLogin("dave", "pw"));
+    }
+
+    @Test
+    public void async_manyConcurrentCallers() throws Exception {
+        assumeTrue("the load test runs with -Dsmarticulous.bench.asyncCallers", CALLERS > 0);
+        try (SmarticulousAsync async = new SmarticulousAsync(smarticulous, READERS, CALLERS, 120000)) {
+            Random rand = new Random(11);
+            List<CompletableFuture<?>> calls = new ArrayList<>(CALLERS);
+            // every caller is in flight at the same time
+            for (int c = 0; c < CALLERS; ++c) {
+                int u = rand.nextInt(USERS);
+                Exercise ex = exercises.get(rand.nextInt(EXERCISES));
+                switch (c % 4) {
+                    case 0:
+                        calls.add(async.verifyLogin("user" + u, "pass" + u)
+                                .thenAccept(ok -> assertTrue(ok)));
+                        break;
+                    case 1:
+                        calls.add(async.getLastSubmission(users.get(u), ex));
+                        break;
+                    case 2:
+                        calls.add(async.getBestSubmission(users.get(u), ex));
+                        break;
+                    default:
+                        calls.add(async.storeSubmission(new Submission(users.get(u), ex, new Date(c), new float[]{1, 2}))
+                                .thenAccept(id -> assertTrue(id > 0)));
+                        break;
+                }
+            }
+            CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).get();
+
+            Metrics metrics = smarticulous.getMetrics();
+            for (String name : new String[]{"verifyLogin", "getLastSubmission", "getBestSubmission", "storeSubmission"}) {
+                LatencyHistogram latency = metrics.operation("async." + name);
+                assertEquals(CALLERS / 4, latency.count(), CALLERS % 4);
+                long millis = TimeUnit.NANOSECONDS.toMillis(latency.valueAtPercentile(99));
+                assertTrue(CALLERS + " callers, p99 of async." + name + " is " + millis + " ms",
+                        millis <= MAX_P99_MILLIS);
+            }
+        }
+    }
+}
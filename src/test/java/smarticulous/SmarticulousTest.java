@@ -9,9 +9,18 @@ import smarticulous.db.User;
 
 import java.io.File;
 import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -130,6 +139,27 @@ public class SmarticulousTest {
         smarticulous.closeDB();
     }
 
+    @Test
+    public void user_addOrUpdateUsers() throws Exception {
+        Map<User, String> roster = new LinkedHashMap<>();
+        roster.put(db.getUser(1), getRandomString(10));
+        for (int i = 0; i < 3; ++i)
+            roster.put(new User(getRandomString(10), db.getRandomWord(), db.getRandomWord()), getRandomString(10));
+
+        smarticulous.openDB(db.getDbUrl());
+
+        UserSyncResult result = smarticulous.addOrUpdateUsers(roster);
+        assertEquals("Wrong number of inserted users", 3, result.inserted);
+        assertEquals("Wrong number of updated users", 1, result.updated);
+
+        for (Map.Entry<User, String> entry : roster.entrySet()) {
+            int id = result.userIds.get(entry.getKey().username);
+            db.checkUser(id, entry.getKey(), entry.getValue());
+        }
+
+        smarticulous.closeDB();
+    }
+
     @Test
     public void user_verifyLogin() throws Exception {
         int userId = rand.nextInt(db.getNumUsers()) + 1;
@@ -155,6 +185,93 @@ public class SmarticulousTest {
         smarticulous.closeDB();
     }
 
+    @Test
+    public void statements_reusedUntilClose() throws Exception {
+        smarticulous.openDB(db.getDbUrl());
+
+        User user = db.getUser(1);
+        String pass = db.getPassword(1);
+        assertTrue(smarticulous.verifyLogin(user.username, pass));
+        int cached = smarticulous.statements.size();
+
+        // repeated calls must reuse the statements compiled by openDB
+        for (int i = 0; i < 10; ++i) {
+            smarticulous.verifyLogin(user.username, pass);
+            smarticulous.addOrUpdateUser(user, pass);
+        }
+        assertEquals("Statements were compiled again", cached, smarticulous.statements.size());
+
+        smarticulous.closeDB();
+        assertNull("closeDB didn't release the statement cache", smarticulous.statements);
+    }
+
+    @Test
+    public void user_hashedPasswords() throws Exception {
+        smarticulous.openDB(db.getDbUrl());
+        smarticulous.setHashPasswords(true);
+
+        User user = new User(getRandomString(10), db.getRandomWord(), db.getRandomWord());
+        String pass = getRandomString(10);
+        int id = smarticulous.addOrUpdateUser(user, pass);
+
+        try (java.sql.Statement st = smarticulous.db.createStatement();
+             java.sql.ResultSet rs = st.executeQuery("SELECT Password FROM User WHERE UserId = " + id)) {
+            assertTrue(rs.next());
+            assertNotEquals("Password was stored in plaintext", pass, rs.getString("Password"));
+        }
+        smarticulous.db.commit();
+
+        assertTrue("Hashed password rejected", smarticulous.verifyLogin(user.username, pass));
+        assertFalse("Wrong password accepted", smarticulous.verifyLogin(user.username, pass + "x"));
+
+        // users with plaintext passwords can still log in
+        int legacy = rand.nextInt(db.getNumUsers()) + 1;
+        assertTrue(smarticulous.verifyLogin(db.getUser(legacy).username, db.getPassword(legacy)));
+
+        // a password that looks like a hash is hashed like any other
+        String lookalike = PasswordHasher.PREFIX + getRandomString(10);
+        smarticulous.addOrUpdateUser(user, lookalike);
+        assertTrue(smarticulous.verifyLogin(user.username, lookalike));
+        smarticulous.setHashPasswords(false);
+        smarticulous.addOrUpdateUser(user, lookalike);
+        assertTrue(smarticulous.verifyLogin(user.username, lookalike));
+        assertFalse(smarticulous.verifyLogin(user.username, pass));
+
+        smarticulous.closeDB();
+    }
+
+    @Test
+    public void user_verifyLoginCached() throws Exception {
+        User user = db.getUser(1);
+        String pass = db.getPassword(1);
+
+        smarticulous.openDB(db.getDbUrl());
+        LoginCache cache = smarticulous.getLoginCache();
+
+        assertTrue(smarticulous.verifyLogin(user.username, pass));
+        assertTrue(smarticulous.verifyLogin(user.username, pass));
+        assertFalse(smarticulous.verifyLogin(user.username, getRandomString(10)));
+        assertEquals("Credentials were read more than once", 1, cache.missCount());
+        assertEquals(2, cache.hitCount());
+
+        // unknown usernames are cached too, until the user is added
+        User newUser = new User(getRandomString(10), db.getRandomWord(), db.getRandomWord());
+        assertFalse(smarticulous.verifyLogin(newUser.username, pass));
+        assertFalse(smarticulous.verifyLogin(newUser.username, pass));
+        assertEquals("Unknown username was not cached", 2, cache.missCount());
+
+        smarticulous.addOrUpdateUser(newUser, pass);
+        assertTrue("addOrUpdateUser didn't invalidate the cache", smarticulous.verifyLogin(newUser.username, pass));
+
+        // a password change is visible immediately
+        String newPass = getRandomString(10);
+        smarticulous.addOrUpdateUser(user, newPass);
+        assertFalse(smarticulous.verifyLogin(user.username, pass));
+        assertTrue(smarticulous.verifyLogin(user.username, newPass));
+
+        smarticulous.closeDB();
+    }
+
     private Exercise createRandomExercise() throws Exception {
         int id = db.getNumExercises() + 1;
         String name = db.getRandomWord();
@@ -212,6 +329,87 @@ public class SmarticulousTest {
         smarticulous.closeDB();
     }
 
+    @Test
+    public void exercise_streamExercisesWithoutQuestions() throws Exception {
+        Exercise empty = new Exercise(db.getNumExercises() + 1, db.getRandomWord(), new Date());
+
+        smarticulous.openDB(db.getDbUrl());
+        smarticulous.addExercise(empty);
+
+        List<Exercise> exs = new ArrayList<>();
+        smarticulous.streamExercises(exs::add);
+
+        assertEquals("Exercises without questions are missing", db.getNumExercises(), exs.size());
+        Exercise last = exs.get(exs.size() - 1);
+        assertEquals("Exercises are not sorted by id", empty.id, last.id);
+        assertEquals("Exercise without questions has questions", 0, last.questions.size());
+        assertEquals("Due date was not read back", empty.dueDate.getTime(), last.dueDate.getTime());
+
+        smarticulous.closeDB();
+    }
+
+    @Test
+    public void exercise_dateRoundTrip() throws Exception {
+        smarticulous.openDB(db.getDbUrl());
+
+        // times that don't fit in an int, before the epoch, and a missing due date
+        long[] dueDates = {Long.MAX_VALUE, Long.MIN_VALUE, -86400000L * 365 * 30, Integer.MAX_VALUE + 1L};
+        List<Exercise> added = new ArrayList<>();
+        int id = db.getNumExercises();
+        for (long dueDate : dueDates)
+            added.add(new Exercise(++id, db.getRandomWord(), new Date(dueDate)));
+        added.add(new Exercise(++id, db.getRandomWord(), null));
+        for (Exercise ex : added) {
+            ex.addQuestion(db.getRandomWord(), db.getRandomDesc(), 10);
+            smarticulous.addExercise(ex);
+        }
+
+        List<Exercise> loaded = smarticulous.loadExercises();
+        for (Exercise ex : added) {
+            Exercise back = loaded.get(ex.id - 1);
+            assertEquals(ex.id, back.id);
+            if (ex.dueDate == null)
+                assertNull("A missing due date was not read back as null", back.dueDate);
+            else
+                assertEquals("Due date was not read back", ex.dueDate.getTime(), back.dueDate.getTime());
+        }
+
+        // submission times take the same path; each one is later than the previous, so it becomes the last one
+        User user = db.getUser(1);
+        for (long time : new long[]{Long.MIN_VALUE, -1, Integer.MAX_VALUE + 1L, Long.MAX_VALUE}) {
+            Submission sub = new Submission(user, added.get(0), new Date(time), new float[]{0.5f});
+            smarticulous.storeSubmission(sub);
+            Submission last = smarticulous.getLastSubmission(user, added.get(0));
+            assertNotNull(last);
+            assertEquals("Submission time was not read back", time, last.submissionTime.getTime());
+        }
+
+        smarticulous.closeDB();
+    }
+
+    @Test
+    public void exercise_getExerciseCached() throws Exception {
+        smarticulous.openDB(db.getDbUrl());
+
+        ExerciseCache cache = smarticulous.getExerciseCache();
+        Exercise first = smarticulous.getExercise(1);
+        db.checkExercise(first);
+        assertSame("Exercise was not served from the cache", first, smarticulous.getExercise(1));
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.hitCount());
+
+        // a missing exercise is not cached, and becomes visible once it is added
+        Exercise ex = createRandomExercise();
+        assertNull(smarticulous.getExercise(ex.id));
+        smarticulous.addExercise(ex);
+        Exercise loaded = smarticulous.getExercise(ex.id);
+        assertNotNull("Added exercise is not visible through the cache", loaded);
+        db.checkExercise(loaded);
+
+        smarticulous.closeDB();
+        assertEquals("closeDB didn't clear the cache", 0, cache.size());
+    }
+
     @Test
     public void submission_storeSubmission() throws Exception  {
         smarticulous.openDB(db.getDbUrl());
@@ -225,6 +423,527 @@ public class SmarticulousTest {
         smarticulous.closeDB();
     }
 
+    @Test
+    public void submission_storeSubmissions() throws Exception  {
+        smarticulous.openDB(db.getDbUrl());
+
+        List<Submission> subs = new ArrayList<>();
+        for (int i = 0; i < 20; ++i)
+            subs.add(createRandomSubmission());
+
+        // a submission by a user that isn't in the database
+        Submission unknown = createRandomSubmission();
+        unknown.user = new User(getRandomString(12), db.getRandomWord(), db.getRandomWord());
+        subs.add(5, unknown);
+
+        int[] ids = smarticulous.storeSubmissions(subs);
+        assertEquals("Wrong number of results", subs.size(), ids.length);
+        assertEquals("Submission of an unknown user was stored", -1, ids[5]);
+
+        for (int i = 0; i < subs.size(); ++i) {
+            if (i == 5)
+                continue;
+            Submission sub = subs.get(i);
+            sub.id = ids[i];
+            db.checkSubmission(sub);
+        }
+
+        smarticulous.closeDB();
+    }
+
+    @Test
+    public void submission_regradeSubmissions() throws Exception  {
+        smarticulous.openDB(db.getDbUrl());
+
+        Submission sub = createRandomSubmission();
+        sub.id = smarticulous.storeSubmission(sub);
+
+        float[] regraded = new float[sub.questionGrades.length];
+        for (int i = 0; i < regraded.length; ++i)
+            regraded[i] = sub.questionGrades[i] + 1;
+
+        Map<Integer, float[]> newGrades = new HashMap<>();
+        newGrades.put(sub.id, regraded);
+        // this submission id doesn't exist and should be ignored
+        newGrades.put(sub.id + 1000, regraded);
+
+        int written = smarticulous.regradeSubmissions(sub.exercise, newGrades);
+        assertEquals("Wrong number of grades written", regraded.length, written);
+
+        sub.questionGrades = regraded;
+        db.checkSubmission(sub);
+
+        smarticulous.closeDB();
+    }
+
+    @Test
+    public void submission_loadSubmissionTable() throws Exception  {
+        smarticulous.openDB(db.getDbUrl());
+
+        List<Submission> subs = new ArrayList<>();
+        for (int i = 0; i < 50; ++i)
+            subs.add(createRandomSubmission());
+        int[] ids = smarticulous.storeSubmissions(subs);
+
+        SubmissionTable table = smarticulous.loadSubmissionTable();
+        Map<Integer, Integer> rows = new HashMap<>();
+        for (int e = 0; e < table.exerciseCount(); ++e) {
+            int previous = Integer.MIN_VALUE;
+            for (int row = table.exerciseStart(e); row < table.exerciseEnd(e); ++row) {
+                assertEquals("Rows should be grouped by exercise", table.exerciseIdAt(e), table.exerciseId(row));
+                assertTrue("Rows should be ordered by id within an exercise", table.submissionId(row) > previous);
+                previous = table.submissionId(row);
+                rows.put(table.submissionId(row), row);
+            }
+        }
+        assertEquals("Every row should belong to an exercise", table.size(), rows.size());
+
+        SubmissionTable.View view = table.view();
+        for (int i = 0; i < subs.size(); ++i) {
+            Submission sub = subs.get(i);
+            Integer row = rows.get(ids[i]);
+            assertNotNull("Stored submission is missing from the table", row);
+
+            view.moveTo(row);
+            assertEquals(sub.user.username, view.user().username);
+            assertEquals(sub.exercise.id, view.exerciseId());
+            assertEquals(sub.submissionTime.getTime(), view.time());
+            assertEquals(sub.questionGrades.length, view.gradeCount());
+
+            Submission loaded = table.asSubmission(row);
+            assertEquals(ids[i], loaded.id);
+            assertArrayEquals(sub.questionGrades, loaded.questionGrades, 0);
+        }
+
+        smarticulous.closeDB();
+    }
+
+    @Test
+    public void submission_loadGradebook() throws Exception  {
+        smarticulous.openDB(db.getDbUrl());
+
+        List<Submission> subs = new ArrayList<>();
+        for (int i = 0; i < 50; ++i)
+            subs.add(createRandomSubmission());
+        smarticulous.storeSubmissions(subs);
+
+        SubmissionTable table = smarticulous.loadSubmissionTable();
+        Map<String, Integer> userIds = new HashMap<>();
+        for (int row = 0; row < table.size(); ++row)
+            userIds.put(table.user(table.userId(row)).username, table.userId(row));
+
+        Gradebook gradebook = Gradebook.compute(table);
+        for (Submission sub : subs) {
+            Gradebook.ExerciseGrades grades = gradebook.exercise(sub.exercise.id);
+            assertNotNull("Exercise is missing from the gradebook", grades);
+            int index = grades.indexOf(userIds.get(sub.user.username));
+            assertNotEquals("User is missing from the gradebook", -1, index);
+
+            Submission best = smarticulous.getBestSubmission(sub.user, sub.exercise);
+            Submission last = smarticulous.getLastSubmission(sub.user, sub.exercise);
+            assertEquals("Best submission differs from getBestSubmission", best.id, grades.bestSubmissionId(index));
+            assertEquals("Latest submission differs from getLastSubmission", last.id, grades.latestSubmissionId(index));
+            assertEquals(total(best), grades.bestTotal(index), 1e-4);
+            assertEquals(total(last), grades.latestTotal(index), 1e-4);
+
+            if (sub.submissionTime.getTime() <= sub.exercise.dueDate.getTime())
+                assertEquals(Gradebook.Status.ON_TIME, grades.status(index));
+        }
+
+        smarticulous.closeDB();
+    }
+
+    private static double total(Submission sub) {
+        double total = 0;
+        for (float grade : sub.questionGrades)
+            total += grade;
+        return total;
+    }
+
+    @Test
+    public void submission_summaryTables() throws Exception  {
+        smarticulous.openDB(db.getDbUrl());
+        assertFalse("The summary should be off by default", smarticulous.isSubmissionSummaryEnabled());
+
+        // backfill the submissions already in the database, then keep storing through the summary
+        List<Submission> subs = new ArrayList<>();
+        for (int i = 0; i < 20; ++i)
+            subs.add(createRandomSubmission());
+        smarticulous.storeSubmissions(subs);
+        smarticulous.rebuildSubmissionSummary();
+        assertTrue(smarticulous.isSubmissionSummaryEnabled());
+        for (int i = 0; i < 40; ++i) {
+            Submission sub = createRandomSubmission();
+            sub.id = smarticulous.storeSubmission(sub);
+            subs.add(sub);
+        }
+
+        Submission regraded = subs.get(subs.size() - 1);
+        float[] grades = new float[regraded.questionGrades.length];
+        Arrays.fill(grades, 1000);
+        smarticulous.regradeSubmissions(regraded.exercise, Collections.singletonMap(regraded.id, grades));
+        Submission best = smarticulous.getBestSubmission(regraded.user, regraded.exercise);
+        assertEquals("A regraded submission should become the best one", regraded.id, best.id);
+
+        try (PreparedStatement lastSt = smarticulous.getLastSubmissionGradesStatement();
+             PreparedStatement bestSt = smarticulous.getBestSubmissionGradesStatement()) {
+            for (Submission sub : subs) {
+                Submission expectedLast = smarticulous.getSubmission(sub.user, sub.exercise, lastSt);
+                Submission actualLast = smarticulous.getLastSubmission(sub.user, sub.exercise);
+                assertEquals("Summary disagrees on the latest submission", expectedLast.id, actualLast.id);
+                assertArrayEquals(expectedLast.questionGrades, actualLast.questionGrades, 0);
+
+                Submission expectedBest = smarticulous.getSubmission(sub.user, sub.exercise, bestSt);
+                Submission actualBest = smarticulous.getBestSubmission(sub.user, sub.exercise);
+                assertEquals("Summary disagrees on the best total", total(expectedBest), total(actualBest), 1e-4);
+            }
+        }
+        smarticulous.closeDB();
+
+        // the summary tables are found again when the database is reopened
+        smarticulous.openDB(db.getDbUrl());
+        assertTrue(smarticulous.isSubmissionSummaryEnabled());
+        smarticulous.closeDB();
+    }
+
+    @Test
+    public void submission_timeRangeQueries() throws Exception  {
+        smarticulous.openDB(db.getDbUrl());
+        List<Submission> subs = new ArrayList<>();
+        for (int i = 0; i < 60; ++i)
+            subs.add(createRandomSubmission());
+        smarticulous.storeSubmissions(subs);
+
+        // every answer is checked against a brute-force pass over all the submissions
+        SubmissionTable table = smarticulous.loadSubmissionTable();
+        long hour = 60 * 60 * 1000;
+        long to = System.currentTimeMillis() - hour;
+        long from = to - 12 * hour;
+        Map<Integer, Integer> late = smarticulous.countLateSubmissions();
+        Map<Integer, Integer> beforeDeadline = smarticulous.countSubmissionsBeforeDeadline(6 * hour);
+        for (Exercise ex : smarticulous.loadExercises()) {
+            List<Integer> expected = new ArrayList<>();
+            int expectedLate = 0;
+            int expectedBefore = 0;
+            Map<Long, Integer> expectedHistogram = new java.util.TreeMap<>();
+            for (int row = 0; row < table.size(); ++row) {
+                if (table.exerciseId(row) != ex.id)
+                    continue;
+                long time = table.time(row);
+                if (time >= from && time < to)
+                    expected.add(row);
+                if (time > ex.dueDate.getTime())
+                    expectedLate++;
+                if (time > ex.dueDate.getTime() - 6 * hour && time <= ex.dueDate.getTime())
+                    expectedBefore++;
+                expectedHistogram.merge(Math.floorDiv(time, hour) * hour, 1, Integer::sum);
+            }
+            expected.sort((a, b) -> table.time(a) != table.time(b) ? Long.compare(table.time(a), table.time(b))
+                    : Integer.compare(table.submissionId(a), table.submissionId(b)));
+
+            List<Submission> streamed = new ArrayList<>();
+            smarticulous.streamSubmissions(ex, new Date(from), new Date(to), streamed::add);
+            assertEquals(expected.size(), streamed.size());
+            for (int i = 0; i < expected.size(); ++i) {
+                int row = expected.get(i);
+                Submission sub = streamed.get(i);
+                assertEquals(table.submissionId(row), sub.id);
+                assertEquals(table.time(row), sub.submissionTime.getTime());
+                assertEquals(db.getUser(table.userId(row)).username, sub.user.username);
+                for (int q = 0; q < table.gradeCount(row) && q < sub.questionGrades.length; ++q)
+                    assertEquals(table.grade(row, q), sub.questionGrades[q], 1e-4);
+            }
+            assertEquals(expected.size(), smarticulous.countSubmissions(ex, new Date(from), new Date(to)));
+            assertEquals(expectedLate, (int) late.get(ex.id));
+            assertEquals(expectedBefore, (int) beforeDeadline.get(ex.id));
+            assertEquals(expectedHistogram, smarticulous.getSubmissionHistogram(ex));
+        }
+        smarticulous.closeDB();
+    }
+
+    @Test
+    public void submission_histogramTable() throws Exception  {
+        smarticulous.openDB(db.getDbUrl());
+        assertFalse("The histogram table should be off by default", smarticulous.isSubmissionHistogramEnabled());
+        List<Exercise> exercises = smarticulous.loadExercises();
+        Map<Integer, Map<Long, Integer>> computed = new HashMap<>();
+        for (Exercise ex : exercises)
+            computed.put(ex.id, smarticulous.getSubmissionHistogram(ex));
+
+        // the table starts with the same counts as the index, then follows new submissions
+        smarticulous.rebuildSubmissionHistogram();
+        assertTrue(smarticulous.isSubmissionHistogramEnabled());
+        for (Exercise ex : exercises)
+            assertEquals(computed.get(ex.id), smarticulous.getSubmissionHistogram(ex));
+        List<Submission> subs = new ArrayList<>();
+        for (int i = 0; i < 30; ++i)
+            subs.add(createRandomSubmission());
+        smarticulous.storeSubmissions(subs);
+        for (Submission sub : subs) {
+            long bucket = Math.floorDiv(sub.submissionTime.getTime(), Smarticulous.HISTOGRAM_BUCKET_MILLIS)
+                    * Smarticulous.HISTOGRAM_BUCKET_MILLIS;
+            computed.get(sub.exercise.id).merge(bucket, 1, Integer::sum);
+        }
+        smarticulous.closeDB();
+
+        // reopened, the table is found and agrees with a count over the index
+        smarticulous.openDB(db.getDbUrl());
+        assertTrue(smarticulous.isSubmissionHistogramEnabled());
+        for (Exercise ex : exercises) {
+            assertEquals(computed.get(ex.id), smarticulous.getSubmissionHistogram(ex));
+        }
+        smarticulous.closeDB();
+    }
+
+    @Test
+    public void submission_optionalTablesOfAnotherInstance() throws Exception  {
+        smarticulous.openDB(db.getDbUrl());
+        List<Exercise> exercises = smarticulous.loadExercises();
+        Map<Integer, Map<Long, Integer>> computed = new HashMap<>();
+        for (Exercise ex : exercises)
+            computed.put(ex.id, smarticulous.getSubmissionHistogram(ex));
+
+        // another instance turns the tables on after this one was opened
+        Smarticulous other = new Smarticulous();
+        other.openDB(db.getDbUrl());
+        other.rebuildSubmissionSummary();
+        other.rebuildSubmissionHistogram();
+        other.closeDB();
+        assertFalse(smarticulous.isSubmissionSummaryEnabled());
+
+        // the next write finds them, and maintains them
+        List<Submission> subs = new ArrayList<>();
+        for (int i = 0; i < 30; ++i)
+            subs.add(createRandomSubmission());
+        smarticulous.storeSubmissions(subs);
+        assertTrue(smarticulous.isSubmissionSummaryEnabled());
+        assertTrue(smarticulous.isSubmissionHistogramEnabled());
+        for (Submission sub : subs) {
+            long bucket = Math.floorDiv(sub.submissionTime.getTime(), Smarticulous.HISTOGRAM_BUCKET_MILLIS)
+                    * Smarticulous.HISTOGRAM_BUCKET_MILLIS;
+            computed.get(sub.exercise.id).merge(bucket, 1, Integer::sum);
+        }
+        for (Exercise ex : exercises)
+            assertEquals(computed.get(ex.id), smarticulous.getSubmissionHistogram(ex));
+        try (PreparedStatement lastSt = smarticulous.getLastSubmissionGradesStatement();
+             PreparedStatement bestSt = smarticulous.getBestSubmissionGradesStatement()) {
+            for (Submission sub : subs) {
+                assertEquals("Summary disagrees on the latest submission",
+                        smarticulous.getSubmission(sub.user, sub.exercise, lastSt).id,
+                        smarticulous.getLastSubmission(sub.user, sub.exercise).id);
+                assertEquals("Summary disagrees on the best total",
+                        total(smarticulous.getSubmission(sub.user, sub.exercise, bestSt)),
+                        total(smarticulous.getBestSubmission(sub.user, sub.exercise)), 1e-4);
+            }
+        }
+        smarticulous.closeDB();
+    }
+
+    @Test
+    public void metrics_recordOperations() throws Exception  {
+        smarticulous.openDB(db.getDbUrl());
+        Metrics metrics = smarticulous.getMetrics();
+        metrics.setSlowStatementMillis(0);
+        long commits = metrics.getCommits();
+
+        User user = db.getUser(1);
+        assertTrue(smarticulous.verifyLogin(user.username, db.getPassword(1)));
+        Submission sub = createRandomSubmission();
+        smarticulous.storeSubmission(sub);
+        smarticulous.getLastSubmission(sub.user, sub.exercise);
+
+        assertEquals(1, metrics.operation("verifyLogin").count());
+        assertEquals(1, metrics.operation("storeSubmissions").count());
+        assertEquals(1, metrics.operation("openDB").count());
+        assertTrue("Commits should be counted", metrics.getCommits() > commits);
+        assertTrue("Written rows should be counted", metrics.getRowsWritten() >= 1 + sub.questionGrades.length);
+        assertTrue("Read rows should be counted", metrics.getRowsRead() >= 1 + sub.questionGrades.length);
+        assertTrue("With a 0ms threshold every statement is slow", metrics.getSlowStatements() > 0);
+
+        Map<String, Long> counters = new HashMap<>();
+        List<String> histograms = new ArrayList<>();
+        metrics.exportTo(new MetricsExporter() {
+            @Override
+            public void counter(String name, long value) {
+                counters.put(name, value);
+            }
+
+            @Override
+            public void histogram(String name, LatencyHistogram histogram) {
+                histograms.add(name);
+            }
+        });
+        assertEquals(Long.valueOf(metrics.getCommits()), counters.get("commits"));
+        assertTrue(histograms.contains("op.verifyLogin"));
+        assertTrue(histograms.contains("sql.SELECT Password FROM User WHERE Username = ?;"));
+
+        smarticulous.closeDB();
+    }
+
+    @Test
+    public void create_openDBFailure() throws Exception {
+        File dir = File.createTempFile("testOpenDB", "");
+        dir.delete();
+        try {
+            // the parent directory doesn't exist, so the database can't be created
+            smarticulous.openDB(db.convertFileToURL(new File(dir, "missing/db.sqlite")));
+            fail("openDB should report that the database can't be opened");
+        } catch (java.sql.SQLException e) {
+            // expected
+        }
+        assertNull("A failed openDB should not leave a connection open", smarticulous.db);
+    }
+
+    @Test
+    public void create_schemaVersionFastPath() throws Exception {
+        String createUser = "CREATE TABLE IF NOT EXISTS User (UserId INTEGER PRIMARY KEY, Username TEXT UNIQUE, Firstname TEXT, Lastname TEXT, Password TEXT);";
+        File file = File.createTempFile("testSchemaVersion", "sqlite");
+        file.delete();
+        try {
+            smarticulous.openDB(db.convertFileToURL(file));
+            try (java.sql.Statement st = smarticulous.db.createStatement();
+                 java.sql.ResultSet rs = st.executeQuery("PRAGMA user_version;")) {
+                assertTrue(rs.next());
+                assertEquals(Smarticulous.SCHEMA_VERSION, rs.getInt(1));
+            }
+            smarticulous.closeDB();
+            long created = smarticulous.getMetrics().statement(createUser).count();
+            assertEquals("A new database should be created once", 1, created);
+
+            // the second open finds the current version and doesn't run any DDL
+            smarticulous.openDB(db.convertFileToURL(file));
+            smarticulous.closeDB();
+            assertEquals(created, smarticulous.getMetrics().statement(createUser).count());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void create_tunedProfile() throws Exception {
+        File file = File.createTempFile("testTunedProfile", "sqlite");
+        file.delete();
+        try {
+            smarticulous.openDB(db.convertFileToURL(file), 2, SqliteProfile.TUNED);
+            try (java.sql.Statement st = smarticulous.db.createStatement()) {
+                try (java.sql.ResultSet rs = st.executeQuery("PRAGMA journal_mode;")) {
+                    assertTrue(rs.next());
+                    assertEquals("wal", rs.getString(1).toLowerCase());
+                }
+                try (java.sql.ResultSet rs = st.executeQuery("PRAGMA page_size;")) {
+                    assertTrue(rs.next());
+                    assertEquals(SqliteProfile.TUNED.getPageSize(), rs.getInt(1));
+                }
+            }
+            User user = new User("tuned", "Tuned", "Profile");
+            smarticulous.addOrUpdateUser(user, "pass");
+            assertTrue(smarticulous.verifyLogin("tuned", "pass"));
+            smarticulous.closeDB();
+        } finally {
+            file.delete();
+            new File(file.getPath() + "-wal").delete();
+            new File(file.getPath() + "-shm").delete();
+        }
+
+        try {
+            SqliteProfile.DEFAULT.withPageSize(1000);
+            fail("A page size that isn't a power of two should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void submission_groupCommitWriter() throws Exception  {
+        smarticulous.openDB(db.getDbUrl());
+
+        List<Submission> subs = new ArrayList<>();
+        List<CompletableFuture<Integer>> ids = new ArrayList<>();
+        SubmissionWriter writer = new SubmissionWriter(smarticulous, 5, 50, 1000);
+        try {
+            for (int i = 0; i < 200; ++i) {
+                Submission sub = createRandomSubmission();
+                subs.add(sub);
+                ids.add(writer.submit(sub));
+            }
+            for (int i = 0; i < subs.size(); ++i) {
+                Submission sub = subs.get(i);
+                sub.id = ids.get(i).get(10, TimeUnit.SECONDS);
+                db.checkSubmission(sub);
+            }
+        } finally {
+            writer.close();
+        }
+        assertEquals(subs.size(), writer.submissionCount());
+        assertTrue("Submissions were not grouped: " + writer, writer.batchCount() < subs.size());
+
+        smarticulous.closeDB();
+    }
+
+    @Test
+    public void submission_groupCommitWriterIsolatesFailures() throws Exception  {
+        smarticulous.openDB(db.getDbUrl());
+        Submission stored = createRandomSubmission();
+        stored.id = smarticulous.storeSubmission(stored);
+
+        List<Submission> subs = new ArrayList<>();
+        List<CompletableFuture<Integer>> ids = new ArrayList<>();
+        // a long window, so the duplicate is committed in the same group as the others
+        try (SubmissionWriter writer = new SubmissionWriter(smarticulous, 500, 50, 1000)) {
+            for (int i = 0; i < 20; ++i) {
+                Submission sub = createRandomSubmission();
+                if (i == 7)
+                    sub.id = stored.id;
+                subs.add(sub);
+                ids.add(writer.submit(sub));
+            }
+            for (int i = 0; i < subs.size(); ++i) {
+                if (i == 7) {
+                    try {
+                        ids.get(i).get(10, TimeUnit.SECONDS);
+                        fail("A submission with an existing id was stored");
+                    } catch (ExecutionException e) {
+                        // expected
+                    }
+                    continue;
+                }
+                Submission sub = subs.get(i);
+                sub.id = ids.get(i).get(10, TimeUnit.SECONDS);
+                db.checkSubmission(sub);
+            }
+            assertEquals(1, writer.failedSubmissionCount());
+            assertEquals(subs.size() - 1, writer.submissionCount());
+        }
+        smarticulous.closeDB();
+    }
+
+    @Test
+    public void submission_groupCommitWriterDiesCleanly() throws Exception  {
+        Error crash = new Error("writer crashed");
+        Smarticulous crashing = new Smarticulous() {
+            @Override
+            public int[] storeSubmissions(java.util.Collection<Submission> submissions) {
+                throw crash;
+            }
+        };
+        try (SubmissionWriter writer = new SubmissionWriter(crashing, 5, 50, 1000)) {
+            CompletableFuture<Integer> id = writer.submit(createRandomSubmission());
+            try {
+                id.get(10, TimeUnit.SECONDS);
+                fail("The submission of a crashed writer was stored");
+            } catch (ExecutionException e) {
+                assertSame(crash, e.getCause());
+            }
+            // a dead writer doesn't take submissions it will never store
+            try {
+                writer.submit(createRandomSubmission());
+                fail("A crashed writer accepted a submission");
+            } catch (java.util.concurrent.RejectedExecutionException e) {
+                // expected
+            }
+        }
+    }
+
     @Test
     public void submission_getLastSubmissionStatement() throws Exception  {
         smarticulous.openDB(db.getDbUrl());
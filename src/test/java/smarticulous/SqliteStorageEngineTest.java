@@ -0,0 +1,25 @@
+package smarticulous;
+
+import java.io.File;
+
+/**
+ * Runs the {@link StorageEngine} contract against {@link Smarticulous} on a fresh SQLite file.
+ */
+public class SqliteStorageEngineTest extends StorageEngineTest {
+    File tmpdb;
+
+    @Override
+    StorageEngine createEngine() throws Exception {
+        tmpdb = File.createTempFile("storageEngine", ".sqlite");
+        tmpdb.delete();
+        Smarticulous smarticulous = new Smarticulous();
+        smarticulous.openDB("jdbc:sqlite:" + tmpdb.getPath());
+        return smarticulous;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+        tmpdb.delete();
+    }
+}
@@ -0,0 +1,154 @@
+package smarticulous;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The behaviour every {@link StorageEngine} must share, run against each implementation by a subclass.
+ */
+public abstract class StorageEngineTest {
+    StorageEngine engine;
+
+    User alice = new User("alice", "Alice", "A");
+    User bob = new User("bob", "Bob", "B");
+
+    /**
+     * @return a new, empty engine.
+     */
+    abstract StorageEngine createEngine() throws Exception;
+
+    @Before
+    public void setUp() throws Exception {
+        engine = createEngine();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        engine.close();
+    }
+
+    Exercise exercise(int id, int questions) {
+        Exercise ex = new Exercise(id, "ex" + id, new Date(1000L * id));
+        for (int q = 1; q <= questions; ++q) {
+            ex.addQuestion("q" + q, "question " + q, 10);
+        }
+        return ex;
+    }
+
+    @Test
+    public void user_addAndUpdate() throws Exception {
+        int id = engine.addOrUpdateUser(alice, "secret");
+        assertEquals("updating a user should keep their id", id, engine.addOrUpdateUser(alice, "other"));
+        assertNotEquals(id, engine.addOrUpdateUser(bob, "secret"));
+
+        assertTrue(engine.verifyLogin("alice", "other"));
+        assertFalse("the old password should no longer work", engine.verifyLogin("alice", "secret"));
+    }
+
+    @Test
+    public void user_passwordThatLooksHashed() throws Exception {
+        String password = PasswordHasher.hash("secret");
+        engine.addOrUpdateUser(alice, password);
+        assertTrue(engine.verifyLogin("alice", password));
+        assertFalse("the hash must not be checked as a hash", engine.verifyLogin("alice", "secret"));
+
+        engine.addOrUpdateUser(bob, "pbkdf2$plain$x");
+        assertTrue(engine.verifyLogin("bob", "pbkdf2$plain$x"));
+        assertFalse(engine.verifyLogin("bob", "x"));
+    }
+
+    @Test
+    public void user_verifyLogin() throws Exception {
+        engine.addOrUpdateUser(alice, "secret");
+        assertTrue(engine.verifyLogin("alice", "secret"));
+        assertFalse(engine.verifyLogin("alice", "Secret"));
+        assertFalse(engine.verifyLogin("nobody", "secret"));
+        assertFalse(engine.verifyLogin("alice", null));
+        assertFalse(engine.verifyLogin("alice", "' OR '1'='1"));
+        assertFalse(engine.verifyLogin("' OR '1'='1", "' OR '1'='1"));
+    }
+
+    @Test
+    public void exercise_addAndLoad() throws Exception {
+        assertEquals(3, engine.addExercise(exercise(3, 2)));
+        assertEquals(1, engine.addExercise(exercise(1, 0)));
+        assertEquals("a duplicate exercise id should be rejected", -1, engine.addExercise(exercise(3, 5)));
+
+        List<Exercise> exercises = engine.loadExercises();
+        assertEquals(2, exercises.size());
+        assertEquals("exercises should be sorted by id", 1, exercises.get(0).id);
+        assertEquals(3, exercises.get(1).id);
+        assertEquals(0, exercises.get(0).questions.size());
+        assertEquals("the duplicate must not replace the original", 2, exercises.get(1).questions.size());
+        assertEquals("q2", exercises.get(1).questions.get(1).name);
+        assertEquals(3000L, exercises.get(1).dueDate.getTime());
+    }
+
+    @Test
+    public void submission_unknownUser() throws Exception {
+        Exercise ex = exercise(1, 2);
+        engine.addExercise(ex);
+        engine.addOrUpdateUser(alice, "secret");
+        int[] ids = engine.storeSubmissions(Arrays.asList(
+                new Submission(bob, ex, new Date(5), new float[]{1, 2}),
+                new Submission(alice, ex, new Date(5), new float[]{1, 2})));
+        assertEquals(-1, ids[0]);
+        assertTrue(ids[1] > 0);
+        assertNull(engine.getLastSubmission(bob, ex));
+    }
+
+    @Test
+    public void submission_lastAndBest() throws Exception {
+        Exercise ex = exercise(1, 2);
+        engine.addExercise(ex);
+        engine.addOrUpdateUser(alice, "secret");
+        assertNull(engine.getLastSubmission(alice, ex));
+        assertNull(engine.getBestSubmission(alice, ex));
+
+        int early = engine.storeSubmission(new Submission(alice, ex, new Date(100), new float[]{9, 9}));
+        int late = engine.storeSubmission(new Submission(alice, ex, new Date(300), new float[]{1, 2}));
+        engine.storeSubmission(new Submission(alice, ex, new Date(200), new float[]{5, 5}));
+
+        Submission last = engine.getLastSubmission(alice, ex);
+        assertEquals(late, last.id);
+        assertEquals(300L, last.submissionTime.getTime());
+        assertArrayEquals(new float[]{1, 2}, last.questionGrades, 0);
+
+        Submission best = engine.getBestSubmission(alice, ex);
+        assertEquals(early, best.id);
+        assertArrayEquals(new float[]{9, 9}, best.questionGrades, 0);
+
+        // a tie on the total goes to the latest submission
+        int tie = engine.storeSubmission(new Submission(alice, ex, new Date(400), new float[]{8, 10}));
+        assertEquals(tie, engine.getBestSubmission(alice, ex).id);
+    }
+
+    @Test
+    public void submission_explicitIds() throws Exception {
+        Exercise ex = exercise(1, 1);
+        engine.addExercise(ex);
+        engine.addOrUpdateUser(alice, "secret");
+        assertEquals(42, engine.storeSubmission(new Submission(42, alice, ex, new Date(1), new float[]{1})));
+        int next = engine.storeSubmission(new Submission(alice, ex, new Date(2), new float[]{1}));
+        assertTrue("new ids should not collide with explicit ones", next > 42);
+
+        try {
+            engine.storeSubmission(new Submission(42, alice, ex, new Date(3), new float[]{1}));
+            fail("storing a duplicate submission id should fail");
+        } catch (SQLException e) {
+            // expected
+        }
+        assertEquals(next, engine.getLastSubmission(alice, ex).id);
+    }
+}
@@ -0,0 +1,190 @@
+package smarticulous;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import smarticulous.db.Exercise;
+import smarticulous.db.Submission;
+import smarticulous.db.User;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Query-plan and latency regression checks for the latest/best submission lookups and the time-range queries.
+ * <p>
+ * The query plans are checked on a small database by default, and the test fails if either lookup stops seeking
+ * the Submission_User_Exercise_Time index. The latency checks are load tests and only run when
+ * {@code smarticulous.bench.submissions} is set (e.g. {@code gradle test -Dsmarticulous.bench.submissions=1000000}):
+ * they fail if a lookup gets slower on average than {@code smarticulous.bench.maxLookupMicros}.
+ */
+public class SubmissionQueryPlanTest {
+    static final boolean LOAD_TEST = System.getProperty("smarticulous.bench.submissions") != null;
+    static final int SUBMISSIONS = Integer.getInteger("smarticulous.bench.submissions", 50000);
+    static final int MAX_LOOKUP_MICROS = Integer.getInteger("smarticulous.bench.maxLookupMicros", 2000);
+    static final int USERS = 10000;
+    static final int EXERCISES = 20;
+    static final int QUESTIONS = 3;
+    static final int LOOKUPS = 2000;
+
+    /**
+     * A full scan of one of these tables shows up in the plan as "SCAN Submission" (or "SCAN TABLE Submission"
+     * with older SQLite versions).
+     */
+    static final Pattern FULL_SCAN = Pattern.compile("SCAN (TABLE )?(Submission|QuestionGrade|User)\\b");
+
+    static File tmpdb;
+
+    Random rand = new Random(42);
+    Smarticulous smarticulous = new Smarticulous();
+
+    /**
+     * Filling a load-test database takes a few seconds, so the database is created once for all the tests.
+     */
+    @BeforeClass
+    public static void createDB() throws Exception {
+        tmpdb = File.createTempFile("testQueryPlan", "sqlite");
+        tmpdb.delete();
+        Smarticulous smarticulous = new Smarticulous();
+        smarticulous.openDB("jdbc:sqlite:" + tmpdb.getAbsolutePath());
+
+        // generate the data inside SQLite, it is much faster than going through JDBC row by row
+        try (Statement st = smarticulous.db.createStatement()) {
+            st.executeUpdate("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < " + USERS + ") "
+                    + "INSERT INTO User (UserId, Username, Firstname, Lastname, Password) "
+                    + "SELECT i, 'user' || i, 'first', 'last', 'pass' FROM n;");
+            st.executeUpdate("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < " + SUBMISSIONS + ") "
+                    + "INSERT INTO Submission (SubmissionId, UserId, ExerciseId, SubmissionTime) "
+                    + "SELECT i, 1 + (i * 7919) % " + USERS + ", 1 + (i / " + USERS + ") % " + EXERCISES + ", i * 1000 FROM n;");
+            st.executeUpdate("WITH RECURSIVE q(j) AS (SELECT 1 UNION ALL SELECT j + 1 FROM q WHERE j < " + QUESTIONS + ") "
+                    + "INSERT INTO QuestionGrade (SubmissionId, QuestionId, Grade) "
+                    + "SELECT SubmissionId, j, ((SubmissionId * 31 + j * 17) % 100) / 10.0 FROM Submission, q;");
+            st.execute("ANALYZE;");
+        }
+        smarticulous.db.commit();
+        smarticulous.closeDB();
+    }
+
+    @AfterClass
+    public static void deleteDB() {
+        if (tmpdb != null)
+            tmpdb.delete();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        smarticulous.openDB("jdbc:sqlite:" + tmpdb.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        smarticulous.closeDB();
+    }
+
+    private List<String> explain(String sql) throws Exception {
+        List<String> plan = new ArrayList<>();
+        try (PreparedStatement explain = smarticulous.db.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            explain.setString(1, "user1");
+            explain.setInt(2, 1);
+            explain.setInt(3, QUESTIONS);
+            try (ResultSet rs = explain.executeQuery()) {
+                while (rs.next())
+                    plan.add(rs.getString("detail"));
+            }
+        }
+        return plan;
+    }
+
+    private void checkPlan(String name, String sql) throws Exception {
+        List<String> plan = explain(sql);
+        boolean usesIndex = false;
+        for (String step : plan) {
+            assertFalse(name + " does a full scan: " + plan, FULL_SCAN.matcher(step).find());
+            usesIndex |= step.contains("Submission_User_Exercise_Time");
+        }
+        assertTrue(name + " doesn't use the submission index: " + plan, usesIndex);
+    }
+
+    @Test
+    public void lastSubmission_usesIndex() throws Exception {
+        checkPlan("getLastSubmissionGradesStatement", Smarticulous.LAST_SUBMISSION_GRADES);
+    }
+
+    @Test
+    public void bestSubmission_usesIndex() throws Exception {
+        checkPlan("getBestSubmissionGradesStatement", Smarticulous.BEST_SUBMISSION_GRADES);
+    }
+
+    @Test
+    public void timeRanges_useExerciseTimeIndex() throws Exception {
+        String[] queries = {Smarticulous.SUBMISSIONS_IN_RANGE, Smarticulous.COUNT_SUBMISSIONS_IN_RANGE,
+                Smarticulous.COUNT_LATE_SUBMISSIONS, Smarticulous.COUNT_BEFORE_DEADLINE, Smarticulous.HISTOGRAM_FROM_INDEX};
+        for (String sql : queries) {
+            List<String> plan = new ArrayList<>();
+            try (PreparedStatement explain = smarticulous.db.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+                for (int i = 1; i <= explain.getParameterMetaData().getParameterCount(); ++i)
+                    explain.setLong(i, 1);
+                try (ResultSet rs = explain.executeQuery()) {
+                    while (rs.next())
+                        plan.add(rs.getString("detail"));
+                }
+            }
+            boolean usesIndex = false;
+            for (String step : plan) {
+                assertFalse("full scan: " + plan, FULL_SCAN.matcher(step).find());
+                // the counts never need the table itself, and the range scan is already in time order
+                assertFalse("sort: " + plan, sql.startsWith("SELECT s.") && step.contains("TEMP B-TREE"));
+                usesIndex |= step.contains("Submission_Exercise_Time");
+            }
+            assertTrue("doesn't use the time index: " + plan, usesIndex);
+        }
+    }
+
+    private void checkLatency(String name, boolean best) throws Exception {
+        assumeTrue("latency checks run with -Dsmarticulous.bench.submissions", LOAD_TEST);
+        Exercise[] exercises = new Exercise[EXERCISES + 1];
+        for (int e = 1; e <= EXERCISES; ++e) {
+            exercises[e] = new Exercise(e, "ex" + e, new Date());
+            for (int q = 0; q < QUESTIONS; ++q)
+                exercises[e].addQuestion("q" + q, "", 10);
+        }
+
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; ++i) {
+            User user = new User("user" + (rand.nextInt(USERS) + 1), "first", "last");
+            Exercise ex = exercises[rand.nextInt(EXERCISES) + 1];
+            Submission sub = best ? smarticulous.getBestSubmission(user, ex) : smarticulous.getLastSubmission(user, ex);
+            if (sub != null)
+                found++;
+        }
+        long micros = (System.nanoTime() - start) / 1000 / LOOKUPS;
+
+        assertTrue(name + " found no submissions", found > 0);
+        assertTrue(name + " takes " + micros + "us per lookup over " + SUBMISSIONS + " submissions (limit "
+                        + MAX_LOOKUP_MICROS + "us)",
+                micros <= MAX_LOOKUP_MICROS);
+    }
+
+    @Test
+    public void lastSubmission_latency() throws Exception {
+        checkLatency("getLastSubmission", false);
+    }
+
+    @Test
+    public void bestSubmission_latency() throws Exception {
+        checkLatency("getBestSubmission", true);
+    }
+}
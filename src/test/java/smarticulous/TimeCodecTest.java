@@ -0,0 +1,139 @@
+package smarticulous;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips of {@link TimeCodec} through a SQLite INTEGER column, over the whole long range.
+ * <p>
+ * The random round trip can be made longer or replayed with {@code -Dsmarticulous.bench.timeSamples} and
+ * {@code -Dsmarticulous.bench.timeSeed} (build.gradle passes {@code smarticulous.bench.*} on to the tests).
+ */
+public class TimeCodecTest {
+    static final int SAMPLES = Integer.getInteger("smarticulous.bench.timeSamples", 10000);
+
+    // the edges of the long range and of the int range (where reading with getInt used to break), and the epoch
+    static final long[] EDGES = {Long.MIN_VALUE, Long.MIN_VALUE + 1, Integer.MIN_VALUE - 1L, Integer.MIN_VALUE,
+            -1, 0, 1, Integer.MAX_VALUE, Integer.MAX_VALUE + 1L, Long.MAX_VALUE - 1, Long.MAX_VALUE};
+
+    Connection db;
+
+    @Before
+    public void setUp() throws Exception {
+        db = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement st = db.createStatement()) {
+            st.executeUpdate("CREATE TABLE Times (Id INTEGER PRIMARY KEY, Time INTEGER);");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.close();
+    }
+
+    /**
+     * Store every time, then read them all back both as millis and as dates.
+     */
+    void assertRoundTrips(long[] times) throws Exception {
+        try (Statement st = db.createStatement()) {
+            st.executeUpdate("DELETE FROM Times;");
+        }
+        try (PreparedStatement ps = db.prepareStatement("INSERT INTO Times (Id, Time) VALUES (?, ?);")) {
+            for (int i = 0; i < times.length; ++i) {
+                ps.setInt(1, i);
+                // every other time goes through a Date
+                if (i % 2 == 0) {
+                    TimeCodec.bind(ps, 2, times[i]);
+                } else {
+                    TimeCodec.bind(ps, 2, TimeCodec.date(times[i]));
+                }
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        try (Statement st = db.createStatement();
+             ResultSet rs = st.executeQuery("SELECT Id, Time FROM Times ORDER BY Id;")) {
+            for (long time : times) {
+                assertTrue(rs.next());
+                assertEquals(time, TimeCodec.millis(rs, "Time", 42));
+                assertEquals(time, TimeCodec.millis(rs, 2, 42));
+                assertEquals(time, TimeCodec.date(rs, "Time").getTime());
+            }
+            assertFalse(rs.next());
+        }
+    }
+
+    @Test
+    public void roundTripEdges() throws Exception {
+        assertRoundTrips(EDGES);
+    }
+
+    @Test
+    public void roundTripRandom() throws Exception {
+        long seed = Long.getLong("smarticulous.bench.timeSeed", System.nanoTime());
+        Random rand = new Random(seed);
+        long[] times = new long[SAMPLES];
+        for (int i = 0; i < times.length; ++i) {
+            switch (i % 3) {
+                case 0:
+                    // anywhere in the long range
+                    times[i] = rand.nextLong();
+                    break;
+                case 1:
+                    // around the epoch, including dates before 1970
+                    times[i] = (long) (rand.nextGaussian() * 4e12);
+                    break;
+                default:
+                    // near the edges of the int and long ranges
+                    times[i] = EDGES[rand.nextInt(EDGES.length)] + rand.nextInt(2001) - 1000;
+            }
+        }
+        try {
+            assertRoundTrips(times);
+        } catch (AssertionError e) {
+            throw new AssertionError("failed with -Dsmarticulous.bench.timeSeed=" + seed, e);
+        }
+    }
+
+    @Test
+    public void nullDates() throws Exception {
+        try (PreparedStatement ps = db.prepareStatement("INSERT INTO Times (Id, Time) VALUES (1, ?);")) {
+            TimeCodec.bind(ps, 1, (Date) null);
+            ps.executeUpdate();
+        }
+        try (Statement st = db.createStatement(); ResultSet rs = st.executeQuery("SELECT Time FROM Times;")) {
+            assertTrue(rs.next());
+            assertNull(TimeCodec.date(rs, "Time"));
+            assertEquals(42, TimeCodec.millis(rs, "Time", 42));
+            assertEquals(42, TimeCodec.millis(rs, 1, 42));
+            // a required time is never read as the epoch
+            try {
+                TimeCodec.requiredMillis(rs, "Time");
+                fail("a NULL time was read as the epoch");
+            } catch (java.sql.SQLException expected) {
+            }
+            try {
+                TimeCodec.requiredMillis(rs, 1);
+                fail("a NULL time was read as the epoch");
+            } catch (java.sql.SQLException expected) {
+            }
+        }
+        assertEquals(7, TimeCodec.millis(null, 7));
+        try {
+            TimeCodec.millis(null);
+            fail("a required date may not be null");
+        } catch (NullPointerException expected) {
+        }
+    }
+}